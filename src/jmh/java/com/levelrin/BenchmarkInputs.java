@@ -0,0 +1,80 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inputs shared by all benchmarks.
+ * Benchmarks take the input kind as a JMH parameter so that we can compare small and large files.
+ */
+final class BenchmarkInputs {
+
+    /**
+     * Each `*-before.py` file in the test resources as a separate input.
+     */
+    static final String RESOURCES = "resources";
+
+    /**
+     * One large input made of all `*-before.py` files repeated many times.
+     */
+    static final String SYNTHETIC = "synthetic";
+
+    /**
+     * How many times we repeat the test resources in the synthetic input.
+     */
+    private static final int REPETITIONS = 100;
+
+    /**
+     * Utility class.
+     */
+    private BenchmarkInputs() {
+    }
+
+    /**
+     * Load the inputs.
+     *
+     * @param kind Either {@link BenchmarkInputs#RESOURCES} or {@link BenchmarkInputs#SYNTHETIC}.
+     * @return Python code.
+     */
+    static List<String> load(final String kind) {
+        final List<String> resources = resources();
+        final List<String> result;
+        if (RESOURCES.equals(kind)) {
+            result = resources;
+        } else if (SYNTHETIC.equals(kind)) {
+            // Not all files end with a line break, so we add one in between.
+            final String joined = String.join("\n", resources) + "\n";
+            result = Collections.singletonList(joined.repeat(REPETITIONS));
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown input kind: %s", kind));
+        }
+        return result;
+    }
+
+    /**
+     * Read all `*-before.py` files from the test resources.
+     *
+     * @return Python code sorted by the file name.
+     */
+    private static List<String> resources() {
+        try {
+            final List<String> texts = new ArrayList<>();
+            for (final Path file : TestResources.files("-before.py")) {
+                texts.add(Files.readString(file, StandardCharsets.UTF_8));
+            }
+            return texts;
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (final URISyntaxException ex) {
+            throw new IllegalStateException("Failed to locate the test resources.", ex);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.levelrin;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * All stages together through {@link PythonFormatter}.
+ * Compare it with the per-stage benchmarks to see the overhead between the stages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatterBenchmark {
+
+    /**
+     * See {@link BenchmarkInputs}.
+     */
+    @Param({BenchmarkInputs.RESOURCES, BenchmarkInputs.SYNTHETIC})
+    private String input;
+
+    /**
+     * Python code.
+     */
+    private List<String> texts;
+
+    /**
+     * As is.
+     */
+    private PythonFormatter formatter;
+
+    /**
+     * Prepare the inputs.
+     */
+    @Setup
+    public void setup() {
+        this.texts = BenchmarkInputs.load(this.input);
+        this.formatter = new PythonFormatter();
+    }
+
+    /**
+     * Format all inputs.
+     *
+     * @param blackhole It consumes the formatted code.
+     */
+    @Benchmark
+    public void format(final Blackhole blackhole) {
+        for (final String text : this.texts) {
+            blackhole.consume(this.formatter.format(text));
+        }
+    }
+
+}
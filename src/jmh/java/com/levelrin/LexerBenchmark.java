@@ -0,0 +1,80 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenization only.
+ * The char streams are created up front, so the measurement excludes reading the input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexerBenchmark {
+
+    /**
+     * See {@link BenchmarkInputs}.
+     */
+    @Param({BenchmarkInputs.RESOURCES, BenchmarkInputs.SYNTHETIC})
+    private String input;
+
+    /**
+     * One char stream per input.
+     */
+    private List<CharStream> charStreams;
+
+    /**
+     * It's reused like the pipeline of {@link PythonFormatter}.
+     */
+    private PythonLexer lexer;
+
+    /**
+     * Prepare the inputs.
+     */
+    @Setup
+    public void setup() {
+        this.charStreams = new ArrayList<>();
+        for (final String text : BenchmarkInputs.load(this.input)) {
+            this.charStreams.add(CharStreams.fromString(text));
+        }
+        this.lexer = new PythonLexer(CharStreams.fromString(""));
+        this.lexer.removeErrorListeners();
+    }
+
+    /**
+     * Tokenize all inputs.
+     *
+     * @return Number of tokens.
+     */
+    @Benchmark
+    public int lex() {
+        int count = 0;
+        for (final CharStream charStream : this.charStreams) {
+            this.lexer.setInputStream(charStream);
+            for (Token token = this.lexer.nextToken(); token.getType() != Token.EOF; token = this.lexer.nextToken()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import com.levelrin.antlr.generated.PythonParser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * `file_input()` only.
+ * The tokens are buffered up front, so the measurement excludes the lexer.
+ * It uses the SLL prediction mode like {@link PythonFormatter} does for valid code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    /**
+     * See {@link BenchmarkInputs}.
+     */
+    @Param({BenchmarkInputs.RESOURCES, BenchmarkInputs.SYNTHETIC})
+    private String input;
+
+    /**
+     * Whether to compact the parse tree with {@link TreeCompactor}, like `--compact` does.
+     */
+    @Param({"false", "true"})
+    private boolean compact;
+
+    /**
+     * One fully buffered token stream per input.
+     */
+    private List<ColumnarTokenStream> tokenStreams;
+
+    /**
+     * It's reused like the pipeline of {@link PythonFormatter}.
+     */
+    private PythonParser parser;
+
+    /**
+     * Prepare the inputs.
+     */
+    @Setup
+    public void setup() {
+        this.tokenStreams = new ArrayList<>();
+        for (final String text : BenchmarkInputs.load(this.input)) {
+            final ColumnarTokenStream tokens = new ColumnarTokenStream(new PythonLexer(CharStreams.fromString(text)));
+            tokens.fill();
+            this.tokenStreams.add(tokens);
+        }
+        this.parser = new PythonParser(this.tokenStreams.get(0));
+        this.parser.removeErrorListeners();
+        this.parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        if (this.compact) {
+            this.parser.addParseListener(TreeCompactor.INSTANCE);
+        }
+    }
+
+    /**
+     * Parse all inputs.
+     *
+     * @param blackhole It consumes the parse trees.
+     */
+    @Benchmark
+    public void parse(final Blackhole blackhole) {
+        for (final ColumnarTokenStream tokens : this.tokenStreams) {
+            tokens.seek(0);
+            this.parser.setTokenStream(tokens);
+            blackhole.consume(this.parser.file_input());
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import com.levelrin.antlr.generated.PythonParser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link PythonVisitor#visit} only.
+ * The parse trees are built up front, so the measurement excludes the lexer and the parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VisitorBenchmark {
+
+    /**
+     * See {@link BenchmarkInputs}.
+     */
+    @Param({BenchmarkInputs.RESOURCES, BenchmarkInputs.SYNTHETIC})
+    private String input;
+
+    /**
+     * The token stream of each input.
+     */
+    private List<ColumnarTokenStream> tokenStreams;
+
+    /**
+     * The parse tree of each input.
+     */
+    private List<ParseTree> trees;
+
+    /**
+     * Prepare the inputs.
+     */
+    @Setup
+    public void setup() {
+        this.tokenStreams = new ArrayList<>();
+        this.trees = new ArrayList<>();
+        for (final String text : BenchmarkInputs.load(this.input)) {
+            final ColumnarTokenStream tokens = new ColumnarTokenStream(new PythonLexer(CharStreams.fromString(text)));
+            final PythonParser parser = new PythonParser(tokens);
+            parser.removeErrorListeners();
+            parser.addErrorListener(new ThrowableErrorListener());
+            this.trees.add(parser.file_input());
+            this.tokenStreams.add(tokens);
+        }
+    }
+
+    /**
+     * Format all parse trees.
+     *
+     * @param blackhole It consumes the formatted code.
+     */
+    @Benchmark
+    public void visit(final Blackhole blackhole) {
+        for (int index = 0; index < this.trees.size(); index++) {
+            final StringBuilder output = new StringBuilder();
+            final PythonVisitor visitor = new PythonVisitor(this.tokenStreams.get(index), output);
+            visitor.visit(this.trees.get(index));
+            blackhole.consume(output);
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.antlr.v4.runtime.CharStream;
+
+/**
+ * It formats all Python files in directory trees in parallel.
+ * The files are split recursively and processed on a {@link ForkJoinPool},
+ * so idle workers steal the remaining files from busy ones.
+ * With a {@link FormatCache}, the files we have seen before are not parsed again.
+ * The files are read by {@link MappedCharStream}, so ASCII files are not copied into strings.
+ * The large files are mapped into memory only in the check mode, where we never overwrite them.
+ * They are decoded and written back with the encoding declared in them, or UTF-8 by default.
+ */
+public final class BatchFormatter {
+
+    /**
+     * We only format the files with this extension.
+     */
+    private static final String EXTENSION = ".py";
+
+    /**
+     * It formats each file.
+     */
+    private final PythonFormatter formatter;
+
+    /**
+     * The worker threads.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * If true, we overwrite the files with the formatted code.
+     * Otherwise, we only report the files that would be changed.
+     */
+    private final boolean write;
+
+    /**
+     * The formatted code of the files we have seen before.
+     */
+    private final FormatCache cache;
+
+    /**
+     * Constructor without cache.
+     *
+     * @param formatter See {@link BatchFormatter#formatter}.
+     * @param pool See {@link BatchFormatter#pool}.
+     * @param write See {@link BatchFormatter#write}.
+     */
+    public BatchFormatter(final PythonFormatter formatter, final ForkJoinPool pool, final boolean write) {
+        this(formatter, pool, write, FormatCache.NONE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param formatter See {@link BatchFormatter#formatter}.
+     * @param pool See {@link BatchFormatter#pool}.
+     * @param write See {@link BatchFormatter#write}.
+     * @param cache See {@link BatchFormatter#cache}.
+     */
+    public BatchFormatter(final PythonFormatter formatter, final ForkJoinPool pool, final boolean write, final FormatCache cache) {
+        this.formatter = formatter;
+        this.pool = pool;
+        this.write = write;
+        this.cache = cache;
+    }
+
+    /**
+     * Format all Python files under the paths.
+     * A path can be either a directory or a file.
+     * A file that cannot be formatted does not stop the others.
+     * It will be recorded in the report instead.
+     *
+     * @param roots Directories or files.
+     * @return The outcome.
+     * @throws IOException If we fail to walk the directories.
+     */
+    public BatchReport format(final List<Path> roots) throws IOException {
+        final long start = System.nanoTime();
+        final List<Path> files = this.pythonFiles(roots);
+        final BatchReport report = new BatchReport();
+        this.pool.invoke(new FormatTask(this, files, 0, files.size(), report));
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Find all Python files.
+     *
+     * @param roots Directories or files.
+     * @return Python files.
+     * @throws IOException If we fail to walk the directories.
+     */
+    private List<Path> pythonFiles(final List<Path> roots) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (final Path root : roots) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                files.addAll(
+                    paths.filter(Files::isRegularFile)
+                        .filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                        .collect(Collectors.toList())
+                );
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Format a single file and record the outcome.
+     *
+     * @param file As is.
+     * @param report We record the outcome here.
+     */
+    private void formatFile(final Path file, final BatchReport report) {
+        try {
+            final ByteBuffer bytes;
+            if (this.cache == FormatCache.NONE && !this.write) {
+                bytes = MappedCharStream.read(file);
+            } else {
+                // The cache needs the bytes in an array anyway,
+                // and Windows doesn't allow overwriting a file while it's mapped.
+                bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+            }
+            final Charset charset = MappedCharStream.charset(bytes);
+            final CharStream original = MappedCharStream.of(bytes, charset, file.toString());
+            String formatted = null;
+            if (bytes.hasArray()) {
+                formatted = this.cache.lookup(bytes.array());
+            }
+            if (formatted == null) {
+                formatted = this.formatter.format(original);
+                if (bytes.hasArray()) {
+                    this.cache.store(bytes.array(), formatted);
+                }
+            }
+            if (MappedCharStream.contentEquals(original, formatted)) {
+                report.recordUnchanged();
+            } else {
+                if (this.write) {
+                    Files.writeString(file, formatted, charset);
+                }
+                report.recordChanged(file);
+            }
+        } catch (final IOException ex) {
+            report.recordFailed(file, ex.toString());
+        } catch (final ParseException | UnsupportedOperationException ex) {
+            report.recordFailed(file, ex.getMessage());
+        } catch (final RuntimeException ex) {
+            // Otherwise, it escapes the task and aborts the whole batch.
+            report.recordFailed(file, ex.toString());
+        }
+    }
+
+    /**
+     * It splits the files in half until only one file is left.
+     */
+    private static final class FormatTask extends RecursiveAction {
+
+        /**
+         * Please do not use the @Serial annotation because it is not supported in JDK 11.
+         */
+        private static final long serialVersionUID = -3412578069873409542L;
+
+        /**
+         * The owner.
+         */
+        private final transient BatchFormatter owner;
+
+        /**
+         * All files in the batch.
+         */
+        private final transient List<Path> files;
+
+        /**
+         * Inclusive index of the first file of this task.
+         */
+        private final int from;
+
+        /**
+         * Exclusive index of the last file of this task.
+         */
+        private final int to;
+
+        /**
+         * We record the outcome here.
+         */
+        private final transient BatchReport report;
+
+        /**
+         * Constructor.
+         *
+         * @param owner See {@link FormatTask#owner}.
+         * @param files See {@link FormatTask#files}.
+         * @param from See {@link FormatTask#from}.
+         * @param to See {@link FormatTask#to}.
+         * @param report See {@link FormatTask#report}.
+         */
+        FormatTask(final BatchFormatter owner, final List<Path> files, final int from, final int to, final BatchReport report) {
+            super();
+            this.owner = owner;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.owner.formatFile(this.files.get(this.from), this.report);
+            } else if (this.to - this.from > 1) {
+                final int middle = (this.from + this.to) >>> 1;
+                invokeAll(
+                    new FormatTask(this.owner, this.files, this.from, middle, this.report),
+                    new FormatTask(this.owner, this.files, middle, this.to, this.report)
+                );
+            }
+        }
+
+    }
+
+}
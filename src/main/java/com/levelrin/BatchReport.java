@@ -0,0 +1,139 @@
+package com.levelrin;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outcome of formatting many files with {@link BatchFormatter}.
+ * Worker threads update it concurrently, so all counters are thread-safe.
+ */
+@SuppressWarnings("MissingCtor")
+public final class BatchReport {
+
+    /**
+     * Files that were already formatted.
+     */
+    private final LongAdder unchangedCount = new LongAdder();
+
+    /**
+     * Files whose formatted code differs from the original code.
+     * Key - File path.
+     * Value - Nothing meaningful. We use the map as a concurrent set.
+     */
+    private final Map<Path, Boolean> changedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Files we could not format.
+     * Key - File path.
+     * Value - Error message.
+     */
+    private final Map<Path, String> failedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Wall-clock time of the whole batch.
+     * It's set once all files are processed.
+     */
+    private volatile long elapsedNanos;
+
+    /**
+     * Record a file that did not need any change.
+     */
+    void recordUnchanged() {
+        this.unchangedCount.increment();
+    }
+
+    /**
+     * Record a file whose formatted code differs from the original.
+     *
+     * @param file As is.
+     */
+    void recordChanged(final Path file) {
+        this.changedFiles.put(file, Boolean.TRUE);
+    }
+
+    /**
+     * Record a file we could not format.
+     *
+     * @param file As is.
+     * @param message Why it failed.
+     */
+    void recordFailed(final Path file, final String message) {
+        this.failedFiles.put(file, message);
+    }
+
+    /**
+     * Record the elapsed time once all files are processed.
+     *
+     * @param nanos Wall-clock time of the whole batch.
+     */
+    void finish(final long nanos) {
+        this.elapsedNanos = nanos;
+    }
+
+    /**
+     * Number of files we visited.
+     *
+     * @return As is.
+     */
+    public long files() {
+        return this.unchangedCount.sum() + this.changedFiles.size() + this.failedFiles.size();
+    }
+
+    /**
+     * Number of files that were already formatted.
+     *
+     * @return As is.
+     */
+    public long unchanged() {
+        return this.unchangedCount.sum();
+    }
+
+    /**
+     * Files whose formatted code differs from the original code.
+     * In the check mode, they are the files that would be changed.
+     *
+     * @return As is.
+     */
+    public Set<Path> changed() {
+        return Collections.unmodifiableSet(this.changedFiles.keySet());
+    }
+
+    /**
+     * Files we could not format with the reasons.
+     *
+     * @return As is.
+     */
+    public Map<Path, String> failed() {
+        return Collections.unmodifiableMap(this.failedFiles);
+    }
+
+    /**
+     * Wall-clock time of the whole batch in milliseconds.
+     *
+     * @return As is.
+     */
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos);
+    }
+
+    /**
+     * Throughput of the whole batch.
+     *
+     * @return Number of files per second.
+     */
+    public double filesPerSecond() {
+        final double result;
+        if (this.elapsedNanos == 0) {
+            result = 0;
+        } else {
+            result = this.files() * (double) TimeUnit.SECONDS.toNanos(1) / this.elapsedNanos;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,492 @@
+package com.levelrin;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.IntegerList;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * A {@link CommonTokenStream} that keeps the tokens in parallel int arrays instead of a list of objects.
+ * A {@link Token} is created only when someone asks for it, and it's a view of the arrays.
+ * The views are cached, so the same index always gives the same object.
+ * The parser looks at the tokens on the default channel only,
+ * so the whitespace tokens never become objects unless we ask for them.
+ * Everything else of {@link CommonTokenStream} works as usual,
+ * such as {@link CommonTokenStream#get(int)} and {@link CommonTokenStream#getHiddenTokensToLeft(int, int)}.
+ * We take a fresh set of arrays for each token source,
+ * so the tokens of a previous parse tree stay valid after the stream is reused.
+ */
+public final class ColumnarTokenStream extends CommonTokenStream {
+
+    /**
+     * The arrays of the current token source.
+     * It's the same object as {@link CommonTokenStream#tokens}.
+     */
+    private Columns columns;
+
+    /**
+     * Constructor.
+     *
+     * @param tokenSource Usually, the lexer.
+     *                    If it's a {@link Lexer}, we replace its token factory. See {@link RangeToken}.
+     */
+    public ColumnarTokenStream(final TokenSource tokenSource) {
+        super(tokenSource);
+        this.columns = new Columns();
+        this.tokens = this.columns;
+        useRangeTokens(tokenSource);
+    }
+
+    @Override
+    public void setTokenSource(final TokenSource tokenSource) {
+        // The old arrays may be still referenced by the tokens of a parse tree, so we don't clear them.
+        this.columns = new Columns();
+        this.tokens = this.columns;
+        super.setTokenSource(tokenSource);
+        useRangeTokens(tokenSource);
+    }
+
+    /**
+     * The token type at the index without creating a token.
+     *
+     * @param index Token index.
+     * @return As is.
+     */
+    public int type(final int index) {
+        return this.columns.types[this.columns.check(index)];
+    }
+
+    /**
+     * The channel at the index without creating a token.
+     *
+     * @param index Token index.
+     * @return As is.
+     */
+    public int channel(final int index) {
+        return this.columns.channels[this.columns.check(index)];
+    }
+
+    @Override
+    @SuppressWarnings("MethodName")
+    public int LA(final int offset) {
+        this.lazyInit();
+        if (offset == 0) {
+            return 0;
+        }
+        if (offset < 0) {
+            final Token token = this.LB(-offset);
+            if (token == null) {
+                return 0;
+            }
+            return token.getType();
+        }
+        int index = this.p;
+        for (int count = 1; count < offset; count++) {
+            if (this.sync(index + 1)) {
+                index = this.nextTokenOnChannel(index + 1, this.channel);
+            }
+        }
+        return this.columns.types[index];
+    }
+
+    @Override
+    protected int nextTokenOnChannel(final int start, final int channel) {
+        int index = start;
+        this.sync(index);
+        if (index >= this.size()) {
+            return this.size() - 1;
+        }
+        while (this.columns.channels[index] != channel) {
+            if (this.columns.types[index] == Token.EOF) {
+                return index;
+            }
+            index++;
+            this.sync(index);
+        }
+        return index;
+    }
+
+    @Override
+    protected int previousTokenOnChannel(final int start, final int channel) {
+        int index = start;
+        this.sync(index);
+        if (index >= this.size()) {
+            return this.size() - 1;
+        }
+        while (index >= 0) {
+            if (this.columns.types[index] == Token.EOF || this.columns.channels[index] == channel) {
+                return index;
+            }
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Make the lexer create {@link RangeToken} for the tokens whose text is their input range.
+     *
+     * @param tokenSource As is.
+     */
+    private static void useRangeTokens(final TokenSource tokenSource) {
+        if (tokenSource instanceof Lexer) {
+            ((Lexer) tokenSource).setTokenFactory(RangeTokenFactory.INSTANCE);
+        }
+    }
+
+    /**
+     * A token whose text is exactly its input range.
+     * {@link CommonToken} cannot tell whether its text was set explicitly,
+     * and the lexer sets it for the synthetic tokens and some f-string tokens.
+     * So we store the text of any other token, which is rare.
+     */
+    private static final class RangeToken extends CommonToken {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         *
+         * @param source As is.
+         * @param type As is.
+         * @param channel As is.
+         * @param start As is.
+         * @param stop As is.
+         */
+        RangeToken(final Pair<TokenSource, CharStream> source, final int type, final int channel, final int start, final int stop) {
+            super(source, type, channel, start, stop);
+        }
+
+    }
+
+    /**
+     * The same as {@link org.antlr.v4.runtime.CommonTokenFactory#DEFAULT},
+     * except it creates {@link RangeToken} if no text is given.
+     */
+    private static final class RangeTokenFactory implements TokenFactory<CommonToken> {
+
+        /**
+         * It's stateless, so all lexers can share it.
+         */
+        static final RangeTokenFactory INSTANCE = new RangeTokenFactory();
+
+        @Override
+        public CommonToken create(
+            final Pair<TokenSource, CharStream> source,
+            final int type,
+            final String text,
+            final int channel,
+            final int start,
+            final int stop,
+            final int line,
+            final int charPositionInLine
+        ) {
+            final CommonToken token;
+            if (text == null) {
+                token = new RangeToken(source, type, channel, start, stop);
+            } else {
+                token = new CommonToken(source, type, channel, start, stop);
+                token.setText(text);
+            }
+            token.setLine(line);
+            token.setCharPositionInLine(charPositionInLine);
+            return token;
+        }
+
+        @Override
+        public CommonToken create(final int type, final String text) {
+            return new CommonToken(type, text);
+        }
+
+    }
+
+    /**
+     * The tokens as parallel arrays.
+     * The index of the arrays is the token index.
+     */
+    private static final class Columns extends AbstractList<Token> {
+
+        /**
+         * Initial capacity of the arrays.
+         */
+        private static final int CAPACITY = 128;
+
+        /**
+         * As is.
+         */
+        private int[] types = new int[CAPACITY];
+
+        /**
+         * As is.
+         */
+        private int[] channels = new int[CAPACITY];
+
+        /**
+         * Start index in the input.
+         */
+        private int[] starts = new int[CAPACITY];
+
+        /**
+         * Stop index (inclusive) in the input.
+         */
+        private int[] stops = new int[CAPACITY];
+
+        /**
+         * 1-based line.
+         */
+        private int[] lines = new int[CAPACITY];
+
+        /**
+         * 0-based position in the line.
+         */
+        private int[] positions = new int[CAPACITY];
+
+        /**
+         * The tokens created so far. Null if nobody has asked for it yet.
+         */
+        private Token[] views = new Token[CAPACITY];
+
+        /**
+         * The token indexes that have their own text, in ascending order.
+         */
+        private final IntegerList textIndexes = new IntegerList();
+
+        /**
+         * The texts of {@link Columns#textIndexes}.
+         */
+        private final List<String> texts = new ArrayList<>();
+
+        /**
+         * Where the tokens come from.
+         * We take it from the first token that has an input stream. A lexer uses the same one for all tokens.
+         * The synthetic tokens, such as ENCODING, have no input stream, but they have their own text.
+         */
+        private Pair<TokenSource, CharStream> source;
+
+        /**
+         * Number of tokens.
+         */
+        private int count;
+
+        @Override
+        public boolean add(final Token token) {
+            if (this.count == this.types.length) {
+                final int capacity = this.count * 2;
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.channels = Arrays.copyOf(this.channels, capacity);
+                this.starts = Arrays.copyOf(this.starts, capacity);
+                this.stops = Arrays.copyOf(this.stops, capacity);
+                this.lines = Arrays.copyOf(this.lines, capacity);
+                this.positions = Arrays.copyOf(this.positions, capacity);
+                this.views = Arrays.copyOf(this.views, capacity);
+            }
+            if (this.source == null && token.getInputStream() != null) {
+                this.source = new Pair<>(token.getTokenSource(), token.getInputStream());
+            }
+            final int index = this.count;
+            this.types[index] = token.getType();
+            this.channels[index] = token.getChannel();
+            this.starts[index] = token.getStartIndex();
+            this.stops[index] = token.getStopIndex();
+            this.lines[index] = token.getLine();
+            this.positions[index] = token.getCharPositionInLine();
+            if (!(token instanceof RangeToken)) {
+                this.textIndexes.add(index);
+                this.texts.add(token.getText());
+            }
+            this.count++;
+            return true;
+        }
+
+        @Override
+        public Token get(final int index) {
+            Token view = this.views[this.check(index)];
+            if (view == null) {
+                view = new View(this, index);
+                this.views[index] = view;
+            }
+            return view;
+        }
+
+        @Override
+        public int size() {
+            return this.count;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(this.views, 0, this.count, null);
+            this.textIndexes.clear();
+            this.texts.clear();
+            this.source = null;
+            this.count = 0;
+        }
+
+        /**
+         * Make sure the index is in range.
+         *
+         * @param index As is.
+         * @return The same index.
+         * @throws IndexOutOfBoundsException If it's out of range.
+         */
+        int check(final int index) {
+            if (index < 0 || index >= this.count) {
+                throw new IndexOutOfBoundsException(
+                    String.format("Token index %d is out of range [0, %d)", index, this.count)
+                );
+            }
+            return index;
+        }
+
+        /**
+         * The text of the token, like {@link CommonToken#getText()}.
+         *
+         * @param index Token index.
+         * @return As is.
+         */
+        String text(final int index) {
+            final int position = this.textIndexes.binarySearch(index);
+            if (position >= 0) {
+                return this.texts.get(position);
+            }
+            if (this.source == null) {
+                return null;
+            }
+            final CharStream input = this.source.b;
+            final int start = this.starts[index];
+            final int stop = this.stops[index];
+            if (start < input.size() && stop < input.size()) {
+                return input.getText(Interval.of(start, stop));
+            }
+            return "<EOF>";
+        }
+
+    }
+
+    /**
+     * A read-only token that reads its fields from {@link Columns}.
+     */
+    private static final class View implements Token {
+
+        /**
+         * Where the fields are.
+         */
+        private final Columns columns;
+
+        /**
+         * Token index.
+         */
+        private final int index;
+
+        /**
+         * Constructor.
+         *
+         * @param columns See {@link View#columns}.
+         * @param index See {@link View#index}.
+         */
+        View(final Columns columns, final int index) {
+            this.columns = columns;
+            this.index = index;
+        }
+
+        @Override
+        public String getText() {
+            return this.columns.text(this.index);
+        }
+
+        @Override
+        public int getType() {
+            return this.columns.types[this.index];
+        }
+
+        @Override
+        public int getLine() {
+            return this.columns.lines[this.index];
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return this.columns.positions[this.index];
+        }
+
+        @Override
+        public int getChannel() {
+            return this.columns.channels[this.index];
+        }
+
+        @Override
+        public int getTokenIndex() {
+            return this.index;
+        }
+
+        @Override
+        public int getStartIndex() {
+            return this.columns.starts[this.index];
+        }
+
+        @Override
+        public int getStopIndex() {
+            return this.columns.stops[this.index];
+        }
+
+        @Override
+        public TokenSource getTokenSource() {
+            if (this.columns.source == null) {
+                return null;
+            }
+            return this.columns.source.a;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            if (this.columns.source == null) {
+                return null;
+            }
+            return this.columns.source.b;
+        }
+
+        /**
+         * The same format as {@link CommonToken#toString()}.
+         *
+         * @return As is.
+         */
+        @Override
+        public String toString() {
+            String channel = "";
+            if (this.getChannel() > 0) {
+                channel = ",channel=" + this.getChannel();
+            }
+            String text = this.getText();
+            if (text == null) {
+                text = "<no text>";
+            } else {
+                text = text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+            }
+            return String.format(
+                "[@%d,%d:%d='%s',<%d>%s,%d:%d]",
+                this.index,
+                this.getStartIndex(),
+                this.getStopIndex(),
+                text,
+                this.getType(),
+                channel,
+                this.getLine(),
+                this.getCharPositionInLine()
+            );
+        }
+
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.levelrin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link FormatCache} that keeps one file per input in a directory.
+ * The file name is the SHA-256 hash of {@link DiskCache#VERSION}, the formatter options, and the input bytes.
+ * The file contains either a marker saying the input was already formatted or the formatted code.
+ * Several processes can share the directory.
+ * An entry is written into a temporary file first and moved into place atomically,
+ * so readers see either the complete entry or nothing.
+ * When the directory grows beyond the size limit, we evict the least recently used entries.
+ * The last modified time of an entry is refreshed on every hit for that purpose.
+ * The cache is best-effort. If the disk fails, we format the input as if it was a miss.
+ */
+public final class DiskCache implements FormatCache, Closeable {
+
+    /**
+     * Please bump it whenever the formatter produces a different output for the same input.
+     * Otherwise, the cache returns the outdated output.
+     */
+    static final String VERSION = "2";
+
+    /**
+     * The first byte of an entry whose input was already formatted.
+     * We write it only if the input bytes equal the formatted code in UTF-8,
+     * so the input decoded as UTF-8 is the formatted code, whatever the encoding of the file is.
+     * An input in another encoding has different bytes for the same code, so it gets {@link DiskCache#CHANGED}.
+     */
+    private static final byte UNCHANGED = 0;
+
+    /**
+     * The first byte of an entry followed by the formatted code.
+     */
+    private static final byte CHANGED = 1;
+
+    /**
+     * The suffix of the entries being written.
+     */
+    private static final String TEMPORARY = ".tmp";
+
+    /**
+     * For the file names.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The root of the entries.
+     */
+    private final Path directory;
+
+    /**
+     * The size limit of all entries in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * The formatter options that change the output, such as the line width.
+     * The entries of different options don't mix even if they share the directory.
+     */
+    private final String options;
+
+    /**
+     * Bytes written since the last eviction.
+     * We look for the entries to evict only after enough bytes are written.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param directory See {@link DiskCache#directory}. It's created if it doesn't exist.
+     * @param maxBytes See {@link DiskCache#maxBytes}.
+     * @throws IOException If we fail to create the directory.
+     */
+    public DiskCache(final Path directory, final long maxBytes) throws IOException {
+        this(directory, maxBytes, "");
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory See {@link DiskCache#directory}. It's created if it doesn't exist.
+     * @param maxBytes See {@link DiskCache#maxBytes}.
+     * @param options See {@link DiskCache#options}.
+     * @throws IOException If we fail to create the directory.
+     */
+    public DiskCache(final Path directory, final long maxBytes, final String options) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The cache size must be positive: " + maxBytes);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.options = options;
+    }
+
+    @Override
+    public String lookup(final byte[] input) {
+        final Path entry = this.entry(input);
+        final byte[] content;
+        try {
+            content = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException ex) {
+            // It's a miss, or another process evicted it in the middle.
+            return null;
+        }
+        final String result;
+        if (content.length == 1 && content[0] == UNCHANGED) {
+            // The input is valid UTF-8 here. See UNCHANGED.
+            result = new String(input, StandardCharsets.UTF_8);
+        } else if (content.length > 0 && content[0] == CHANGED) {
+            result = new String(content, 1, content.length - 1, StandardCharsets.UTF_8);
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    @Override
+    public void store(final byte[] input, final String formatted) {
+        final byte[] output = formatted.getBytes(StandardCharsets.UTF_8);
+        final byte[] content;
+        if (Arrays.equals(input, output)) {
+            content = new byte[] {UNCHANGED};
+        } else {
+            content = new byte[output.length + 1];
+            content[0] = CHANGED;
+            System.arraycopy(output, 0, content, 1, output.length);
+        }
+        final Path entry = this.entry(input);
+        Path temporary = null;
+        try {
+            final Path parent = Files.createDirectories(entry.getParent());
+            temporary = Files.createTempFile(parent, entry.getFileName().toString(), TEMPORARY);
+            Files.write(temporary, content);
+            try {
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException ex) {
+            deleteQuietly(temporary);
+            return;
+        }
+        // We don't want to walk the directory on every store.
+        if (this.written.addAndGet(content.length) > this.maxBytes / 4) {
+            this.written.set(0);
+            this.evictQuietly();
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits in the size limit.
+     * Entries and directories evicted by another process at the same time are simply skipped.
+     *
+     * @return Number of evicted entries.
+     * @throws UncheckedIOException If we fail to list the entries.
+     */
+    public synchronized int evict() {
+        final List<Path> entries = new ArrayList<>();
+        try {
+            Files.walkFileTree(this.directory, new EntryCollector(entries));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        final List<Entry> stats = new ArrayList<>(entries.size());
+        long total = 0;
+        for (final Path path : entries) {
+            try {
+                final Entry stat = new Entry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                stats.add(stat);
+                total += stat.size;
+            } catch (final IOException ex) {
+                // It's already gone.
+            }
+        }
+        int evicted = 0;
+        if (total > this.maxBytes) {
+            stats.sort(Comparator.comparingLong(stat -> stat.modified));
+            for (final Entry stat : stats) {
+                if (total <= this.maxBytes) {
+                    break;
+                }
+                deleteQuietly(stat.path);
+                total -= stat.size;
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * It evicts the entries beyond the size limit.
+     */
+    @Override
+    public void close() {
+        this.evictQuietly();
+    }
+
+    /**
+     * Evict the entries, ignoring any error.
+     * The file was formatted correctly even if the cache cannot be cleaned up.
+     */
+    private void evictQuietly() {
+        try {
+            this.evict();
+        } catch (final UncheckedIOException ex) {
+            // The next eviction will try again.
+        }
+    }
+
+    /**
+     * The path of the entry for the input.
+     * The first two characters of the hash are used as a subdirectory to keep the directories small.
+     *
+     * @param input As is.
+     * @return As is.
+     */
+    private Path entry(final byte[] input) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Every Java platform must support SHA-256.", ex);
+        }
+        digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(this.options.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        final byte[] hash = digest.digest(input);
+        final char[] name = new char[hash.length * 2];
+        for (int index = 0; index < hash.length; index++) {
+            name[index * 2] = HEX[(hash[index] >> 4) & 0xF];
+            name[index * 2 + 1] = HEX[hash[index] & 0xF];
+        }
+        final String key = new String(name);
+        return this.directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /**
+     * Delete the file if it exists, ignoring any error.
+     *
+     * @param path Nullable.
+     */
+    private static void deleteQuietly(final Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (final IOException ex) {
+                // Another process may be deleting it.
+            }
+        }
+    }
+
+    /**
+     * The file attributes we need for the eviction.
+     */
+    private static final class Entry {
+
+        /**
+         * As is.
+         */
+        private final Path path;
+
+        /**
+         * In bytes.
+         */
+        private final long size;
+
+        /**
+         * Last modified time in milliseconds.
+         */
+        private final long modified;
+
+        /**
+         * Constructor.
+         *
+         * @param path See {@link Entry#path}.
+         * @param size See {@link Entry#size}.
+         * @param modified See {@link Entry#modified}.
+         */
+        Entry(final Path path, final long size, final long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+    }
+
+    /**
+     * It collects the entries in the directory tree.
+     * Another process may delete the entries and their directories while we walk them, so it skips what is gone.
+     */
+    private static final class EntryCollector extends SimpleFileVisitor<Path> {
+
+        /**
+         * We add the entries here.
+         */
+        private final List<Path> entries;
+
+        /**
+         * Constructor.
+         *
+         * @param entries See {@link EntryCollector#entries}.
+         */
+        EntryCollector(final List<Path> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+            if (attributes.isRegularFile() && !file.getFileName().toString().endsWith(TEMPORARY)) {
+                this.entries.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException ex) {
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(final Path directory, final IOException ex) {
+            return FileVisitResult.CONTINUE;
+        }
+
+    }
+
+}
@@ -0,0 +1,449 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+
+/**
+ * It writes the formatted code into a sink.
+ * The sink can be a buffer, a file, or the standard output.
+ * We use it instead of {@link Appendable} directly to avoid handling {@link IOException} everywhere.
+ * On top of the plain text, it takes a small document language in the style of Wadler's pretty printer:
+ * {@link Emitter#group()} and {@link Emitter#end()} around a part that goes on one line if it fits,
+ * {@link Emitter#line(int, String)} that becomes a line break if its group doesn't fit,
+ * and {@link Emitter#ifBreak(String, String)} for the text that depends on it.
+ * The caller gives the indentation level of each line, which takes the role of `nest`.
+ * The documents are printed as they come in, like Oppen's algorithm.
+ * We hold back the text only while a group is undecided,
+ * and we decide it as soon as it ends or no longer fits in the rest of the line.
+ * So the pending text is never longer than the line width,
+ * and each piece of text is handled a constant number of times.
+ */
+final class Emitter {
+
+    /**
+     * The size of a group that must be broken.
+     */
+    private static final int BROKEN = Integer.MAX_VALUE;
+
+    /**
+     * The size of a group that has not ended yet.
+     */
+    private static final int UNKNOWN = -1;
+
+    /**
+     * We write the formatted code here.
+     */
+    private final Appendable sink;
+
+    /**
+     * The maximum number of characters in a line that a group can fill.
+     * Zero breaks every group, which is the layout we had before the groups.
+     */
+    private final int lineWidth;
+
+    /**
+     * Number of characters written so far.
+     */
+    private int position;
+
+    /**
+     * Number of characters written since the last line break.
+     */
+    private int column;
+
+    /**
+     * The documents we hold back because their group is undecided.
+     * The first one is always the beginning of the outermost undecided group.
+     */
+    private final ArrayDeque<Doc> pending = new ArrayDeque<>();
+
+    /**
+     * The beginnings of the groups that are not decided nor ended yet, the outermost first.
+     * They are all in {@link Emitter#pending}, so both are empty at the same time.
+     */
+    private final ArrayDeque<Doc> open = new ArrayDeque<>();
+
+    /**
+     * The width of all documents we have held back if they were on one line.
+     */
+    private long total;
+
+    /**
+     * Number of groups we have written the beginning of but not the end.
+     */
+    private int depth;
+
+    /**
+     * The depth of the outermost group written on one line, or zero if we are not in such a group.
+     * The groups inside it are on one line, too.
+     */
+    private int flatDepth;
+
+    /**
+     * Constructor that breaks every group.
+     *
+     * @param sink See {@link Emitter#sink}.
+     */
+    Emitter(final Appendable sink) {
+        this(sink, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sink See {@link Emitter#sink}.
+     * @param lineWidth See {@link Emitter#lineWidth}.
+     */
+    Emitter(final Appendable sink, final int lineWidth) {
+        this.sink = sink;
+        this.lineWidth = lineWidth;
+    }
+
+    /**
+     * Write the text.
+     * If it has a line break, all groups around it are broken.
+     *
+     * @param text As is.
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter append(final CharSequence text) {
+        if (this.pending.isEmpty()) {
+            this.write(text);
+        } else {
+            this.hold(new Doc(Doc.TEXT, text.toString(), null, 0));
+            if (newlineAt(text) >= 0) {
+                this.breakGroups();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write the character.
+     * If it's a line break, all groups around it are broken.
+     *
+     * @param character As is.
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter append(final char character) {
+        if (this.pending.isEmpty()) {
+            try {
+                this.sink.append(character);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            this.position++;
+            if (character == '\n') {
+                this.column = 0;
+            } else {
+                this.column++;
+            }
+        } else {
+            this.append(String.valueOf(character));
+        }
+        return this;
+    }
+
+    /**
+     * Number of characters written into the sink so far.
+     * The text of an undecided group is not counted until the group is decided.
+     *
+     * @return As is.
+     */
+    int position() {
+        return this.position;
+    }
+
+    /**
+     * Write the indentation of the level.
+     * It comes from {@link Indentation}, so nothing is allocated here.
+     *
+     * @param level Number of indentation units.
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter indent(final int level) {
+        return this.append(Indentation.of(level));
+    }
+
+    /**
+     * Begin a group.
+     * Everything until the matching {@link Emitter#end()} goes on one line if it fits in {@link Emitter#lineWidth}.
+     * Otherwise, the lines of this group become line breaks, and the inner groups decide on their own.
+     *
+     * @return Itself.
+     */
+    Emitter group() {
+        final Doc begin = new Doc(Doc.BEGIN, null, null, 0);
+        begin.size = UNKNOWN;
+        begin.start = this.total;
+        this.pending.addLast(begin);
+        this.open.addLast(begin);
+        return this;
+    }
+
+    /**
+     * End the innermost group.
+     *
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter end() {
+        if (this.pending.isEmpty()) {
+            this.print(new Doc(Doc.END, null, null, 0));
+        } else {
+            this.pending.addLast(new Doc(Doc.END, null, null, 0));
+            final Doc begin = this.open.removeLast();
+            begin.size = this.total - begin.start;
+            if (this.open.isEmpty()) {
+                this.flush();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * A place where the line can be broken.
+     * Outside any group, it's always a line break.
+     *
+     * @param level The indentation level of the next line if it's broken.
+     * @param flat The text if the group is on one line. Usually, a space or nothing.
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter line(final int level, final String flat) {
+        final Doc doc = new Doc(Doc.LINE, flat, null, level);
+        if (this.pending.isEmpty()) {
+            this.print(doc);
+        } else {
+            this.hold(doc);
+        }
+        return this;
+    }
+
+    /**
+     * The text that depends on whether the group is broken.
+     * Ex: A trailing comma only when the items are on their own lines.
+     *
+     * @param broken The text if the group is broken.
+     * @param flat The text if the group is on one line.
+     * @return Itself.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    Emitter ifBreak(final String broken, final String flat) {
+        final Doc doc = new Doc(Doc.IF_BREAK, flat, broken, 0);
+        if (this.pending.isEmpty()) {
+            this.print(doc);
+        } else {
+            this.hold(doc);
+        }
+        return this;
+    }
+
+    /**
+     * Break all groups that are not decided yet.
+     * They are all around the current position, so their content cannot be on one line anymore.
+     *
+     * @throws UncheckedIOException If the sink fails.
+     */
+    void breakGroups() {
+        while (!this.open.isEmpty()) {
+            this.open.removeFirst().size = BROKEN;
+            this.flush();
+        }
+    }
+
+    /**
+     * Hold back the document of an undecided group.
+     * If the outermost undecided group no longer fits, we break it and write what we can.
+     *
+     * @param doc As is.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    private void hold(final Doc doc) {
+        this.pending.addLast(doc);
+        this.total += doc.text.length();
+        while (!this.open.isEmpty() && this.total - this.open.peekFirst().start > this.lineWidth - this.column) {
+            this.open.removeFirst().size = BROKEN;
+            this.flush();
+        }
+    }
+
+    /**
+     * Write the held documents until the next undecided group.
+     *
+     * @throws UncheckedIOException If the sink fails.
+     */
+    private void flush() {
+        while (!this.pending.isEmpty()) {
+            final Doc doc = this.pending.peekFirst();
+            if (doc.kind == Doc.BEGIN && doc.size == UNKNOWN) {
+                break;
+            }
+            this.pending.removeFirst();
+            this.print(doc);
+        }
+    }
+
+    /**
+     * Write the document whose group is decided.
+     *
+     * @param doc As is.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    private void print(final Doc doc) {
+        switch (doc.kind) {
+            case Doc.TEXT:
+                this.write(doc.text);
+                break;
+            case Doc.LINE:
+                if (this.flatDepth > 0) {
+                    this.write(doc.text);
+                } else {
+                    this.write("\n");
+                    this.write(Indentation.of(doc.level));
+                }
+                break;
+            case Doc.IF_BREAK:
+                if (this.flatDepth > 0) {
+                    this.write(doc.text);
+                } else {
+                    this.write(doc.broken);
+                }
+                break;
+            case Doc.BEGIN:
+                this.depth++;
+                if (this.flatDepth == 0 && doc.size <= this.lineWidth - this.column) {
+                    this.flatDepth = this.depth;
+                }
+                break;
+            default:
+                if (this.flatDepth == this.depth) {
+                    this.flatDepth = 0;
+                }
+                this.depth--;
+        }
+    }
+
+    /**
+     * Write the text into the sink.
+     *
+     * @param text As is.
+     * @throws UncheckedIOException If the sink fails.
+     */
+    private void write(final CharSequence text) {
+        try {
+            this.sink.append(text);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.position += text.length();
+        final int newline = newlineAt(text);
+        if (newline >= 0) {
+            this.column = text.length() - newline - 1;
+        } else {
+            this.column += text.length();
+        }
+    }
+
+    /**
+     * The index of the last line break in the text.
+     *
+     * @param text As is.
+     * @return -1 if there is none.
+     */
+    private static int newlineAt(final CharSequence text) {
+        for (int index = text.length() - 1; index >= 0; index--) {
+            if (text.charAt(index) == '\n') {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A piece of the document.
+     */
+    private static final class Doc {
+
+        /**
+         * Plain text.
+         */
+        static final int TEXT = 0;
+
+        /**
+         * See {@link Emitter#line(int, String)}.
+         */
+        static final int LINE = 1;
+
+        /**
+         * See {@link Emitter#ifBreak(String, String)}.
+         */
+        static final int IF_BREAK = 2;
+
+        /**
+         * See {@link Emitter#group()}.
+         */
+        static final int BEGIN = 3;
+
+        /**
+         * See {@link Emitter#end()}.
+         */
+        static final int END = 4;
+
+        /**
+         * One of the constants above.
+         */
+        private final int kind;
+
+        /**
+         * The text, or the text on one line for {@link Doc#LINE} and {@link Doc#IF_BREAK}.
+         * Empty for the groups.
+         */
+        private final String text;
+
+        /**
+         * The text of {@link Doc#IF_BREAK} in a broken group.
+         */
+        private final String broken;
+
+        /**
+         * The indentation level of {@link Doc#LINE}.
+         */
+        private final int level;
+
+        /**
+         * The width of the group on one line, {@link Emitter#UNKNOWN}, or {@link Emitter#BROKEN}.
+         */
+        private long size;
+
+        /**
+         * {@link Emitter#total} at the beginning of the group.
+         */
+        private long start;
+
+        /**
+         * Constructor.
+         *
+         * @param kind See {@link Doc#kind}.
+         * @param text See {@link Doc#text}.
+         * @param broken See {@link Doc#broken}.
+         * @param level See {@link Doc#level}.
+         */
+        Doc(final int kind, final String text, final String broken, final int level) {
+            this.kind = kind;
+            if (text == null) {
+                this.text = "";
+            } else {
+                this.text = text;
+            }
+            this.broken = broken;
+            this.level = level;
+        }
+
+    }
+
+}
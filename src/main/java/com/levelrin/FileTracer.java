@@ -0,0 +1,105 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonParser;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It writes the trace events into a file, one event per line.
+ * Format: {@code INPUT<TAB>enter|exit<TAB>RULE<TAB>START_TOKEN<TAB>STOP_TOKEN}.
+ * INPUT is the sequence number of the input, so the events of concurrent inputs can be told apart.
+ * Only every n-th input is traced to keep the file small.
+ * It's thread-safe.
+ */
+public final class FileTracer implements Tracer, Closeable {
+
+    /**
+     * As is.
+     */
+    private final Writer writer;
+
+    /**
+     * We trace one input out of this many.
+     */
+    private final long period;
+
+    /**
+     * Number of inputs so far.
+     */
+    private final AtomicLong inputs = new AtomicLong();
+
+    /**
+     * Sequence number of the input the current thread is tracing.
+     */
+    private final ThreadLocal<Long> current = new ThreadLocal<>();
+
+    /**
+     * Constructor.
+     *
+     * @param file We create or overwrite this file.
+     * @param period See {@link FileTracer#period}.
+     * @throws IOException If we fail to open the file.
+     */
+    public FileTracer(final Path file, final long period) throws IOException {
+        if (period < 1) {
+            throw new IllegalArgumentException("The sampling period must be positive: " + period);
+        }
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.period = period;
+    }
+
+    @Override
+    public boolean sample() {
+        final long input = this.inputs.getAndIncrement();
+        final boolean sampled = input % this.period == 0;
+        if (sampled) {
+            this.current.set(input);
+        }
+        return sampled;
+    }
+
+    @Override
+    public void enter(final int ruleIndex, final int startToken, final int stopToken) {
+        this.write("enter", ruleIndex, startToken, stopToken);
+    }
+
+    @Override
+    public void exit(final int ruleIndex, final int startToken, final int stopToken) {
+        this.write("exit", ruleIndex, startToken, stopToken);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.writer) {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Write an event as a line.
+     *
+     * @param event Either enter or exit.
+     * @param ruleIndex See {@link Tracer#enter(int, int, int)}.
+     * @param startToken See {@link Tracer#enter(int, int, int)}.
+     * @param stopToken See {@link Tracer#enter(int, int, int)}.
+     * @throws UncheckedIOException If we fail to write.
+     */
+    private void write(final String event, final int ruleIndex, final int startToken, final int stopToken) {
+        final String line = this.current.get() + "\t" + event + "\t" + PythonParser.ruleNames[ruleIndex]
+            + "\t" + startToken + "\t" + stopToken + "\n";
+        try {
+            synchronized (this.writer) {
+                this.writer.write(line);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
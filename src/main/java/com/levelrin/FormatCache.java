@@ -0,0 +1,42 @@
+package com.levelrin;
+
+/**
+ * It remembers the formatted code of the inputs we have seen.
+ * On a hit, we don't need to lex, parse, or visit the input at all.
+ * Use {@link FormatCache#NONE} to turn it off.
+ * Implementations must be thread-safe.
+ */
+public interface FormatCache {
+
+    /**
+     * It remembers nothing.
+     */
+    FormatCache NONE = new FormatCache() {
+        @Override
+        public String lookup(final byte[] input) {
+            return null;
+        }
+
+        @Override
+        public void store(final byte[] input, final String formatted) {
+            // Nothing to do.
+        }
+    };
+
+    /**
+     * Find the formatted code of the input.
+     *
+     * @param input The bytes of the code before formatting, in the encoding of the file. They are only the key.
+     * @return The code after formatting, or null if we haven't seen the input.
+     */
+    String lookup(byte[] input);
+
+    /**
+     * Remember the formatted code of the input.
+     *
+     * @param input The bytes of the code before formatting, in the encoding of the file. They are only the key.
+     * @param formatted The code after formatting.
+     */
+    void store(byte[] input, String formatted);
+
+}
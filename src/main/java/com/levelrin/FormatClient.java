@@ -0,0 +1,65 @@
+package com.levelrin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * It asks a {@link FormatServer} on the same machine to format the code.
+ * See {@link FormatServer} for the protocol.
+ */
+public final class FormatClient {
+
+    /**
+     * The loopback port of the server.
+     */
+    private final int port;
+
+    /**
+     * Constructor.
+     *
+     * @param port See {@link FormatClient#port}.
+     */
+    public FormatClient(final int port) {
+        this.port = port;
+    }
+
+    /**
+     * Format the Python code.
+     *
+     * @param code The code before formatting.
+     * @return The code after formatting.
+     * @throws IOException If we fail to talk to the server.
+     * @throws ParseException If the server could not format the code.
+     */
+    public String format(final String code) throws IOException {
+        try (
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))
+        ) {
+            final byte[] request = code.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(request.length);
+            output.write(request);
+            output.flush();
+            final byte status = input.readByte();
+            final int length = input.readInt();
+            if (length < 0 || length > FormatServer.MAX_LENGTH) {
+                throw new IOException("Invalid response length: " + length);
+            }
+            final byte[] response = new byte[length];
+            input.readFully(response);
+            final String text = new String(response, StandardCharsets.UTF_8);
+            if (status != FormatServer.OK) {
+                throw new ParseException(text);
+            }
+            return text;
+        }
+    }
+
+}
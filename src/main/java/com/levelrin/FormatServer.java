@@ -0,0 +1,183 @@
+package com.levelrin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * A long-lived formatter that accepts requests on a loopback port.
+ * It keeps the JVM, the loaded parser classes, the DFA caches, and the per-thread pipelines warm,
+ * so a request doesn't pay for any of them.
+ * Use {@link FormatClient} to talk to it.
+ * The protocol is binary and each connection can carry many requests in a row.
+ * Request: the length of the code in bytes (int) followed by the code in UTF-8.
+ * Response: {@link FormatServer#OK} or {@link FormatServer#FAILED} (byte),
+ * the length of the text in bytes (int), and the text in UTF-8.
+ * The text is the formatted code or the error message.
+ * We only listen on the loopback address because there is no authentication.
+ */
+public final class FormatServer implements Closeable {
+
+    /**
+     * The status of a successful response.
+     */
+    static final byte OK = 0;
+
+    /**
+     * The status of a response with an error message.
+     */
+    static final byte FAILED = 1;
+
+    /**
+     * We refuse larger requests instead of allocating a huge buffer for a garbage length.
+     */
+    static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * It formats the requests.
+     */
+    private final PythonFormatter formatter;
+
+    /**
+     * As is.
+     */
+    private final ServerSocket socket;
+
+    /**
+     * They handle the connections.
+     * The threads live as long as the server, so their pipelines stay warm.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Constructor.
+     * It starts listening right away, but it doesn't accept connections until {@link FormatServer#serve()}.
+     *
+     * @param formatter See {@link FormatServer#formatter}.
+     * @param port Use 0 to pick a free port.
+     * @param threads Number of connections handled at the same time.
+     * @throws IOException If we fail to listen on the port.
+     */
+    public FormatServer(final PythonFormatter formatter, final int port, final int threads) throws IOException {
+        this.formatter = formatter;
+        this.socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * The port we are listening on.
+     *
+     * @return As is.
+     */
+    public int port() {
+        return this.socket.getLocalPort();
+    }
+
+    /**
+     * Accept connections until the server is closed.
+     *
+     * @throws IOException If we fail to accept a connection.
+     */
+    public void serve() throws IOException {
+        while (!this.socket.isClosed()) {
+            final Socket connection;
+            try {
+                connection = this.socket.accept();
+            } catch (final SocketException ex) {
+                if (this.socket.isClosed()) {
+                    break;
+                }
+                throw ex;
+            }
+            this.workers.execute(() -> this.handle(connection));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+        this.workers.shutdownNow();
+    }
+
+    /**
+     * Respond to the requests of the connection until the client closes it.
+     *
+     * @param connection As is.
+     */
+    private void handle(final Socket connection) {
+        try (
+            Socket closing = connection;
+            DataInputStream input = new DataInputStream(new BufferedInputStream(closing.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(closing.getOutputStream()))
+        ) {
+            while (true) {
+                final int length;
+                try {
+                    length = input.readInt();
+                } catch (final EOFException ex) {
+                    break;
+                }
+                if (length < 0 || length > MAX_LENGTH) {
+                    respond(output, FAILED, "Invalid request length: " + length);
+                    break;
+                }
+                final byte[] code = new byte[length];
+                input.readFully(code);
+                this.respond(output, code);
+            }
+        } catch (final IOException ex) {
+            // The client went away. There is nobody to report to.
+        }
+    }
+
+    /**
+     * Format the code and write the response.
+     *
+     * @param output As is.
+     * @param code The request.
+     * @throws IOException If we fail to write.
+     */
+    private void respond(final DataOutputStream output, final byte[] code) throws IOException {
+        final StringBuilder formatted = new StringBuilder(code.length + code.length / 8);
+        try {
+            this.formatter.format(CharStreams.fromString(new String(code, StandardCharsets.UTF_8)), formatted);
+        } catch (final ParseException | UnsupportedOperationException ex) {
+            respond(output, FAILED, String.valueOf(ex.getMessage()));
+            return;
+        } catch (final RuntimeException ex) {
+            // Otherwise, the connection is dropped and the client sees only the end of the stream.
+            respond(output, FAILED, ex.toString());
+            return;
+        }
+        respond(output, OK, formatted.toString());
+    }
+
+    /**
+     * Write a response.
+     *
+     * @param output As is.
+     * @param status Either {@link FormatServer#OK} or {@link FormatServer#FAILED}.
+     * @param text The formatted code or the error message.
+     * @throws IOException If we fail to write.
+     */
+    private static void respond(final DataOutputStream output, final byte status, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(status);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.flush();
+    }
+
+}
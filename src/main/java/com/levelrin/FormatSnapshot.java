@@ -0,0 +1,103 @@
+package com.levelrin;
+
+/**
+ * The result of {@link IncrementalFormatter}.
+ * Besides the input and the output, it remembers where each top-level statement begins in both,
+ * so the next edit can replace only the statements it touches.
+ * It's immutable.
+ */
+public final class FormatSnapshot {
+
+    /**
+     * The code before formatting.
+     */
+    private final String source;
+
+    /**
+     * The code after formatting.
+     */
+    private final String output;
+
+    /**
+     * Where each top-level statement begins in {@link FormatSnapshot#source}.
+     * The first one is always 0, so the leading comments belong to the first statement.
+     * A statement also owns the blank lines and the comments up to the next statement.
+     */
+    private final int[] sourceOffsets;
+
+    /**
+     * Where each top-level statement begins in {@link FormatSnapshot#output}.
+     */
+    private final int[] outputOffsets;
+
+    /**
+     * Constructor.
+     *
+     * @param source See {@link FormatSnapshot#source}.
+     * @param output See {@link FormatSnapshot#output}.
+     * @param sourceOffsets See {@link FormatSnapshot#sourceOffsets}.
+     * @param outputOffsets See {@link FormatSnapshot#outputOffsets}.
+     */
+    FormatSnapshot(final String source, final String output, final int[] sourceOffsets, final int[] outputOffsets) {
+        this.source = source;
+        this.output = output;
+        this.sourceOffsets = sourceOffsets;
+        this.outputOffsets = outputOffsets;
+    }
+
+    /**
+     * See {@link FormatSnapshot#source}.
+     *
+     * @return As is.
+     */
+    public String source() {
+        return this.source;
+    }
+
+    /**
+     * See {@link FormatSnapshot#output}.
+     *
+     * @return As is.
+     */
+    public String output() {
+        return this.output;
+    }
+
+    /**
+     * Number of top-level statements.
+     *
+     * @return As is.
+     */
+    int statements() {
+        return this.sourceOffsets.length;
+    }
+
+    /**
+     * Where the top-level statement begins in the source.
+     *
+     * @param statement Index of the statement. The number of statements means the end of the source.
+     * @return As is.
+     */
+    int sourceOffset(final int statement) {
+        int result = this.source.length();
+        if (statement < this.sourceOffsets.length) {
+            result = this.sourceOffsets[statement];
+        }
+        return result;
+    }
+
+    /**
+     * Where the top-level statement begins in the output.
+     *
+     * @param statement Index of the statement. The number of statements means the end of the output.
+     * @return As is.
+     */
+    int outputOffset(final int statement) {
+        int result = this.output.length();
+        if (statement < this.outputOffsets.length) {
+            result = this.outputOffsets[statement];
+        }
+        return result;
+    }
+
+}
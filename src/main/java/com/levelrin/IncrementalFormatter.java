@@ -0,0 +1,144 @@
+package com.levelrin;
+
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * It reformats only the top-level statements touched by an edit.
+ * The statements around the edit are lexed, parsed, and formatted on their own,
+ * and the result is spliced into the previous output.
+ * That's possible because a top-level statement always begins at the first column of a line,
+ * and the comments and blank lines after it are attached to its last NEWLINE token.
+ * We also reformat one statement before and after the edited ones
+ * because an edit at the boundary can merge them, like indenting the first line of the next statement.
+ * If the region cannot be parsed on its own, we format the whole file instead.
+ * It's thread-safe if the {@link PythonFormatter} is.
+ */
+public final class IncrementalFormatter {
+
+    /**
+     * It formats the regions.
+     */
+    private final PythonFormatter formatter;
+
+    /**
+     * Constructor.
+     *
+     * @param formatter See {@link IncrementalFormatter#formatter}.
+     */
+    public IncrementalFormatter(final PythonFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * Format the whole code.
+     *
+     * @param source The code before formatting.
+     * @return The snapshot for the next edit.
+     * @throws ParseException If the code cannot be parsed.
+     */
+    public FormatSnapshot format(final String source) {
+        return this.snapshot(source, 0);
+    }
+
+    /**
+     * Apply the edit to the previous source and format only the affected statements.
+     *
+     * @param previous The snapshot before the edit.
+     * @param start Where the replaced text begins in the previous source.
+     * @param end Where the replaced text ends (exclusive) in the previous source.
+     * @param replacement The new text.
+     * @return The snapshot after the edit.
+     * @throws ParseException If the code after the edit cannot be parsed.
+     */
+    public FormatSnapshot edit(final FormatSnapshot previous, final int start, final int end, final String replacement) {
+        final String before = previous.source();
+        if (start < 0 || end < start || end > before.length()) {
+            throw new IllegalArgumentException(
+                String.format("Invalid edit range [%d, %d) for a source of length %d", start, end, before.length())
+            );
+        }
+        final String source = before.substring(0, start) + replacement + before.substring(end);
+        final int count = previous.statements();
+        if (count == 0) {
+            return this.format(source);
+        }
+        int first = 0;
+        int last = 0;
+        for (int index = 0; index < count; index++) {
+            if (previous.sourceOffset(index) <= start) {
+                first = index;
+            }
+            if (previous.sourceOffset(index) <= end) {
+                last = index;
+            }
+        }
+        first = Math.max(0, first - 1);
+        last = Math.min(count - 1, last + 1);
+        final int sourceDelta = replacement.length() - (end - start);
+        final int regionStart = previous.sourceOffset(first);
+        final int regionEnd = previous.sourceOffset(last + 1) + sourceDelta;
+        final FormatSnapshot region;
+        try {
+            region = this.snapshot(source.substring(regionStart, regionEnd), regionStart);
+        } catch (final ParseException ex) {
+            // The edit may have changed the statements outside the region, like an unclosed bracket.
+            return this.format(source);
+        }
+        if (region.statements() == 0) {
+            // The comments left in the region need a statement to belong to.
+            return this.format(source);
+        }
+        final int outputStart = previous.outputOffset(first);
+        final int outputEnd = previous.outputOffset(last + 1);
+        final String output = previous.output().substring(0, outputStart) + region.output() + previous.output().substring(outputEnd);
+        final int outputDelta = region.output().length() - (outputEnd - outputStart);
+        final int total = first + region.statements() + count - last - 1;
+        final int[] sourceOffsets = new int[total];
+        final int[] outputOffsets = new int[total];
+        int index = 0;
+        for (int statement = 0; statement < first; statement++) {
+            sourceOffsets[index] = previous.sourceOffset(statement);
+            outputOffsets[index] = previous.outputOffset(statement);
+            index++;
+        }
+        for (int statement = 0; statement < region.statements(); statement++) {
+            sourceOffsets[index] = region.sourceOffset(statement);
+            outputOffsets[index] = outputStart + region.outputOffset(statement);
+            index++;
+        }
+        for (int statement = last + 1; statement < count; statement++) {
+            sourceOffsets[index] = previous.sourceOffset(statement) + sourceDelta;
+            outputOffsets[index] = previous.outputOffset(statement) + outputDelta;
+            index++;
+        }
+        return new FormatSnapshot(source, output, sourceOffsets, outputOffsets);
+    }
+
+    /**
+     * Format the code and record where the top-level statements begin.
+     *
+     * @param source The code before formatting.
+     * @param base The source offsets are shifted by this.
+     * @return As is.
+     */
+    private FormatSnapshot snapshot(final String source, final int base) {
+        final StringBuilder output = new StringBuilder(source.length());
+        final PythonVisitor visitor = this.formatter.visit(CharStreams.fromString(source), output);
+        final int[] lines = visitor.statementLines();
+        final int[] sourceOffsets = new int[lines.length];
+        int line = 1;
+        int offset = 0;
+        for (int index = 0; index < lines.length; index++) {
+            while (line < lines[index]) {
+                offset = source.indexOf('\n', offset) + 1;
+                line++;
+            }
+            sourceOffsets[index] = base + offset;
+        }
+        if (sourceOffsets.length > 0) {
+            sourceOffsets[0] = base;
+        }
+        return new FormatSnapshot(source, output.toString(), sourceOffsets, visitor.statementOffsets());
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * It lexes only around an edit instead of the whole code.
+ * While lexing, we take a checkpoint of the lexer state at the start of each logical line.
+ * After an edit, we restore the last checkpoint whose input is not touched by the edit and lex from there.
+ * Once we reach a checkpoint after the edit whose state equals the one at the same place in the previous code,
+ * the rest of the tokens must be the same, so we reuse them with their positions moved.
+ * The reused tokens are not copied. {@link TokenSnapshot} shares them and moves them when they are read,
+ * so an edit takes time for the lexed lines only, not for the whole code.
+ * The lexer reads a few characters ahead of the tokens it returns,
+ * so a checkpoint also remembers how far the lexer has read, and we restore it only if the edit begins after that.
+ * It's for the editors that keep the tokens between the edits, like {@link LanguageServer} does for each open document.
+ * The code is often incomplete while it's typed, so the lexer errors are not reported.
+ * The formatter doesn't use it because it lexes the code on its own, in a {@link ColumnarTokenStream},
+ * and {@link IncrementalFormatter} lexes only the statements around an edit already.
+ * It's thread-safe.
+ */
+@SuppressWarnings("MissingCtor")
+public final class IncrementalLexer {
+
+    /**
+     * Lex the whole code.
+     *
+     * @param source As is.
+     * @return The snapshot for the next edit.
+     */
+    public TokenSnapshot lex(final String source) {
+        final ReadTracker input = new ReadTracker(CharStreams.fromString(source), 0);
+        final PythonLexer lexer = new PythonLexer(input);
+        lexer.removeErrorListeners();
+        final List<Token> tokens = new ArrayList<>();
+        final List<Mark> marks = new ArrayList<>();
+        this.lexUntilMatch(lexer, input, tokens, marks, 0, null, 0, 0);
+        return new TokenSnapshot(
+            source,
+            new Pair<>(lexer, input),
+            Collections.singletonList(new TokenSnapshot.Piece(tokens, marks)),
+            tokens.size()
+        );
+    }
+
+    /**
+     * Apply the edit to the previous source and lex only the affected lines.
+     *
+     * @param previous The snapshot before the edit.
+     * @param start Where the replaced text begins in the previous source.
+     * @param end Where the replaced text ends (exclusive) in the previous source.
+     * @param replacement The new text.
+     * @return The snapshot after the edit.
+     */
+    public TokenSnapshot edit(final TokenSnapshot previous, final int start, final int end, final String replacement) {
+        final String before = previous.source();
+        if (start < 0 || end < start || end > before.length()) {
+            throw new IllegalArgumentException(
+                String.format("Invalid edit range [%d, %d) for a source of length %d", start, end, before.length())
+            );
+        }
+        final String source = before.substring(0, start) + replacement + before.substring(end);
+        final int resume = lastMarkBefore(previous, start);
+        if (resume < 0) {
+            return this.lex(source);
+        }
+        final Mark mark = previous.mark(resume);
+        final ReadTracker input = new ReadTracker(CharStreams.fromString(source), mark.reach);
+        final PythonLexer lexer = new PythonLexer(input);
+        lexer.removeErrorListeners();
+        lexer.restore(mark.checkpoint());
+        final List<Token> tokens = new ArrayList<>();
+        final List<Mark> marks = new ArrayList<>();
+        final Mark match = this.lexUntilMatch(lexer, input, tokens, marks, mark.tokens, previous, resume + 1, end);
+        final List<TokenSnapshot.Piece> pieces = previous.head(mark.tokens);
+        pieces.add(new TokenSnapshot.Piece(tokens, marks));
+        if (match != null) {
+            final Mark last = marks.get(marks.size() - 1);
+            pieces.addAll(
+                previous.tail(
+                    match.tokens,
+                    last.index() - match.index(),
+                    last.line() - match.line(),
+                    last.tokens - match.tokens
+                )
+            );
+        }
+        return new TokenSnapshot(source, new Pair<>(lexer, input), pieces, tokens.size());
+    }
+
+    /**
+     * The last checkpoint that the edit doesn't affect.
+     *
+     * @param snapshot As is.
+     * @param start Where the edit begins.
+     * @return The index of the checkpoint, or -1 if there is none.
+     */
+    private static int lastMarkBefore(final TokenSnapshot snapshot, final int start) {
+        int low = 0;
+        int high = snapshot.markCount();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (snapshot.mark(middle).reach <= start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Lex until the end of the input or until the lexer state matches a checkpoint of the previous snapshot.
+     * The tokens are detached from the input, so the snapshots don't keep the code of each other.
+     *
+     * @param lexer It's ready to return the next token.
+     * @param input The input of the lexer.
+     * @param tokens We append the tokens here.
+     * @param marks We append the checkpoints here. The last one is the match if there is.
+     * @param base Number of tokens before the first one we lex.
+     * @param previous The snapshot before the edit, or null if there is nothing to reuse.
+     * @param first The first checkpoint of the previous snapshot that may match.
+     * @param end Where the edit ends in the previous source. Only the checkpoints after it can match.
+     * @return The checkpoint of the previous snapshot that matched, or null if we reached the end.
+     */
+    @SuppressWarnings("ParameterNumber")
+    private Mark lexUntilMatch(
+        final PythonLexer lexer,
+        final ReadTracker input,
+        final List<Token> tokens,
+        final List<Mark> marks,
+        final int base,
+        final TokenSnapshot previous,
+        final int first,
+        final int end
+    ) {
+        final int delta;
+        if (previous == null) {
+            delta = 0;
+        } else {
+            delta = input.size() - previous.source().length();
+        }
+        int candidate = first;
+        while (true) {
+            final Token token = lexer.nextToken();
+            tokens.add(PythonLexerBase.shiftToken(token, 0, 0, null, null));
+            if (token.getType() == Token.EOF) {
+                return null;
+            }
+            final PythonLexerBase.Checkpoint checkpoint = lexer.checkpoint();
+            if (checkpoint == null) {
+                continue;
+            }
+            marks.add(new Mark(checkpoint.shift(0, 0, null, null), base + tokens.size(), input.reach()));
+            if (previous == null) {
+                continue;
+            }
+            Mark match = null;
+            while (candidate < previous.markCount()) {
+                match = previous.mark(candidate);
+                if (match.index() + delta >= checkpoint.index()) {
+                    break;
+                }
+                candidate++;
+            }
+            if (candidate == previous.markCount()) {
+                continue;
+            }
+            if (match.index() + delta == checkpoint.index() &&
+                match.firstPendingIndex() >= end &&
+                checkpoint.sameStateAs(match.checkpoint)) {
+                return match;
+            }
+        }
+    }
+
+    /**
+     * A checkpoint with what we need to know to restore it.
+     * The positions of the checkpoint are moved by the deltas when they are read,
+     * so moving a checkpoint doesn't copy its tokens.
+     */
+    static final class Mark {
+
+        /**
+         * The lexer state, where it was taken.
+         */
+        private final PythonLexerBase.Checkpoint checkpoint;
+
+        /**
+         * Number of tokens returned before the checkpoint.
+         */
+        private final int tokens;
+
+        /**
+         * The position after the last character the lexer has read before the checkpoint.
+         * An edit before it may change the state.
+         */
+        private final int reach;
+
+        /**
+         * How many characters the edits have moved the checkpoint by.
+         */
+        private final int indexDelta;
+
+        /**
+         * How many lines the edits have moved the checkpoint by.
+         */
+        private final int lineDelta;
+
+        /**
+         * Constructor for a checkpoint that was just taken.
+         *
+         * @param checkpoint See {@link Mark#checkpoint}.
+         * @param tokens See {@link Mark#tokens}.
+         * @param reach See {@link Mark#reach}.
+         */
+        Mark(final PythonLexerBase.Checkpoint checkpoint, final int tokens, final int reach) {
+            this(checkpoint, tokens, reach, 0, 0);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param checkpoint See {@link Mark#checkpoint}.
+         * @param tokens See {@link Mark#tokens}.
+         * @param reach See {@link Mark#reach}.
+         * @param indexDelta See {@link Mark#indexDelta}.
+         * @param lineDelta See {@link Mark#lineDelta}.
+         */
+        private Mark(
+            final PythonLexerBase.Checkpoint checkpoint,
+            final int tokens,
+            final int reach,
+            final int indexDelta,
+            final int lineDelta
+        ) {
+            this.checkpoint = checkpoint;
+            this.tokens = tokens;
+            this.reach = reach;
+            this.indexDelta = indexDelta;
+            this.lineDelta = lineDelta;
+        }
+
+        /**
+         * See {@link Mark#tokens}.
+         *
+         * @return As is.
+         */
+        int tokens() {
+            return this.tokens;
+        }
+
+        /**
+         * The same checkpoint after an edit before it.
+         *
+         * @param index How many characters the edit has added.
+         * @param line How many lines the edit has added.
+         * @param token How many tokens the edit has added.
+         * @return As is.
+         */
+        Mark shift(final int index, final int line, final int token) {
+            if (index == 0 && line == 0 && token == 0) {
+                return this;
+            }
+            return new Mark(
+                this.checkpoint,
+                this.tokens + token,
+                this.reach + index,
+                this.indexDelta + index,
+                this.lineDelta + line
+            );
+        }
+
+        /**
+         * See {@link PythonLexerBase.Checkpoint#index()}.
+         *
+         * @return As is.
+         */
+        int index() {
+            return this.checkpoint.index() + this.indexDelta;
+        }
+
+        /**
+         * See {@link PythonLexerBase.Checkpoint#line()}.
+         *
+         * @return As is.
+         */
+        int line() {
+            return this.checkpoint.line() + this.lineDelta;
+        }
+
+        /**
+         * See {@link PythonLexerBase.Checkpoint#firstPendingIndex()}.
+         *
+         * @return As is.
+         */
+        int firstPendingIndex() {
+            return this.checkpoint.firstPendingIndex() + this.indexDelta;
+        }
+
+        /**
+         * The lexer state at the moved position, ready to be restored.
+         *
+         * @return As is.
+         */
+        PythonLexerBase.Checkpoint checkpoint() {
+            return this.checkpoint.shift(this.indexDelta, this.lineDelta, null, null);
+        }
+
+    }
+
+    /**
+     * It remembers how far the lexer has looked into the input.
+     */
+    private static final class ReadTracker implements CharStream {
+
+        /**
+         * The actual input.
+         */
+        private final CharStream origin;
+
+        /**
+         * The position after the last character that was read.
+         */
+        private int reach;
+
+        /**
+         * Constructor.
+         *
+         * @param origin See {@link ReadTracker#origin}.
+         * @param reach See {@link ReadTracker#reach}.
+         */
+        ReadTracker(final CharStream origin, final int reach) {
+            this.origin = origin;
+            this.reach = reach;
+        }
+
+        /**
+         * See {@link ReadTracker#reach}.
+         *
+         * @return As is.
+         */
+        int reach() {
+            return this.reach;
+        }
+
+        @Override
+        public String getText(final Interval interval) {
+            return this.origin.getText(interval);
+        }
+
+        @Override
+        public void consume() {
+            this.origin.consume();
+        }
+
+        @Override
+        @SuppressWarnings("MethodName")
+        public int LA(final int offset) {
+            if (offset > 0) {
+                this.reach = Math.max(this.reach, this.origin.index() + offset);
+            }
+            return this.origin.LA(offset);
+        }
+
+        @Override
+        public int mark() {
+            return this.origin.mark();
+        }
+
+        @Override
+        public void release(final int marker) {
+            this.origin.release(marker);
+        }
+
+        @Override
+        public int index() {
+            return this.origin.index();
+        }
+
+        @Override
+        public void seek(final int index) {
+            this.origin.seek(index);
+        }
+
+        @Override
+        public int size() {
+            return this.origin.size();
+        }
+
+        @Override
+        public String getSourceName() {
+            return this.origin.getSourceName();
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.levelrin;
+
+/**
+ * A table of indentation strings shared by all visitors.
+ * The table grows lazily, so each level is built only once per JVM.
+ * It's thread-safe because a thread either sees the old table or a complete new one.
+ */
+final class Indentation {
+
+    /**
+     * Number of spaces for an indentation.
+     */
+    static final String UNIT = "    ";
+
+    /**
+     * The indentation strings indexed by the level.
+     * We replace the whole array when it needs to grow.
+     */
+    private static volatile String[] table = build(16);
+
+    /**
+     * Utility class.
+     */
+    private Indentation() {
+    }
+
+    /**
+     * The indentation of the level.
+     *
+     * @param level Number of indentation units.
+     * @return As is.
+     * @throws IllegalArgumentException If the level is negative.
+     */
+    static String of(final int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("The indentation level is negative: " + level);
+        }
+        String[] current = table;
+        if (level >= current.length) {
+            current = grow(level);
+        }
+        return current[level];
+    }
+
+    /**
+     * Make the table large enough for the level.
+     *
+     * @param level Number of indentation units.
+     * @return The table that contains the level.
+     */
+    private static synchronized String[] grow(final int level) {
+        String[] current = table;
+        if (level >= current.length) {
+            current = build(Math.max(level + 1, current.length * 2));
+            table = current;
+        }
+        return current;
+    }
+
+    /**
+     * Build a table from scratch.
+     *
+     * @param size Number of levels.
+     * @return As is.
+     */
+    private static String[] build(final int size) {
+        final String[] result = new String[size];
+        final StringBuilder prefix = new StringBuilder(size * UNIT.length());
+        for (int level = 0; level < size; level++) {
+            result[level] = prefix.toString();
+            prefix.append(UNIT);
+        }
+        return result;
+    }
+
+}
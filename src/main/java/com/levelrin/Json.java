@@ -0,0 +1,368 @@
+package com.levelrin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The minimal JSON reader and writer for {@link LanguageServer}.
+ * We don't want to depend on a JSON library just for a handful of LSP messages.
+ * Objects are {@link Map}, arrays are {@link List}, integers are {@link Long}, and other numbers are {@link Double}.
+ */
+final class Json {
+
+    /**
+     * The text we are reading.
+     */
+    private final String text;
+
+    /**
+     * The current position in {@link Json#text}.
+     */
+    private int position;
+
+    /**
+     * Constructor.
+     *
+     * @param text See {@link Json#text}.
+     */
+    private Json(final String text) {
+        this.text = text;
+    }
+
+    /**
+     * Read a JSON value.
+     *
+     * @param text As is.
+     * @return Map, List, String, Long, Double, Boolean, or null.
+     * @throws IllegalArgumentException If the text is not valid JSON.
+     */
+    static Object parse(final String text) {
+        final Json json = new Json(text);
+        final Object value = json.value();
+        json.skipWhitespace();
+        if (json.position != text.length()) {
+            throw json.error("Unexpected trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Write a JSON value.
+     *
+     * @param value Map, List, CharSequence, Number, Boolean, or null.
+     * @return As is.
+     */
+    static String write(final Object value) {
+        final StringBuilder result = new StringBuilder();
+        write(value, result);
+        return result.toString();
+    }
+
+    /**
+     * Write a JSON value into the builder.
+     *
+     * @param value See {@link Json#write(Object)}.
+     * @param result We append the JSON here.
+     * @throws IllegalArgumentException If the value cannot be written as JSON.
+     */
+    private static void write(final Object value, final StringBuilder result) {
+        if (value == null) {
+            result.append("null");
+        } else if (value instanceof Map) {
+            result.append('{');
+            boolean first = true;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    result.append(',');
+                }
+                first = false;
+                writeString(entry.getKey().toString(), result);
+                result.append(':');
+                write(entry.getValue(), result);
+            }
+            result.append('}');
+        } else if (value instanceof List) {
+            result.append('[');
+            boolean first = true;
+            for (final Object element : (List<?>) value) {
+                if (!first) {
+                    result.append(',');
+                }
+                first = false;
+                write(element, result);
+            }
+            result.append(']');
+        } else if (value instanceof CharSequence) {
+            writeString(value.toString(), result);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            result.append(value);
+        } else {
+            throw new IllegalArgumentException("Cannot write as JSON: " + value.getClass());
+        }
+    }
+
+    /**
+     * Write a JSON string with escapes.
+     *
+     * @param value As is.
+     * @param result We append the JSON here.
+     */
+    private static void writeString(final String value, final StringBuilder result) {
+        result.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            final char character = value.charAt(index);
+            if (character == '"') {
+                result.append("\\\"");
+            } else if (character == '\\') {
+                result.append("\\\\");
+            } else if (character == '\n') {
+                result.append("\\n");
+            } else if (character == '\r') {
+                result.append("\\r");
+            } else if (character == '\t') {
+                result.append("\\t");
+            } else if (character < 0x20) {
+                result.append(String.format("\\u%04x", (int) character));
+            } else {
+                result.append(character);
+            }
+        }
+        result.append('"');
+    }
+
+    /**
+     * Read any value at the current position.
+     *
+     * @return See {@link Json#parse(String)}.
+     */
+    private Object value() {
+        this.skipWhitespace();
+        if (this.position >= this.text.length()) {
+            throw this.error("Unexpected end");
+        }
+        final char character = this.text.charAt(this.position);
+        final Object result;
+        if (character == '{') {
+            result = this.object();
+        } else if (character == '[') {
+            result = this.array();
+        } else if (character == '"') {
+            result = this.string();
+        } else if (this.text.startsWith("true", this.position)) {
+            this.position += 4;
+            result = Boolean.TRUE;
+        } else if (this.text.startsWith("false", this.position)) {
+            this.position += 5;
+            result = Boolean.FALSE;
+        } else if (this.text.startsWith("null", this.position)) {
+            this.position += 4;
+            result = null;
+        } else {
+            result = this.number();
+        }
+        return result;
+    }
+
+    /**
+     * Read an object.
+     *
+     * @return As is.
+     */
+    private Map<String, Object> object() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        this.expect('{');
+        this.skipWhitespace();
+        if (this.peek() == '}') {
+            this.position++;
+            return result;
+        }
+        while (true) {
+            this.skipWhitespace();
+            final String key = this.string();
+            this.skipWhitespace();
+            this.expect(':');
+            result.put(key, this.value());
+            this.skipWhitespace();
+            if (this.peek() == ',') {
+                this.position++;
+            } else {
+                this.expect('}');
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Read an array.
+     *
+     * @return As is.
+     */
+    private List<Object> array() {
+        final List<Object> result = new ArrayList<>();
+        this.expect('[');
+        this.skipWhitespace();
+        if (this.peek() == ']') {
+            this.position++;
+            return result;
+        }
+        while (true) {
+            result.add(this.value());
+            this.skipWhitespace();
+            if (this.peek() == ',') {
+                this.position++;
+            } else {
+                this.expect(']');
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Read a string.
+     *
+     * @return As is.
+     */
+    private String string() {
+        this.expect('"');
+        final StringBuilder result = new StringBuilder();
+        while (true) {
+            if (this.position >= this.text.length()) {
+                throw this.error("Unterminated string");
+            }
+            final char character = this.text.charAt(this.position);
+            this.position++;
+            if (character == '"') {
+                return result.toString();
+            }
+            if (character == '\\') {
+                result.append(this.escape());
+            } else {
+                result.append(character);
+            }
+        }
+    }
+
+    /**
+     * Read the character after a backslash.
+     *
+     * @return The unescaped character.
+     */
+    private char escape() {
+        if (this.position >= this.text.length()) {
+            throw this.error("Unterminated escape");
+        }
+        final char character = this.text.charAt(this.position);
+        this.position++;
+        final char result;
+        switch (character) {
+            case 'b':
+                result = '\b';
+                break;
+            case 'f':
+                result = '\f';
+                break;
+            case 'n':
+                result = '\n';
+                break;
+            case 'r':
+                result = '\r';
+                break;
+            case 't':
+                result = '\t';
+                break;
+            case 'u':
+                if (this.position + 4 > this.text.length()) {
+                    throw this.error("Unterminated unicode escape");
+                }
+                try {
+                    result = (char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16);
+                } catch (final NumberFormatException ex) {
+                    throw this.error("Invalid unicode escape");
+                }
+                this.position += 4;
+                break;
+            default:
+                result = character;
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Read a number.
+     *
+     * @return Long if it's an integer. Otherwise, Double.
+     */
+    private Number number() {
+        final int start = this.position;
+        boolean integer = true;
+        while (this.position < this.text.length()) {
+            final char character = this.text.charAt(this.position);
+            if (character == '.' || character == 'e' || character == 'E') {
+                integer = false;
+            } else if (character != '-' && character != '+' && (character < '0' || character > '9')) {
+                break;
+            }
+            this.position++;
+        }
+        final String number = this.text.substring(start, this.position);
+        try {
+            final Number result;
+            if (integer) {
+                result = Long.parseLong(number);
+            } else {
+                result = Double.parseDouble(number);
+            }
+            return result;
+        } catch (final NumberFormatException ex) {
+            throw this.error("Invalid value");
+        }
+    }
+
+    /**
+     * Skip the whitespace characters.
+     */
+    private void skipWhitespace() {
+        while (this.position < this.text.length() && Character.isWhitespace(this.text.charAt(this.position))) {
+            this.position++;
+        }
+    }
+
+    /**
+     * The character at the current position.
+     *
+     * @return Zero at the end.
+     */
+    private char peek() {
+        char result = 0;
+        if (this.position < this.text.length()) {
+            result = this.text.charAt(this.position);
+        }
+        return result;
+    }
+
+    /**
+     * Consume the character.
+     *
+     * @param character As is.
+     */
+    private void expect(final char character) {
+        if (this.peek() != character) {
+            throw this.error("Expected '" + character + "'");
+        }
+        this.position++;
+    }
+
+    /**
+     * Build an error at the current position.
+     *
+     * @param message As is.
+     * @return As is.
+     */
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at position " + this.position);
+    }
+
+}
@@ -0,0 +1,835 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * A Language Server Protocol endpoint that speaks JSON-RPC over a pair of streams, usually stdin and stdout.
+ * It supports `textDocument/formatting`, `textDocument/rangeFormatting`, and `textDocument/onTypeFormatting`.
+ * The documents are synchronized incrementally, so the client sends only the edited ranges.
+ * Each document keeps a {@link TokenSnapshot}, and a change lexes only the lines it touches.
+ * On-type formatting finds the statement of the finished line from the tokens and formats only that,
+ * so it works while the rest of the document cannot be parsed yet.
+ * Each document also keeps a {@link FormatSnapshot}, and a change reformats only the statements it touches
+ * when the formatted text is needed next time.
+ * Messages are read on the calling thread and handled in order on a single worker thread.
+ * While a formatting request is waiting for the worker, a newer formatting request or a change of the same document
+ * supersedes it, and it's answered with the `RequestCancelled` error without any work.
+ * That way, the editor doesn't wait for outdated results on large files.
+ */
+public final class LanguageServer {
+
+    /**
+     * JSON-RPC error code.
+     */
+    private static final long PARSE_ERROR = -32_700;
+
+    /**
+     * JSON-RPC error code.
+     */
+    private static final long METHOD_NOT_FOUND = -32_601;
+
+    /**
+     * LSP error code for the requests cancelled by the client or superseded by newer ones.
+     */
+    private static final long REQUEST_CANCELLED = -32_800;
+
+    /**
+     * LSP error code for the requests that failed for a reason other than the protocol.
+     */
+    private static final long REQUEST_FAILED = -32_803;
+
+    /**
+     * `TextDocumentSyncKind.Incremental`.
+     */
+    private static final long INCREMENTAL_SYNC = 2;
+
+    /**
+     * The requests that supersede each other for the same document.
+     */
+    private static final List<String> FORMATTING = Arrays.asList(
+        "textDocument/formatting",
+        "textDocument/rangeFormatting",
+        "textDocument/onTypeFormatting"
+    );
+
+    /**
+     * It formats a statement while the user is typing.
+     */
+    private final PythonFormatter formatter;
+
+    /**
+     * It formats the documents.
+     */
+    private final IncrementalFormatter incremental;
+
+    /**
+     * It lexes the documents.
+     */
+    private final IncrementalLexer lexer = new IncrementalLexer();
+
+    /**
+     * We read the messages from here.
+     */
+    private final InputStream input;
+
+    /**
+     * We write the messages here.
+     */
+    private final OutputStream output;
+
+    /**
+     * The messages waiting for the worker.
+     * It's also the lock for itself.
+     */
+    private final Deque<Map<String, Object>> pending = new ArrayDeque<>();
+
+    /**
+     * The open documents by URI.
+     * Only the worker thread touches it.
+     */
+    private final Map<String, Document> documents = new HashMap<>();
+
+    /**
+     * Whether we received the `shutdown` request.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param formatter See {@link LanguageServer#formatter}.
+     * @param input See {@link LanguageServer#input}.
+     * @param output See {@link LanguageServer#output}.
+     */
+    public LanguageServer(final PythonFormatter formatter, final InputStream input, final OutputStream output) {
+        this.formatter = formatter;
+        this.incremental = new IncrementalFormatter(formatter);
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Serve until the `exit` notification or the end of the input.
+     *
+     * @return The exit code. It's 0 only if the client sent `shutdown` before `exit`.
+     * @throws IOException If we fail to read the input.
+     */
+    public int run() throws IOException {
+        final Thread worker = new Thread(this::work, "language-server");
+        worker.start();
+        Map<String, Object> message;
+        do {
+            message = this.read();
+            if (message == null) {
+                message = new HashMap<>();
+                message.put("method", "exit");
+            }
+            this.enqueue(message);
+        } while (!"exit".equals(message.get("method")));
+        try {
+            worker.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        int code = 1;
+        if (this.shutdown) {
+            code = 0;
+        }
+        return code;
+    }
+
+    /**
+     * Read a message.
+     * Invalid messages are answered with the parse error and skipped.
+     *
+     * @return The message, or null at the end of the input.
+     * @throws IOException If we fail to read.
+     */
+    private Map<String, Object> read() throws IOException {
+        while (true) {
+            int length = -1;
+            while (true) {
+                final String header = this.header();
+                if (header == null) {
+                    return null;
+                }
+                if (header.isEmpty()) {
+                    break;
+                }
+                final int colon = header.indexOf(':');
+                if (colon > 0 && "content-length".equalsIgnoreCase(header.substring(0, colon).trim())) {
+                    final String value = header.substring(colon + 1).trim();
+                    try {
+                        length = Integer.parseInt(value);
+                    } catch (final NumberFormatException ex) {
+                        this.error(null, PARSE_ERROR, "Invalid Content-Length: " + value);
+                    }
+                }
+            }
+            if (length < 0) {
+                continue;
+            }
+            final byte[] body = this.input.readNBytes(length);
+            if (body.length < length) {
+                return null;
+            }
+            try {
+                final Object message = Json.parse(new String(body, StandardCharsets.UTF_8));
+                if (message instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> result = (Map<String, Object>) message;
+                    return result;
+                }
+                this.error(null, PARSE_ERROR, "The message must be an object.");
+            } catch (final IllegalArgumentException ex) {
+                this.error(null, PARSE_ERROR, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read a header line.
+     *
+     * @return The line without CRLF, or null at the end of the input.
+     * @throws IOException If we fail to read.
+     */
+    private String header() throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            final int next = this.input.read();
+            if (next < 0) {
+                return null;
+            }
+            if (next == '\n') {
+                break;
+            }
+            if (next != '\r') {
+                line.write(next);
+            }
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Hand over the message to the worker.
+     * Cancellations and superseded requests are answered right here.
+     *
+     * @param message As is.
+     */
+    private void enqueue(final Map<String, Object> message) {
+        // It may be anything in a malformed message, and the worker reports it.
+        final Object method = message.get("method");
+        synchronized (this.pending) {
+            if ("$/cancelRequest".equals(method)) {
+                final Object id = params(message).get("id");
+                this.cancelPending(candidate -> id != null && id.equals(candidate.get("id")));
+                return;
+            }
+            if (FORMATTING.contains(method) || "textDocument/didChange".equals(method) || "textDocument/didClose".equals(method)) {
+                final String uri = uri(message);
+                this.cancelPending(
+                    candidate -> FORMATTING.contains(candidate.get("method")) && uri != null && uri.equals(uri(candidate))
+                );
+            }
+            this.pending.addLast(message);
+            this.pending.notifyAll();
+        }
+    }
+
+    /**
+     * Answer the pending requests with the `RequestCancelled` error and remove them.
+     * The caller must hold the lock of {@link LanguageServer#pending}.
+     *
+     * @param condition Which requests to cancel.
+     */
+    private void cancelPending(final Predicate<Map<String, Object>> condition) {
+        final Iterator<Map<String, Object>> iterator = this.pending.iterator();
+        while (iterator.hasNext()) {
+            final Map<String, Object> candidate = iterator.next();
+            if (condition.test(candidate)) {
+                iterator.remove();
+                this.error(candidate.get("id"), REQUEST_CANCELLED, "The request was cancelled or superseded.");
+            }
+        }
+    }
+
+    /**
+     * Handle the messages one by one until `exit`.
+     */
+    private void work() {
+        while (true) {
+            final Map<String, Object> message;
+            synchronized (this.pending) {
+                while (this.pending.isEmpty()) {
+                    try {
+                        this.pending.wait();
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                message = this.pending.removeFirst();
+            }
+            if ("exit".equals(message.get("method"))) {
+                return;
+            }
+            try {
+                this.handle(message);
+            } catch (final UncheckedIOException ex) {
+                // The client is gone.
+                return;
+            } catch (final ParseException | UnsupportedOperationException ex) {
+                this.error(message.get("id"), REQUEST_FAILED, String.valueOf(ex.getMessage()));
+            } catch (final ClassCastException ex) {
+                this.error(message.get("id"), REQUEST_FAILED, "Malformed message: " + ex.getMessage());
+            } catch (final RuntimeException ex) {
+                // A bad message must not stop the worker. Otherwise, the editor waits forever.
+                this.error(message.get("id"), REQUEST_FAILED, ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Handle a message.
+     *
+     * @param message As is.
+     */
+    private void handle(final Map<String, Object> message) {
+        final String method = (String) message.get("method");
+        final Object id = message.get("id");
+        final Map<String, Object> params = params(message);
+        if (method == null) {
+            // It's a response to a request from us, but we never send one.
+            return;
+        }
+        switch (method) {
+            case "initialize":
+                this.respond(id, capabilities());
+                break;
+            case "shutdown":
+                this.shutdown = true;
+                this.respond(id, null);
+                break;
+            case "textDocument/didOpen":
+                final String text = (String) object(params, "textDocument").get("text");
+                if (text == null) {
+                    throw new UnsupportedOperationException("Missing text: " + uri(message));
+                }
+                this.documents.put(uri(message), new Document(this.lexer.lex(text), null));
+                break;
+            case "textDocument/didChange":
+                final List<?> changes = (List<?>) params.get("contentChanges");
+                if (changes != null && !changes.isEmpty()) {
+                    Document document = this.document(message);
+                    // Each change is relative to the text after the previous one.
+                    for (final Object item : changes) {
+                        @SuppressWarnings("unchecked")
+                        final Map<String, Object> change = (Map<String, Object>) item;
+                        final String changed = (String) change.get("text");
+                        if (changed == null) {
+                            throw new UnsupportedOperationException("Missing text: " + uri(message));
+                        }
+                        if (change.containsKey("range")) {
+                            final Map<String, Object> range = object(change, "range");
+                            document = document.changed(
+                                this.lexer,
+                                document.offset(object(range, "start")),
+                                document.offset(object(range, "end")),
+                                changed
+                            );
+                        } else {
+                            document = new Document(this.lexer.lex(changed), document.snapshot);
+                        }
+                    }
+                    this.documents.put(uri(message), document);
+                }
+                break;
+            case "textDocument/didClose":
+                this.documents.remove(uri(message));
+                break;
+            case "textDocument/formatting":
+                this.respond(id, this.formatDocument(this.document(message)));
+                break;
+            case "textDocument/rangeFormatting":
+                final Map<String, Object> range = object(params, "range");
+                final Map<String, Object> end = object(range, "end");
+                final int startLine = number(object(range, "start"), "line");
+                int endLine = number(end, "line");
+                if (endLine > startLine && number(end, "character") == 0) {
+                    // The range ends at the beginning of the line, so the line itself is not selected.
+                    endLine--;
+                }
+                this.respond(id, this.formatLines(this.document(message), startLine, endLine));
+                break;
+            case "textDocument/onTypeFormatting":
+                // The trigger is a newline, so the line above the cursor is the one just finished.
+                final int line = number(object(params, "position"), "line") - 1;
+                List<Object> edits = Collections.emptyList();
+                if (line >= 0) {
+                    try {
+                        edits = this.formatStatement(this.document(message), line);
+                    } catch (final ParseException ex) {
+                        // The user is in the middle of typing.
+                    }
+                }
+                this.respond(id, edits);
+                break;
+            default:
+                if (id != null) {
+                    this.error(id, METHOD_NOT_FOUND, "Unsupported method: " + method);
+                }
+                break;
+        }
+    }
+
+    /**
+     * The edits that format the whole document.
+     *
+     * @param document As is.
+     * @return Empty if it's already formatted.
+     */
+    private List<Object> formatDocument(final Document document) {
+        final String formatted = document.snapshot(this.incremental).output();
+        final List<Object> edits = new ArrayList<>(1);
+        if (!formatted.equals(document.text)) {
+            edits.add(document.edit(0, document.text.length(), formatted));
+        }
+        return edits;
+    }
+
+    /**
+     * The edits that format the top-level statements overlapping the lines.
+     * We take the statements from the snapshot, so the rest of the document is never touched.
+     *
+     * @param document As is.
+     * @param firstLine Zero-based, inclusive.
+     * @param lastLine Zero-based, inclusive.
+     * @return Empty if they are already formatted.
+     */
+    private List<Object> formatLines(final Document document, final int firstLine, final int lastLine) {
+        final FormatSnapshot snapshot = document.snapshot(this.incremental);
+        final int firstOffset = document.offset(firstLine);
+        final int lastOffset = document.offset(lastLine);
+        int first = 0;
+        int last = 0;
+        for (int index = 0; index < snapshot.statements(); index++) {
+            if (snapshot.sourceOffset(index) <= firstOffset) {
+                first = index;
+            }
+            if (snapshot.sourceOffset(index) <= lastOffset) {
+                last = index;
+            }
+        }
+        final int start = snapshot.sourceOffset(first);
+        final int end = snapshot.sourceOffset(last + 1);
+        final String original = document.text.substring(start, end);
+        final String formatted = snapshot.output().substring(snapshot.outputOffset(first), snapshot.outputOffset(last + 1));
+        final List<Object> edits = new ArrayList<>(1);
+        if (!formatted.equals(original)) {
+            edits.add(document.edit(start, end, formatted));
+        }
+        return edits;
+    }
+
+    /**
+     * The edits that format the top-level statement on the line.
+     * The statement is formatted on its own, so the rest of the document doesn't have to be parsed.
+     *
+     * @param document As is.
+     * @param line Zero-based.
+     * @return Empty if it's already formatted.
+     */
+    private List<Object> formatStatement(final Document document, final int line) {
+        int start = 0;
+        int end = document.text.length();
+        int depth = 0;
+        boolean lineStart = true;
+        boolean first = true;
+        for (final Token token : document.tokens.tokens()) {
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            final int type = token.getType();
+            if (type == PythonLexer.INDENT) {
+                depth++;
+            } else if (type == PythonLexer.DEDENT) {
+                depth--;
+            } else if (type == PythonLexer.NEWLINE) {
+                lineStart = true;
+            } else if (type != Token.EOF) {
+                if (lineStart && depth == 0) {
+                    final int statementLine = token.getLine() - 1;
+                    if (statementLine > line) {
+                        end = document.offset(statementLine);
+                        break;
+                    }
+                    // The first statement also owns the leading comments, so it begins at 0.
+                    if (!first) {
+                        start = document.offset(statementLine);
+                    }
+                    first = false;
+                }
+                lineStart = false;
+            }
+        }
+        final String original = document.text.substring(start, end);
+        final String formatted = this.formatter.format(original);
+        final List<Object> edits = new ArrayList<>(1);
+        if (!formatted.equals(original)) {
+            edits.add(document.edit(start, end, formatted));
+        }
+        return edits;
+    }
+
+    /**
+     * The document the request is about.
+     *
+     * @param message As is.
+     * @return As is.
+     * @throws UnsupportedOperationException If the document is not open.
+     */
+    private Document document(final Map<String, Object> message) {
+        final Document document = this.documents.get(uri(message));
+        if (document == null) {
+            throw new UnsupportedOperationException("The document is not open: " + uri(message));
+        }
+        return document;
+    }
+
+    /**
+     * Send a successful response.
+     *
+     * @param id The request ID.
+     * @param result As is.
+     */
+    private void respond(final Object id, final Object result) {
+        final Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("result", result);
+        this.send(message);
+    }
+
+    /**
+     * Send an error response.
+     *
+     * @param id The request ID. Notifications don't get a response, so nothing is sent if it's null,
+     *           except for the parse error.
+     * @param code As is.
+     * @param text The error message.
+     */
+    private void error(final Object id, final long code, final String text) {
+        if (id == null && code != PARSE_ERROR) {
+            return;
+        }
+        final Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", text);
+        final Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("error", error);
+        this.send(message);
+    }
+
+    /**
+     * Write a message.
+     *
+     * @param message As is.
+     * @throws UncheckedIOException If we fail to write.
+     */
+    private void send(final Map<String, Object> message) {
+        final byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        final byte[] header = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        try {
+            synchronized (this.output) {
+                this.output.write(header);
+                this.output.write(body);
+                this.output.flush();
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * The result of `initialize`.
+     *
+     * @return As is.
+     */
+    private static Map<String, Object> capabilities() {
+        final Map<String, Object> onType = new LinkedHashMap<>();
+        onType.put("firstTriggerCharacter", "\n");
+        final Map<String, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("textDocumentSync", INCREMENTAL_SYNC);
+        capabilities.put("documentFormattingProvider", true);
+        capabilities.put("documentRangeFormattingProvider", true);
+        capabilities.put("documentOnTypeFormattingProvider", onType);
+        final Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", "python-stylerin");
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capabilities", capabilities);
+        result.put("serverInfo", info);
+        return result;
+    }
+
+    /**
+     * The `params` of the message.
+     *
+     * @param message As is.
+     * @return Empty if there is none.
+     */
+    private static Map<String, Object> params(final Map<String, Object> message) {
+        return object(message, "params");
+    }
+
+    /**
+     * The `params.textDocument.uri` of the message.
+     *
+     * @param message As is.
+     * @return Null if there is none or it's not a string.
+     */
+    private static String uri(final Map<String, Object> message) {
+        final Object uri = object(params(message), "textDocument").get("uri");
+        String result = null;
+        if (uri instanceof String) {
+            result = (String) uri;
+        }
+        return result;
+    }
+
+    /**
+     * A nested object.
+     *
+     * @param parent As is.
+     * @param key As is.
+     * @return Empty if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(final Map<String, Object> parent, final String key) {
+        final Object child = parent.get(key);
+        Map<String, Object> result = Collections.emptyMap();
+        if (child instanceof Map) {
+            result = (Map<String, Object>) child;
+        }
+        return result;
+    }
+
+    /**
+     * A nested integer.
+     *
+     * @param parent As is.
+     * @param key As is.
+     * @return As is.
+     * @throws UnsupportedOperationException If there is none.
+     */
+    private static int number(final Map<String, Object> parent, final String key) {
+        final Object child = parent.get(key);
+        if (!(child instanceof Number)) {
+            throw new UnsupportedOperationException("Missing number: " + key);
+        }
+        return ((Number) child).intValue();
+    }
+
+    /**
+     * A version of an open document.
+     * Each change makes a new version, which lexes only the lines around the change
+     * and takes over the format snapshot of the previous one.
+     * The snapshot is brought up to date only when a request needs it,
+     * so typing doesn't format anything, and a version that cannot be parsed keeps the last good snapshot.
+     */
+    private static final class Document {
+
+        /**
+         * As is.
+         */
+        private final String text;
+
+        /**
+         * The offset of each line.
+         */
+        private final int[] lineStarts;
+
+        /**
+         * The tokens of {@link Document#text}.
+         */
+        private final TokenSnapshot tokens;
+
+        /**
+         * The formatted text of this version or of an earlier one.
+         * Null until we need it.
+         */
+        private FormatSnapshot snapshot;
+
+        /**
+         * Constructor.
+         *
+         * @param tokens See {@link Document#tokens}. Its source is the text.
+         * @param snapshot See {@link Document#snapshot}.
+         */
+        Document(final TokenSnapshot tokens, final FormatSnapshot snapshot) {
+            final String text = tokens.source();
+            this.text = text;
+            this.tokens = tokens;
+            this.snapshot = snapshot;
+            int count = 1;
+            for (int index = 0; index < text.length(); index++) {
+                if (text.charAt(index) == '\n') {
+                    count++;
+                }
+            }
+            this.lineStarts = new int[count];
+            int line = 1;
+            for (int index = 0; index < text.length(); index++) {
+                if (text.charAt(index) == '\n') {
+                    this.lineStarts[line] = index + 1;
+                    line++;
+                }
+            }
+        }
+
+        /**
+         * The snapshot of this version.
+         * The changes since the previous snapshot are treated as one edit between the common prefix and suffix,
+         * so the formatter reformats only the statements around them.
+         *
+         * @param formatter As is.
+         * @return As is.
+         * @throws ParseException If this version cannot be parsed.
+         */
+        FormatSnapshot snapshot(final IncrementalFormatter formatter) {
+            if (this.snapshot == null) {
+                this.snapshot = formatter.format(this.text);
+            } else {
+                final String previous = this.snapshot.source();
+                final int shorter = Math.min(previous.length(), this.text.length());
+                int prefix = 0;
+                while (prefix < shorter && previous.charAt(prefix) == this.text.charAt(prefix)) {
+                    prefix++;
+                }
+                int suffix = 0;
+                while (suffix < shorter - prefix
+                    && previous.charAt(previous.length() - suffix - 1) == this.text.charAt(this.text.length() - suffix - 1)) {
+                    suffix++;
+                }
+                if (prefix < previous.length() - suffix || prefix < this.text.length() - suffix) {
+                    this.snapshot = formatter.edit(
+                        this.snapshot,
+                        prefix,
+                        previous.length() - suffix,
+                        this.text.substring(prefix, this.text.length() - suffix)
+                    );
+                }
+            }
+            return this.snapshot;
+        }
+
+        /**
+         * The version after replacing the text between the offsets.
+         *
+         * @param lexer It lexes the lines around the change.
+         * @param start Inclusive.
+         * @param end Exclusive.
+         * @param replacement As is.
+         * @return As is.
+         * @throws UnsupportedOperationException If the start is after the end.
+         */
+        Document changed(final IncrementalLexer lexer, final int start, final int end, final String replacement) {
+            if (start > end) {
+                throw new UnsupportedOperationException(String.format("Invalid range: [%d, %d)", start, end));
+            }
+            return new Document(lexer.edit(this.tokens, start, end, replacement), this.snapshot);
+        }
+
+        /**
+         * The offset of the LSP position.
+         * Like the editors, we take the end of the line if the character is beyond it,
+         * and the end of the text if the line is beyond the last one.
+         *
+         * @param position As is.
+         * @return As is.
+         */
+        int offset(final Map<String, Object> position) {
+            final int line = Math.max(0, number(position, "line"));
+            int result = this.text.length();
+            if (line < this.lineStarts.length) {
+                int lineEnd = this.text.length();
+                if (line + 1 < this.lineStarts.length) {
+                    lineEnd = this.lineStarts[line + 1] - 1;
+                }
+                result = Math.min(this.lineStarts[line] + Math.max(0, number(position, "character")), lineEnd);
+            }
+            return result;
+        }
+
+        /**
+         * The offset of the line.
+         *
+         * @param line Zero-based.
+         * @return The end of the text if the line is beyond the last one.
+         */
+        int offset(final int line) {
+            int result = this.text.length();
+            if (line < this.lineStarts.length) {
+                result = this.lineStarts[line];
+            }
+            return result;
+        }
+
+        /**
+         * A `TextEdit` that replaces the text between the offsets.
+         *
+         * @param start Inclusive.
+         * @param end Exclusive.
+         * @param replacement As is.
+         * @return As is.
+         */
+        Map<String, Object> edit(final int start, final int end, final String replacement) {
+            final Map<String, Object> range = new LinkedHashMap<>();
+            range.put("start", this.position(start));
+            range.put("end", this.position(end));
+            final Map<String, Object> edit = new LinkedHashMap<>();
+            edit.put("range", range);
+            edit.put("newText", replacement);
+            return edit;
+        }
+
+        /**
+         * The LSP position of the offset.
+         * Both Java and LSP count UTF-16 code units, so the character is just the distance from the line start.
+         *
+         * @param offset As is.
+         * @return As is.
+         */
+        private Map<String, Object> position(final int offset) {
+            int line = Arrays.binarySearch(this.lineStarts, offset);
+            if (line < 0) {
+                line = -line - 2;
+            }
+            final Map<String, Object> position = new LinkedHashMap<>();
+            position.put("line", (long) line);
+            position.put("character", (long) (offset - this.lineStarts[line]));
+            return position;
+        }
+
+    }
+
+}
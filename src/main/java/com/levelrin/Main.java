@@ -0,0 +1,302 @@
+package com.levelrin;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.antlr.v4.runtime.CharStream;
+
+/**
+ * The command-line entry point.
+ * Usage: {@code [--check] [--compact] [--line-width N] [--threads N] [--cache DIR [--cache-size MB]] [--trace FILE [--trace-every N]] PATH...},
+ * {@code -}, {@code --daemon PORT}, {@code --client PORT}, or {@code --lsp}
+ * Each path can be either a directory or a Python file.
+ * With `--check`, we only print the files that would be changed.
+ * With `--compact`, we keep a smaller parse tree, which helps with very large files.
+ * The calls, the subscripts, and the collection literals stay on one line if they fit in 88 columns.
+ * Otherwise, we put one element per line. `--line-width` changes the width.
+ * With `--line-width 0`, we always break the dictionaries and never break the others.
+ * If the only path is `-`, we read the code from the standard input
+ * and stream the formatted code into the standard output.
+ * With `--cache`, we skip the files whose formatted code is in the cache directory.
+ * With `--trace`, we write the rule enter/exit events of every n-th input into the file.
+ * With `--daemon PORT`, we keep running and format the requests from the loopback port instead.
+ * With `--client PORT`, we send the standard input to the daemon and print the formatted code.
+ * With `--lsp`, we serve the Language Server Protocol over the standard input and output.
+ * `--compact`, `--line-width`, and `--trace` apply to the daemon and the language server, too.
+ */
+public final class Main {
+
+    /**
+     * Exit code when some files failed or would be changed in the check mode.
+     */
+    private static final int FAILURE = 1;
+
+    /**
+     * Exit code when the arguments are invalid.
+     */
+    private static final int USAGE = 2;
+
+    /**
+     * The line width without `--line-width`.
+     */
+    private static final int DEFAULT_LINE_WIDTH = 88;
+
+    /**
+     * The default size limit of the cache in megabytes.
+     */
+    private static final long CACHE_SIZE = 256;
+
+    /**
+     * Utility class.
+     */
+    private Main() {
+    }
+
+    /**
+     * Format the Python files and print the throughput.
+     *
+     * @param args Command-line arguments.
+     * @throws IOException If we fail to walk the directories.
+     */
+    public static void main(final String[] args) throws IOException {
+        boolean check = false;
+        boolean compact = false;
+        int lineWidth = DEFAULT_LINE_WIDTH;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path cacheDirectory = null;
+        long cacheSize = CACHE_SIZE;
+        Path trace = null;
+        int daemonPort = -1;
+        int clientPort = -1;
+        boolean lsp = false;
+        long traceEvery = 1;
+        final List<Path> roots = new ArrayList<>();
+        try {
+            for (int index = 0; index < args.length; index++) {
+                final String arg = args[index];
+                if ("--check".equals(arg)) {
+                    check = true;
+                } else if ("--compact".equals(arg)) {
+                    compact = true;
+                } else if ("--lsp".equals(arg)) {
+                    lsp = true;
+                } else if ("--line-width".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    lineWidth = Integer.parseInt(args[index]);
+                } else if ("--threads".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    threads = Integer.parseInt(args[index]);
+                } else if ("--cache".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    cacheDirectory = Paths.get(args[index]);
+                } else if ("--cache-size".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    cacheSize = Long.parseLong(args[index]);
+                } else if ("--trace".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    trace = Paths.get(args[index]);
+                } else if ("--trace-every".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    traceEvery = Long.parseLong(args[index]);
+                } else if ("--daemon".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    daemonPort = Integer.parseInt(args[index]);
+                } else if ("--client".equals(arg) && index + 1 < args.length) {
+                    index++;
+                    clientPort = Integer.parseInt(args[index]);
+                } else if (arg.startsWith("--")) {
+                    usage();
+                } else {
+                    roots.add(Paths.get(arg));
+                }
+            }
+        } catch (final NumberFormatException ex) {
+            System.err.println(ex.getMessage());
+            usage();
+        }
+        if (clientPort >= 0) {
+            if (!forward(new FormatClient(clientPort))) {
+                System.exit(FAILURE);
+            }
+            return;
+        }
+        if (threads < 1 || roots.isEmpty() && daemonPort < 0 && !lsp) {
+            usage();
+        }
+        final Tracer tracer;
+        if (trace == null) {
+            tracer = Tracer.NONE;
+        } else {
+            tracer = new FileTracer(trace, traceEvery);
+        }
+        final PythonFormatter formatter;
+        try {
+            formatter = new PythonFormatter(tracer, compact, lineWidth);
+        } catch (final IllegalArgumentException ex) {
+            close(tracer);
+            System.err.println(ex.getMessage());
+            usage();
+            return;
+        }
+        if (lsp) {
+            final int code;
+            try {
+                code = new LanguageServer(formatter, System.in, System.out).run();
+            } finally {
+                close(tracer);
+            }
+            System.exit(code);
+        }
+        if (daemonPort >= 0) {
+            try (FormatServer server = new FormatServer(formatter, daemonPort, threads)) {
+                System.out.printf("Listening on port %d%n", server.port());
+                server.serve();
+            } finally {
+                close(tracer);
+            }
+            return;
+        }
+        if (roots.size() == 1 && "-".equals(roots.get(0).toString())) {
+            final boolean formatted;
+            try {
+                formatted = stream(formatter);
+            } finally {
+                close(tracer);
+            }
+            if (!formatted) {
+                System.exit(FAILURE);
+            }
+            return;
+        }
+        final FormatCache cache;
+        if (cacheDirectory == null) {
+            cache = FormatCache.NONE;
+        } else {
+            cache = new DiskCache(cacheDirectory, cacheSize * 1024 * 1024, "line-width=" + lineWidth);
+        }
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        final BatchReport report;
+        try {
+            report = new BatchFormatter(formatter, pool, !check, cache).format(roots);
+        } finally {
+            pool.shutdown();
+            close(cache);
+            close(tracer);
+        }
+        for (final Path file : report.changed()) {
+            System.out.println(file);
+        }
+        for (final Map.Entry<Path, String> failure : report.failed().entrySet()) {
+            System.err.printf("Failed to format %s%n%s%n", failure.getKey(), failure.getValue());
+        }
+        System.out.printf(
+            Locale.ROOT,
+            "%d files in %d ms (%.1f files/sec) with %d threads: %d %s, %d unchanged, %d failed%n",
+            report.files(),
+            report.elapsedMillis(),
+            report.filesPerSecond(),
+            threads,
+            report.changed().size(),
+            check ? "would be changed" : "changed",
+            report.unchanged(),
+            report.failed().size()
+        );
+        System.out.println(formatter.statistics());
+        if (!report.failed().isEmpty() || check && !report.changed().isEmpty()) {
+            System.exit(FAILURE);
+        }
+    }
+
+    /**
+     * Format the standard input into the standard output.
+     * The formatted code is written while we visit the parse tree without building the whole text first.
+     * The input is decoded and the output is encoded with the encoding declared in the code, or UTF-8 by default.
+     *
+     * @param formatter As is.
+     * @return False if the code cannot be decoded or parsed.
+     * @throws IOException If we fail to read or write.
+     */
+    private static boolean stream(final PythonFormatter formatter) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(System.in.readAllBytes());
+        final Charset charset = MappedCharStream.charset(bytes);
+        final CharStream code;
+        try {
+            code = MappedCharStream.of(bytes, charset, "<stdin>");
+        } catch (final CharacterCodingException ex) {
+            System.err.printf("The input is not valid %s: %s%n", charset, ex);
+            return false;
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, charset));
+        try {
+            formatter.format(code, writer);
+        } catch (final ParseException ex) {
+            System.err.println(ex.getMessage());
+            return false;
+        }
+        writer.flush();
+        return true;
+    }
+
+    /**
+     * Send the standard input to the daemon and print the formatted code into the standard output.
+     *
+     * @param client As is.
+     * @return False if the code cannot be decoded or the daemon could not format it.
+     * @throws IOException If we fail to talk to the daemon.
+     */
+    private static boolean forward(final FormatClient client) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.wrap(System.in.readAllBytes());
+        final Charset charset = MappedCharStream.charset(bytes);
+        final String code;
+        try {
+            code = MappedCharStream.decode(bytes, charset);
+        } catch (final CharacterCodingException ex) {
+            System.err.printf("The input is not valid %s: %s%n", charset, ex);
+            return false;
+        }
+        final String formatted;
+        try {
+            formatted = client.format(code);
+        } catch (final ParseException ex) {
+            System.err.println(ex.getMessage());
+            return false;
+        }
+        final Writer writer = new OutputStreamWriter(System.out, charset);
+        writer.write(formatted);
+        writer.flush();
+        return true;
+    }
+
+    /**
+     * Close the trace file or the cache if it's closeable.
+     *
+     * @param resource As is.
+     * @throws IOException If we fail to close it.
+     */
+    private static void close(final Object resource) throws IOException {
+        if (resource instanceof Closeable) {
+            ((Closeable) resource).close();
+        }
+    }
+
+    /**
+     * Print the usage and exit.
+     */
+    private static void usage() {
+        System.err.println("Usage: [--check] [--compact] [--line-width N] [--threads N] [--cache DIR [--cache-size MB]] [--trace FILE [--trace-every N]] PATH... | - | --daemon PORT | --client PORT | --lsp");
+        System.exit(USAGE);
+    }
+
+}
@@ -0,0 +1,309 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} that reads the characters straight from the bytes of the file.
+ * {@link CharStreams#fromString(String)} copies the whole code into another buffer,
+ * so a file is in memory three times: the bytes, the string, and the code points.
+ * If every byte is a character by itself, which is the case for ASCII code and for Latin-1,
+ * we don't need to decode anything and the bytes are the only copy.
+ * Large files are mapped into memory instead of being read, so even the bytes are not on the heap.
+ * Otherwise, we decode the bytes as usual, with the encoding declared in the code if there is one.
+ * Note that Windows doesn't allow overwriting a mapped file until the mapping is garbage-collected.
+ */
+public final class MappedCharStream implements CharStream {
+
+    /**
+     * We map the files larger than this.
+     * Reading a small file is cheaper than mapping it.
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * We check eight bytes at once whether any of them is not ASCII.
+     */
+    private static final long NON_ASCII = 0x8080808080808080L;
+
+    /**
+     * The code, one byte per character.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * Number of characters.
+     */
+    private final int size;
+
+    /**
+     * As is.
+     */
+    private final String name;
+
+    /**
+     * The index of the next character.
+     */
+    private int position;
+
+    /**
+     * Constructor.
+     *
+     * @param bytes See {@link MappedCharStream#bytes}.
+     * @param name See {@link MappedCharStream#name}.
+     */
+    private MappedCharStream(final ByteBuffer bytes, final String name) {
+        this.bytes = bytes;
+        this.size = bytes.limit();
+        this.name = name;
+    }
+
+    /**
+     * Read the file, mapping it if it's large.
+     * The bytes are decoded with the encoding declared in the file.
+     *
+     * @param path As is.
+     * @return It reads the bytes directly if possible.
+     * @throws IOException If we fail to read the file or the declared encoding is not supported.
+     */
+    public static CharStream open(final Path path) throws IOException {
+        final ByteBuffer bytes = read(path);
+        return of(bytes, charset(bytes), path.toString());
+    }
+
+    /**
+     * Read the file, mapping it if it's large.
+     *
+     * @param path As is.
+     * @return The content of the file.
+     * @throws IOException If we fail to read the file.
+     */
+    public static ByteBuffer read(final Path path) throws IOException {
+        final ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large: %d bytes", path, length));
+            }
+            if (length > MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } else {
+                bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * The encoding declared in the first two lines as PEP 263 defines, or UTF-8 if there is none.
+     * The declaration is ASCII, so we can find it before decoding.
+     * Python also accepts the names with suffixes, like {@code utf-8-unix} or {@code latin-1-dos} from Emacs.
+     *
+     * @param bytes The code before decoding.
+     * @return As is.
+     * @throws IOException If the declared encoding is not supported.
+     */
+    public static Charset charset(final ByteBuffer bytes) throws IOException {
+        final String declared = PythonLexerBase.findEncodingName(index -> bytes.get(index) & 0xFF, bytes.limit());
+        final String name = declared.toLowerCase(Locale.ROOT).replace('_', '-');
+        final Charset result;
+        if (name.isEmpty() || "utf-8".equals(name) || name.startsWith("utf-8-")) {
+            result = StandardCharsets.UTF_8;
+        } else if (name.matches("(latin-1|iso-8859-1|iso-latin-1)(-.*)?")) {
+            result = StandardCharsets.ISO_8859_1;
+        } else {
+            try {
+                result = Charset.forName(name);
+            } catch (final IllegalArgumentException ex) {
+                throw new IOException(String.format("Unknown encoding: %s", declared), ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Use the bytes as the input.
+     * The bytes must not be modified while the stream is in use.
+     *
+     * @param bytes As is.
+     * @param charset The encoding of the bytes.
+     * @param name The source name of the stream.
+     * @return It reads the bytes directly if possible.
+     * @throws CharacterCodingException If the bytes are not valid in the encoding.
+     */
+    public static CharStream of(final ByteBuffer bytes, final Charset charset, final String name) throws CharacterCodingException {
+        final ByteBuffer slice = bytes.slice();
+        final CharStream result;
+        if (StandardCharsets.ISO_8859_1.equals(charset) || asciiCompatible(charset) && ascii(slice)) {
+            result = new MappedCharStream(slice, name);
+        } else {
+            result = CharStreams.fromString(decode(slice.duplicate(), charset), name);
+        }
+        return result;
+    }
+
+    /**
+     * Decode the bytes.
+     * Unlike {@link Charset#decode(ByteBuffer)}, it doesn't replace the invalid bytes with U+FFFD.
+     * Otherwise, we would write the replacement characters back into the file.
+     *
+     * @param bytes As is.
+     * @param charset The encoding of the bytes.
+     * @return As is.
+     * @throws CharacterCodingException If the bytes are not valid in the encoding.
+     */
+    public static String decode(final ByteBuffer bytes, final Charset charset) throws CharacterCodingException {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)
+            .decode(bytes)
+            .toString();
+    }
+
+    /**
+     * Compare the whole content with the text without building a string.
+     *
+     * @param stream As is.
+     * @param text As is.
+     * @return True if they are the same.
+     */
+    public static boolean contentEquals(final CharStream stream, final String text) {
+        final boolean result;
+        if (stream instanceof MappedCharStream) {
+            final MappedCharStream mapped = (MappedCharStream) stream;
+            boolean same = mapped.size == text.length();
+            for (int index = 0; same && index < mapped.size; index++) {
+                same = (mapped.bytes.get(index) & 0xFF) == text.charAt(index);
+            }
+            result = same;
+        } else {
+            result = stream.getText(Interval.of(0, stream.size() - 1)).equals(text);
+        }
+        return result;
+    }
+
+    @Override
+    public String getText(final Interval interval) {
+        final int start = Math.min(interval.a, this.size);
+        final int length = Math.min(interval.b - interval.a + 1, this.size - start);
+        final String result;
+        if (length <= 0) {
+            result = "";
+        } else {
+            final byte[] chars = new byte[length];
+            this.bytes.duplicate().position(start).get(chars);
+            result = new String(chars, StandardCharsets.ISO_8859_1);
+        }
+        return result;
+    }
+
+    @Override
+    public void consume() {
+        if (this.position >= this.size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        this.position++;
+    }
+
+    @Override
+    @SuppressWarnings("MethodName")
+    public int LA(final int offset) {
+        int index = this.position + offset;
+        if (offset > 0) {
+            index--;
+        }
+        final int result;
+        if (offset == 0) {
+            result = 0;
+        } else if (index < 0 || index >= this.size) {
+            result = IntStream.EOF;
+        } else {
+            result = this.bytes.get(index) & 0xFF;
+        }
+        return result;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(final int marker) {
+        // Everything stays in the buffer, so there is nothing to release.
+    }
+
+    @Override
+    public int index() {
+        return this.position;
+    }
+
+    @Override
+    public void seek(final int index) {
+        this.position = index;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String getSourceName() {
+        final String result;
+        if (this.name == null || this.name.isEmpty()) {
+            result = IntStream.UNKNOWN_SOURCE_NAME;
+        } else {
+            result = this.name;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.getText(Interval.of(0, this.size - 1));
+    }
+
+    /**
+     * Whether the ASCII characters are encoded as single bytes of the same values.
+     *
+     * @param charset As is.
+     * @return As is.
+     */
+    private static boolean asciiCompatible(final Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+    /**
+     * Check whether all bytes are ASCII.
+     *
+     * @param bytes As is.
+     * @return As is.
+     */
+    private static boolean ascii(final ByteBuffer bytes) {
+        final int limit = bytes.limit();
+        long bits = 0;
+        int index = 0;
+        for (; bits == 0 && index + Long.BYTES <= limit; index += Long.BYTES) {
+            bits = bytes.getLong(index) & NON_ASCII;
+        }
+        for (; bits == 0 && index < limit; index++) {
+            bits = bytes.get(index) & 0x80;
+        }
+        return bits == 0;
+    }
+
+}
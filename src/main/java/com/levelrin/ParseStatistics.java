@@ -0,0 +1,62 @@
+package com.levelrin;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the two-stage parsing in {@link PythonFormatter}.
+ * We parse with the SLL prediction mode first and retry with the full LL mode only if it fails.
+ * If the fallback rate is high, the SLL attempts are wasted work for that kind of code.
+ * It's thread-safe.
+ */
+@SuppressWarnings("MissingCtor")
+public final class ParseStatistics {
+
+    /**
+     * Number of inputs parsed by the SLL mode without any problem.
+     */
+    private final LongAdder sllCount = new LongAdder();
+
+    /**
+     * Number of inputs we had to parse again with the LL mode.
+     */
+    private final LongAdder fallbackCount = new LongAdder();
+
+    /**
+     * Record an input parsed by the SLL mode.
+     */
+    void recordSll() {
+        this.sllCount.increment();
+    }
+
+    /**
+     * Record an input parsed again by the LL mode.
+     */
+    void recordFallback() {
+        this.fallbackCount.increment();
+    }
+
+    /**
+     * Number of inputs parsed by the SLL mode without any problem.
+     *
+     * @return As is.
+     */
+    public long sll() {
+        return this.sllCount.sum();
+    }
+
+    /**
+     * Number of inputs we had to parse again with the LL mode.
+     * It includes the inputs that have syntax errors because SLL cannot tell them apart.
+     *
+     * @return As is.
+     */
+    public long fallbacks() {
+        return this.fallbackCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SLL: %d, LL fallbacks: %d", this.sll(), this.fallbacks());
+    }
+
+}
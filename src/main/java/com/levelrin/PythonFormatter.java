@@ -0,0 +1,269 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import com.levelrin.antlr.generated.PythonParser;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * It wires the lexer, the parser, and the {@link PythonVisitor} together.
+ * Use this class instead of building the pipeline by hand.
+ * It's safe to share an instance among threads.
+ * Each thread reuses its own lexer, token stream, and parser across calls,
+ * so small inputs don't pay for building them every time.
+ * Note that the DFA caches are static fields of the generated {@link PythonLexer} and {@link PythonParser}.
+ * That means they are shared by all threads and stay warm as long as the classes are loaded.
+ * The tokens are kept in a {@link ColumnarTokenStream}, so only the ones the parser looks at become objects.
+ * We parse with the SLL prediction mode first, which is much cheaper than the full LL mode.
+ * If SLL fails, we parse the same tokens again with the LL mode.
+ * The result is the same either way.
+ */
+public final class PythonFormatter {
+
+    /**
+     * The pipeline confined to the current thread.
+     */
+    private final ThreadLocal<Pipeline> pipelines;
+
+    /**
+     * How often the LL fallback happens.
+     */
+    private final ParseStatistics statistics = new ParseStatistics();
+
+    /**
+     * It receives the enter and exit events of the rules.
+     */
+    private final Tracer tracer;
+
+    /**
+     * The maximum line length that the brackets can fill before we break them into lines.
+     * With zero, we always break the dictionaries and never break the calls, the subscripts, and the other literals.
+     */
+    private final int lineWidth;
+
+    /**
+     * Constructor without tracing.
+     */
+    public PythonFormatter() {
+        this(Tracer.NONE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tracer See {@link PythonFormatter#tracer}.
+     */
+    public PythonFormatter(final Tracer tracer) {
+        this(tracer, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tracer See {@link PythonFormatter#tracer}.
+     * @param compact Whether to remove the unit productions from the parse tree while parsing.
+     *                It lowers the memory per file. See {@link TreeCompactor}.
+     */
+    public PythonFormatter(final Tracer tracer, final boolean compact) {
+        this(tracer, compact, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tracer See {@link PythonFormatter#tracer}.
+     * @param compact Whether to remove the unit productions from the parse tree while parsing.
+     *                It lowers the memory per file. See {@link TreeCompactor}.
+     * @param lineWidth See {@link PythonFormatter#lineWidth}.
+     * @throws IllegalArgumentException If the line width is negative.
+     */
+    public PythonFormatter(final Tracer tracer, final boolean compact, final int lineWidth) {
+        if (lineWidth < 0) {
+            throw new IllegalArgumentException("The line width must not be negative: " + lineWidth);
+        }
+        this.tracer = tracer;
+        this.lineWidth = lineWidth;
+        this.pipelines = ThreadLocal.withInitial(() -> new Pipeline(compact));
+    }
+
+    /**
+     * Format the Python code.
+     *
+     * @param text The code before formatting.
+     * @return The code after formatting.
+     * @throws ParseException If the code cannot be parsed.
+     */
+    public String format(final String text) {
+        return this.format(CharStreams.fromString(text));
+    }
+
+    /**
+     * Format the Python code.
+     *
+     * @param charStream The code before formatting.
+     * @return The code after formatting.
+     * @throws ParseException If the code cannot be parsed.
+     */
+    public String format(final CharStream charStream) {
+        final StringBuilder text = new StringBuilder();
+        this.format(charStream, text);
+        return text.toString();
+    }
+
+    /**
+     * Format the Python code and write the result into the sink as we go.
+     * Nothing is written if the code cannot be parsed.
+     * However, the sink may have partial output if the formatting fails in the middle.
+     *
+     * @param charStream The code before formatting.
+     * @param sink We write the code after formatting here.
+     * @throws ParseException If the code cannot be parsed.
+     * @throws java.io.UncheckedIOException If the sink fails.
+     */
+    public void format(final CharStream charStream, final Appendable sink) {
+        this.visit(charStream, sink);
+    }
+
+    /**
+     * Format the Python code into the sink.
+     *
+     * @param charStream The code before formatting.
+     * @param sink We write the code after formatting here.
+     * @return The visitor that wrote the code, for the positions it recorded.
+     * @throws ParseException If the code cannot be parsed.
+     */
+    PythonVisitor visit(final CharStream charStream, final Appendable sink) {
+        final Pipeline pipeline = this.pipelines.get();
+        pipeline.reset(charStream);
+        final ParseTree tree = pipeline.parse(this.statistics);
+        final Tracer sampled;
+        if (this.tracer.sample()) {
+            sampled = this.tracer;
+        } else {
+            sampled = Tracer.NONE;
+        }
+        final PythonVisitor visitor = new PythonVisitor(pipeline.tokens, sink, sampled, this.lineWidth);
+        visitor.visit(tree);
+        return visitor;
+    }
+
+    /**
+     * Parse the Python code without formatting it.
+     * The tokens in the tree stay valid, but the token stream is reused by the next call on this thread.
+     *
+     * @param charStream As is.
+     * @return The parse tree of the whole file.
+     * @throws ParseException If the code cannot be parsed.
+     */
+    PythonParser.File_inputContext parse(final CharStream charStream) {
+        final Pipeline pipeline = this.pipelines.get();
+        pipeline.reset(charStream);
+        return pipeline.parse(this.statistics);
+    }
+
+    /**
+     * Counters of the two-stage parsing done by this formatter.
+     *
+     * @return As is.
+     */
+    public ParseStatistics statistics() {
+        return this.statistics;
+    }
+
+    /**
+     * The lexer, the token stream, and the parser that are reused by one thread.
+     * The visitor is not here because it keeps the state of a single formatting.
+     */
+    private static final class Pipeline {
+
+        /**
+         * It gives up at the first syntax error in the SLL stage.
+         * It's stateless, so all pipelines can share it.
+         */
+        private static final ANTLRErrorStrategy BAIL = new BailErrorStrategy();
+
+        /**
+         * It reports syntax errors in the LL stage.
+         */
+        private static final ThrowableErrorListener ERROR_LISTENER = new ThrowableErrorListener();
+
+        /**
+         * As is.
+         */
+        private final PythonLexer lexer;
+
+        /**
+         * As is.
+         */
+        private final ColumnarTokenStream tokens;
+
+        /**
+         * As is.
+         */
+        private final PythonParser parser;
+
+        /**
+         * Constructor.
+         *
+         * @param compact Whether to compact the parse tree with {@link TreeCompactor}.
+         */
+        Pipeline(final boolean compact) {
+            this.lexer = new PythonLexer(CharStreams.fromString(""));
+            this.tokens = new ColumnarTokenStream(this.lexer);
+            this.parser = new PythonParser(this.tokens);
+            if (compact) {
+                this.parser.addParseListener(TreeCompactor.INSTANCE);
+            }
+        }
+
+        /**
+         * Point the pipeline to the new input.
+         * {@link PythonLexer#setInputStream} calls {@link PythonLexerBase#reset()},
+         * and the token stream and the parser discard everything from the previous input.
+         *
+         * @param charStream The new input.
+         */
+        void reset(final CharStream charStream) {
+            this.lexer.setInputStream(charStream);
+            this.tokens.setTokenSource(this.lexer);
+            this.parser.setTokenStream(this.tokens);
+        }
+
+        /**
+         * Parse the input with the SLL mode first and retry with the LL mode if it fails.
+         * Error listeners are removed in the SLL stage
+         * because the generated code reports an error before the bail strategy cancels the parsing.
+         *
+         * @param statistics We record which stage produced the tree.
+         * @return The parse tree of the whole file.
+         * @throws ParseException If the input has a syntax error.
+         */
+        PythonParser.File_inputContext parse(final ParseStatistics statistics) {
+            this.parser.removeErrorListeners();
+            this.parser.setErrorHandler(BAIL);
+            this.parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            PythonParser.File_inputContext tree;
+            try {
+                tree = this.parser.file_input();
+                statistics.recordSll();
+            } catch (final ParseCancellationException ex) {
+                statistics.recordFallback();
+                this.parser.addErrorListener(ERROR_LISTENER);
+                this.parser.setErrorHandler(new DefaultErrorStrategy());
+                this.parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                // It also rewinds the token stream.
+                this.parser.reset();
+                tree = this.parser.file_input();
+            }
+            return tree;
+        }
+
+    }
+
+}
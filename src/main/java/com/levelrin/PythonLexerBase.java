@@ -32,15 +32,41 @@ package com.levelrin;
 import com.levelrin.antlr.generated.PythonLexer;
 import com.levelrin.antlr.generated.PythonParser;
 import java.util.*;
+import java.util.function.IntUnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.IntegerStack;
+import org.antlr.v4.runtime.misc.Pair;
 
 public abstract class PythonLexerBase extends Lexer {
+    // The encoding declaration must be in the first two lines,
+    // we don't look further than this many chars for it even if the first line is longer
+    private static final int ENCODING_SCAN_LIMIT = 1024;
+    private static final int COMPREHENSION_CACHE_SIZE = 256;
+    // the lexer mode of each FSTRING_START token text in lower case
+    private static final Map<String, Integer> FSTRING_START_MODES = new HashMap<>();
+    static {
+        FSTRING_START_MODES.put("f'", PythonLexer.SQ1__FSTRING_MODE);
+        FSTRING_START_MODES.put("rf'", PythonLexer.SQ1R_FSTRING_MODE);
+        FSTRING_START_MODES.put("fr'", PythonLexer.SQ1R_FSTRING_MODE);
+        FSTRING_START_MODES.put("f\"", PythonLexer.DQ1__FSTRING_MODE);
+        FSTRING_START_MODES.put("rf\"", PythonLexer.DQ1R_FSTRING_MODE);
+        FSTRING_START_MODES.put("fr\"", PythonLexer.DQ1R_FSTRING_MODE);
+        FSTRING_START_MODES.put("f'''", PythonLexer.SQ3__FSTRING_MODE);
+        FSTRING_START_MODES.put("rf'''", PythonLexer.SQ3R_FSTRING_MODE);
+        FSTRING_START_MODES.put("fr'''", PythonLexer.SQ3R_FSTRING_MODE);
+        FSTRING_START_MODES.put("f\"\"\"", PythonLexer.DQ3__FSTRING_MODE);
+        FSTRING_START_MODES.put("rf\"\"\"", PythonLexer.DQ3R_FSTRING_MODE);
+        FSTRING_START_MODES.put("fr\"\"\"", PythonLexer.DQ3R_FSTRING_MODE);
+    }
+    private static final Pattern WS_COMMENT_PATTERN = Pattern.compile("^[ \\t\\f]*(#.*)?$");
+    private static final Pattern ENCODING_COMMENT_PATTERN = Pattern.compile("^[ \\t\\f]*#.*?coding[:=][ \\t]*([-_.a-zA-Z0-9]+)");
+
     // A stack that keeps track of the indentation lengths
-    private Deque<Integer> indentLengthStack;
+    private final IntegerStack indentLengthStack = new IntegerStack();
     // A list where tokens are waiting to be loaded into the token stream
-    private Deque<Token> pendingTokens;
+    private final Deque<Token> pendingTokens = new ArrayDeque<>();
 
     // last pending token type
     private int previousPendingTokenType;
@@ -49,23 +75,38 @@ public abstract class PythonLexerBase extends Lexer {
     // The amount of opened parentheses, square brackets or curly braces
     private int opened;
     // The amount of opened parentheses and square brackets in the current lexer mode
-    private Deque<Integer> paren_or_bracket_openedStack;
-    // A stack that stores expression(s) between braces in fstring
-    private Deque<String> braceExpressionStack;
+    private final IntegerStack paren_or_bracket_openedStack = new IntegerStack();
+    // The texts of the open brace expressions, the inner ones are always at the end.
+    // Each one begins at the offset on top of braceExpressionStartStack and lasts until the end of the builder,
+    // so closing an inner expression appends it to the outer one without copying.
+    private final StringBuilder braceExpression = new StringBuilder();
+    private final IntegerStack braceExpressionStartStack = new IntegerStack();
     private String prevBraceExpression;
 
     // Instead of this._mode      (_mode is not implemented in each ANTLR4 runtime)
     private int curLexerMode;
     // Instead of this._modeStack (_modeStack is not implemented in each ANTLR4 runtime)
-    private Deque<Integer> lexerModeStack;
+    private final IntegerStack lexerModeStack = new IntegerStack();
 
     private boolean wasSpaceIndentation;
     private boolean wasTabIndentation;
     private boolean wasIndentationMixedWithSpacesAndTabs;
 
+    // the results of the nested parsing by the brace expression text, the least recently used ones are dropped
+    // it's not reset by init() because the result depends only on the text
+    private final Map<String, Boolean> comprehensionCache = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return this.size() > COMPREHENSION_CACHE_SIZE;
+        }
+    };
+
     private Token curToken; // current (under processing) token
     private Token ffgToken; // following (look ahead) token
 
+    // the texts of the synthetic tokens by the token type, see getSyntheticTokenText()
+    private final String[] syntheticTokenTexts = new String[this.getVocabulary().getMaxTokenType() + 1];
+
     private final int INVALID_LENGTH = -1;
     private final String ERR_TXT = " ERROR: ";
 
@@ -76,7 +117,11 @@ public abstract class PythonLexerBase extends Lexer {
 
     @Override
     public Token nextToken() { // reading the input stream until a return EOF
-        this.checkNextToken();
+        // lex only when the queue is drained, otherwise every inserted INDENT/DEDENT token
+        // would make the queue (and the distance between the lexer and the token stream) longer for good
+        while (this.pendingTokens.isEmpty() && this.previousPendingTokenType != Token.EOF) {
+            this.checkNextToken();
+        }
         return this.pendingTokens.pollFirst(); // add the queued token to the token stream
     }
 
@@ -87,16 +132,17 @@ public abstract class PythonLexerBase extends Lexer {
     }
 
     private void init() {
-        this.indentLengthStack = new ArrayDeque<>();
-        this.pendingTokens = new ArrayDeque<>();
+        this.indentLengthStack.clear();
+        this.pendingTokens.clear();
         this.previousPendingTokenType = 0;
         this.lastPendingTokenTypeFromDefaultChannel = 0;
         this.opened = 0;
-        this.paren_or_bracket_openedStack = new ArrayDeque<>();
-        this.braceExpressionStack = new ArrayDeque<>();
+        this.paren_or_bracket_openedStack.clear();
+        this.braceExpression.setLength(0);
+        this.braceExpressionStartStack.clear();
         this.prevBraceExpression = "";
         this.curLexerMode = 0;
-        this.lexerModeStack = new ArrayDeque<>();
+        this.lexerModeStack.clear();
         this.wasSpaceIndentation = false;
         this.wasTabIndentation = false;
         this.wasIndentationMixedWithSpacesAndTabs = false;
@@ -152,6 +198,231 @@ public abstract class PythonLexerBase extends Lexer {
         this.handleFORMAT_SPECIFICATION_MODE();
     }
 
+    // Incremental lexing support: the whole lexer state at the start of a logical line.
+    // It's taken only when we're not in an fstring or in brackets,
+    // and the last pending token from the default channel ended a line (NEWLINE, INDENT or DEDENT).
+    // The pending tokens are part of the state because the queue is not drained by every nextToken() call.
+    // Restoring it into a lexer over an edited input (same text up to the checkpoint) continues the lexing
+    // exactly as if the lexer had reached this point by itself.
+    public static final class Checkpoint {
+        private final int index; // input position after the look ahead token
+        private final int line;
+        private final int charPositionInLine;
+        private final int mode;
+        private final int[] modeStack;
+        private final int[] indentLengthStack;
+        private final Token[] pendingTokens;
+        private final int previousPendingTokenType;
+        private final int lastPendingTokenTypeFromDefaultChannel;
+        private final int opened;
+        private final int[] paren_or_bracket_openedStack;
+        private final String braceExpression;
+        private final int[] braceExpressionStartStack;
+        private final String prevBraceExpression;
+        private final int curLexerMode;
+        private final int[] lexerModeStack;
+        private final boolean wasSpaceIndentation;
+        private final boolean wasTabIndentation;
+        private final boolean wasIndentationMixedWithSpacesAndTabs;
+        private final Token curToken;
+        private final Token ffgToken;
+
+        private Checkpoint(final PythonLexerBase lexer, final Token curToken, final Token ffgToken, final int index, final int line) {
+            this.index = index;
+            this.line = line;
+            this.charPositionInLine = lexer.getCharPositionInLine();
+            this.mode = lexer._mode;
+            this.modeStack = lexer._modeStack.toArray();
+            this.indentLengthStack = lexer.indentLengthStack.toArray();
+            this.pendingTokens = lexer.pendingTokens.toArray(new Token[0]);
+            this.previousPendingTokenType = lexer.previousPendingTokenType;
+            this.lastPendingTokenTypeFromDefaultChannel = lexer.lastPendingTokenTypeFromDefaultChannel;
+            this.opened = lexer.opened;
+            this.paren_or_bracket_openedStack = lexer.paren_or_bracket_openedStack.toArray();
+            this.braceExpression = lexer.braceExpression.toString();
+            this.braceExpressionStartStack = lexer.braceExpressionStartStack.toArray();
+            this.prevBraceExpression = lexer.prevBraceExpression;
+            this.curLexerMode = lexer.curLexerMode;
+            this.lexerModeStack = lexer.lexerModeStack.toArray();
+            this.wasSpaceIndentation = lexer.wasSpaceIndentation;
+            this.wasTabIndentation = lexer.wasTabIndentation;
+            this.wasIndentationMixedWithSpacesAndTabs = lexer.wasIndentationMixedWithSpacesAndTabs;
+            this.curToken = curToken;
+            this.ffgToken = ffgToken;
+        }
+
+        private Checkpoint(final Checkpoint other, final Token[] pendingTokens, final Token curToken, final Token ffgToken, final int index, final int line) {
+            this.index = index;
+            this.line = line;
+            this.charPositionInLine = other.charPositionInLine;
+            this.mode = other.mode;
+            this.modeStack = other.modeStack;
+            this.indentLengthStack = other.indentLengthStack;
+            this.pendingTokens = pendingTokens;
+            this.previousPendingTokenType = other.previousPendingTokenType;
+            this.lastPendingTokenTypeFromDefaultChannel = other.lastPendingTokenTypeFromDefaultChannel;
+            this.opened = other.opened;
+            this.paren_or_bracket_openedStack = other.paren_or_bracket_openedStack;
+            this.braceExpression = other.braceExpression;
+            this.braceExpressionStartStack = other.braceExpressionStartStack;
+            this.prevBraceExpression = other.prevBraceExpression;
+            this.curLexerMode = other.curLexerMode;
+            this.lexerModeStack = other.lexerModeStack;
+            this.wasSpaceIndentation = other.wasSpaceIndentation;
+            this.wasTabIndentation = other.wasTabIndentation;
+            this.wasIndentationMixedWithSpacesAndTabs = other.wasIndentationMixedWithSpacesAndTabs;
+            this.curToken = curToken;
+            this.ffgToken = ffgToken;
+        }
+
+        // input position after the look ahead token; everything after it is not lexed yet
+        public int index() {
+            return this.index;
+        }
+
+        public int line() {
+            return this.line;
+        }
+
+        // where the first already lexed but not returned token begins, the edits before it may change the tokens
+        public int firstPendingIndex() {
+            return this.pendingTokens.length == 0 ?
+                this.ffgToken.getStartIndex() :
+                this.pendingTokens[0].getStartIndex();
+        }
+
+        // the same checkpoint after an edit before it moved the text by indexDelta chars and lineDelta lines
+        public Checkpoint shift(final int indexDelta, final int lineDelta, final TokenSource source, final CharStream input) {
+            final Token[] shifted = new Token[this.pendingTokens.length];
+            for (int i = 0; i < shifted.length; i++) {
+                shifted[i] = shiftToken(this.pendingTokens[i], indexDelta, lineDelta, source, input);
+            }
+            return new Checkpoint(
+                this,
+                shifted,
+                shiftToken(this.curToken, indexDelta, lineDelta, source, input),
+                shiftToken(this.ffgToken, indexDelta, lineDelta, source, input),
+                this.index + indexDelta,
+                this.line + lineDelta
+            );
+        }
+
+        // true if the lexing continues the same way from both checkpoints when the remaining inputs are equal
+        public boolean sameStateAs(final Checkpoint other) {
+            return this.charPositionInLine == other.charPositionInLine &&
+                this.mode == other.mode &&
+                Arrays.equals(this.modeStack, other.modeStack) &&
+                Arrays.equals(this.indentLengthStack, other.indentLengthStack) &&
+                sameTokens(this.pendingTokens, other.pendingTokens) &&
+                this.previousPendingTokenType == other.previousPendingTokenType &&
+                this.lastPendingTokenTypeFromDefaultChannel == other.lastPendingTokenTypeFromDefaultChannel &&
+                this.opened == other.opened &&
+                Arrays.equals(this.paren_or_bracket_openedStack, other.paren_or_bracket_openedStack) &&
+                this.braceExpression.equals(other.braceExpression) &&
+                Arrays.equals(this.braceExpressionStartStack, other.braceExpressionStartStack) &&
+                this.prevBraceExpression.equals(other.prevBraceExpression) &&
+                this.curLexerMode == other.curLexerMode &&
+                Arrays.equals(this.lexerModeStack, other.lexerModeStack) &&
+                this.wasSpaceIndentation == other.wasSpaceIndentation &&
+                this.wasTabIndentation == other.wasTabIndentation &&
+                this.wasIndentationMixedWithSpacesAndTabs == other.wasIndentationMixedWithSpacesAndTabs &&
+                sameToken(this.curToken, other.curToken) &&
+                sameToken(this.ffgToken, other.ffgToken);
+        }
+
+        private static boolean sameTokens(final Token[] first, final Token[] second) {
+            if (first.length != second.length) {
+                return false;
+            }
+            for (int i = 0; i < first.length; i++) {
+                if (!sameToken(first[i], second[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean sameToken(final Token first, final Token second) {
+            return first.getType() == second.getType() &&
+                first.getChannel() == second.getChannel() &&
+                first.getCharPositionInLine() == second.getCharPositionInLine() &&
+                first.getText().equals(second.getText());
+        }
+    }
+
+    // a copy of the token that belongs to another input, moved by indexDelta chars and lineDelta lines
+    // the text is always copied because some fstring tokens have a text that differs from their input range
+    public static Token shiftToken(final Token token, final int indexDelta, final int lineDelta, final TokenSource source, final CharStream input) {
+        final CommonToken ctkn = new CommonToken(
+            new Pair<>(source, input),
+            token.getType(),
+            token.getChannel(),
+            token.getStartIndex() + indexDelta,
+            token.getStopIndex() + indexDelta
+        );
+        ctkn.setLine(token.getLine() + lineDelta);
+        ctkn.setCharPositionInLine(token.getCharPositionInLine());
+        ctkn.setText(token.getText());
+        return ctkn;
+    }
+
+    // null if the lexer is not at the start of a logical line
+    public Checkpoint checkpoint() {
+        if (this.indentLengthStack.isEmpty() ||
+            this.ffgToken == null ||
+            this.ffgToken.getType() == Token.EOF ||
+            this.opened != 0 ||
+            !this.lexerModeStack.isEmpty()) {
+            return null;
+        }
+        switch (this.lastPendingTokenTypeFromDefaultChannel) {
+            case PythonLexer.NEWLINE:
+            case PythonLexer.INDENT:
+            case PythonLexer.DEDENT:
+                // the current and the following tokens may be changed in place later, so the checkpoint keeps copies
+                return new Checkpoint(
+                    this,
+                    shiftToken(this.curToken, 0, 0, this, this._input),
+                    shiftToken(this.ffgToken, 0, 0, this, this._input),
+                    this._input.index(),
+                    this.getLine()
+                );
+            default:
+                return null;
+        }
+    }
+
+    // continue from the checkpoint; the input must have the same text as the checkpointed one up to checkpoint.index()
+    public void restore(final Checkpoint checkpoint) {
+        this.init();
+        this.indentLengthStack.addAll(checkpoint.indentLengthStack);
+        for (final Token tkn : checkpoint.pendingTokens) {
+            this.pendingTokens.addLast(shiftToken(tkn, 0, 0, this, this._input));
+        }
+        this.previousPendingTokenType = checkpoint.previousPendingTokenType;
+        this.lastPendingTokenTypeFromDefaultChannel = checkpoint.lastPendingTokenTypeFromDefaultChannel;
+        this.opened = checkpoint.opened;
+        this.paren_or_bracket_openedStack.addAll(checkpoint.paren_or_bracket_openedStack);
+        this.braceExpression.append(checkpoint.braceExpression);
+        this.braceExpressionStartStack.addAll(checkpoint.braceExpressionStartStack);
+        this.prevBraceExpression = checkpoint.prevBraceExpression;
+        this.curLexerMode = checkpoint.curLexerMode;
+        this.lexerModeStack.addAll(checkpoint.lexerModeStack);
+        this.wasSpaceIndentation = checkpoint.wasSpaceIndentation;
+        this.wasTabIndentation = checkpoint.wasTabIndentation;
+        this.wasIndentationMixedWithSpacesAndTabs = checkpoint.wasIndentationMixedWithSpacesAndTabs;
+        this.curToken = shiftToken(checkpoint.curToken, 0, 0, this, this._input);
+        this.ffgToken = shiftToken(checkpoint.ffgToken, 0, 0, this, this._input);
+        this._input.seek(checkpoint.index);
+        this.setLine(checkpoint.line);
+        this.setCharPositionInLine(checkpoint.charPositionInLine);
+        this._mode = checkpoint.mode;
+        this._modeStack.clear();
+        this._modeStack.addAll(checkpoint.modeStack);
+        this._hitEOF = false;
+        this._token = null;
+    }
+
     private void setCurrentAndFollowingTokens() {
         this.curToken = this.ffgToken == null ?
             super.nextToken() :
@@ -165,37 +436,9 @@ public abstract class PythonLexerBase extends Lexer {
     }
 
     private void insertENCODINGtoken() { // https://peps.python.org/pep-0263/
-        StringBuilder lineBuilder = new StringBuilder();
-        String encodingName = "";
-        int lineCount = 0;
-        final Pattern ws_commentPattern = Pattern.compile("^[ \\t\\f]*(#.*)?$");
         final CharStream charStream = this.getInputStream();
-        final int size = charStream.size();
-
         charStream.seek(0);
-        for (int i = 0; i < size; i++) {
-            char c = (char) charStream.LA(i + 1);
-            lineBuilder.append(c);
-
-            if (c == '\n' || i == size - 1) {
-                String line = lineBuilder.toString().replace("\r", "").replace("\n", "");
-                if (ws_commentPattern.matcher(line).find()) { // WS* + COMMENT? found
-                    encodingName = getEncodingName(line);
-                    if (!encodingName.isEmpty()) {
-                        break; // encoding found
-                    }
-                } else {
-                    break; // statement or backslash found (line is not empty, not whitespace(s), not comment)
-                }
-
-                lineCount++;
-                if (lineCount >= 2) {
-                    break; // check only the first two lines
-                }
-                lineBuilder = new StringBuilder();
-            }
-        }
-
+        String encodingName = findEncodingName(i -> charStream.LA(i + 1), charStream.size());
         if (encodingName.isEmpty()) {
             encodingName = "utf-8"; // default Python source code encoding
         }
@@ -205,10 +448,37 @@ public abstract class PythonLexerBase extends Lexer {
         this.addPendingToken(encodingToken);
     }
 
-    private String getEncodingName(final String commentText) { // https://peps.python.org/pep-0263/#defining-the-encoding
-        final Pattern encodingCommentPattern = Pattern.compile("^[ \\t\\f]*#.*?coding[:=][ \\t]*([-_.a-zA-Z0-9]+)");
-        final Matcher matcher = encodingCommentPattern.matcher(commentText);
-        return matcher.find() ? matcher.group(1) : "";
+    // the encoding declared in the first two lines, or an empty string if there is none
+    // charAt returns the char (or the byte) at the given index
+    // it reads at most ENCODING_SCAN_LIMIT chars, so a huge first line is not buffered
+    public static String findEncodingName(final IntUnaryOperator charAt, final int size) {
+        final StringBuilder lineBuilder = new StringBuilder();
+        final int limit = Math.min(size, ENCODING_SCAN_LIMIT);
+        int lineCount = 0;
+        for (int i = 0; i < limit; i++) {
+            final char c = (char) charAt.applyAsInt(i);
+            if (c != '\r' && c != '\n') {
+                lineBuilder.append(c);
+            }
+
+            if (c == '\n' || i == size - 1) {
+                final String line = lineBuilder.toString();
+                if (!WS_COMMENT_PATTERN.matcher(line).find()) {
+                    return ""; // statement or backslash found (line is not empty, not whitespace(s), not comment)
+                }
+                final Matcher matcher = ENCODING_COMMENT_PATTERN.matcher(line); // https://peps.python.org/pep-0263/#defining-the-encoding
+                if (matcher.find()) {
+                    return matcher.group(1); // encoding found
+                }
+
+                lineCount++;
+                if (lineCount >= 2) {
+                    return ""; // check only the first two lines
+                }
+                lineBuilder.setLength(0);
+            }
+        }
+        return ""; // the limit is reached in the middle of a line
     }
 
     // initialize the indentLengthStack
@@ -253,7 +523,7 @@ public abstract class PythonLexerBase extends Lexer {
         } else if (this.opened > 0) { // We're in an implicit line joining, ignore the current NEWLINE token
             this.hideAndAddPendingToken(this.curToken);
         } else {
-            final Token nlToken = new CommonToken(this.curToken); // save the current NEWLINE token
+            final Token nlToken = this.curToken; // save the current NEWLINE token
             final boolean isLookingAhead = this.ffgToken.getType() == PythonLexer.WS;
             if (isLookingAhead) {
                 this.setCurrentAndFollowingTokens(); // set the next two tokens
@@ -327,13 +597,12 @@ public abstract class PythonLexerBase extends Lexer {
             case PythonLexer.NEWLINE:
                 // append the current brace expression with the current newline
                 this.appendToBraceExpression(this.curToken.getText());
-                final CommonToken ctkn = new CommonToken(this.curToken);
-                ctkn.setChannel(Token.HIDDEN_CHANNEL);
-                this.curToken = ctkn;
+                this.curToken = this.hideToken(this.curToken);
                 break;
             case PythonLexer.LBRACE:
                 // the outermost brace expression cannot be a dictionary comprehension or a set comprehension
-                this.braceExpressionStack.push("{");
+                this.braceExpressionStartStack.push(this.braceExpression.length());
+                this.braceExpression.append('{');
                 this.paren_or_bracket_openedStack.push(0);
                 this.pushLexerMode(Lexer.DEFAULT_MODE);
                 break;
@@ -366,7 +635,7 @@ public abstract class PythonLexerBase extends Lexer {
     }
 
     private void appendToBraceExpression(String text) {
-        this.braceExpressionStack.push(this.braceExpressionStack.pop() + text);
+        this.braceExpression.append(text);
     }
 
     private void incrementBraceStack() { // increment the last element (peek() + 1)
@@ -402,21 +671,7 @@ public abstract class PythonLexerBase extends Lexer {
 
     private void setLexerModeByFSTRING_STARTtoken() {
         final String text = this.curToken.getText().toLowerCase();
-        Map<String, Integer> modeMap = new HashMap<>();
-        modeMap.put("f'", PythonLexer.SQ1__FSTRING_MODE);
-        modeMap.put("rf'", PythonLexer.SQ1R_FSTRING_MODE);
-        modeMap.put("fr'", PythonLexer.SQ1R_FSTRING_MODE);
-        modeMap.put("f\"", PythonLexer.DQ1__FSTRING_MODE);
-        modeMap.put("rf\"", PythonLexer.DQ1R_FSTRING_MODE);
-        modeMap.put("fr\"", PythonLexer.DQ1R_FSTRING_MODE);
-        modeMap.put("f'''", PythonLexer.SQ3__FSTRING_MODE);
-        modeMap.put("rf'''", PythonLexer.SQ3R_FSTRING_MODE);
-        modeMap.put("fr'''", PythonLexer.SQ3R_FSTRING_MODE);
-        modeMap.put("f\"\"\"", PythonLexer.DQ3__FSTRING_MODE);
-        modeMap.put("rf\"\"\"", PythonLexer.DQ3R_FSTRING_MODE);
-        modeMap.put("fr\"\"\"", PythonLexer.DQ3R_FSTRING_MODE);
-
-        Integer mode = modeMap.get(text);
+        Integer mode = FSTRING_START_MODES.get(text);
         if (mode != null) {
             this.pushLexerMode(mode);
         }
@@ -464,11 +719,12 @@ public abstract class PythonLexerBase extends Lexer {
 
     private void popByBRACE() {
         this.paren_or_bracket_openedStack.pop();
-        this.prevBraceExpression = this.braceExpressionStack.pop() + "}";
-        if (!this.braceExpressionStack.isEmpty()) {
-            // append the current brace expression with the previous brace expression
-            this.braceExpressionStack.push(this.braceExpressionStack.pop() + this.prevBraceExpression);
-        }
+        final int start = this.braceExpressionStartStack.pop();
+        this.braceExpression.append('}');
+        this.prevBraceExpression = this.braceExpression.substring(start);
+        if (this.braceExpressionStartStack.size() == 0) {
+            this.braceExpression.setLength(0);
+        } // otherwise the previous brace expression is already at the end of the current brace expression
 
     }
 
@@ -581,6 +837,15 @@ public abstract class PythonLexerBase extends Lexer {
     }
 
     private boolean isDictionaryComprehensionOrSetComprehension(final String code) {
+        // Both need a 'for' keyword, so it can't be a comprehension without that text in it.
+        // This exact negative check avoids the nested parsing for almost all brace expressions.
+        if (!code.contains("for")) {
+            return false;
+        }
+        return this.comprehensionCache.computeIfAbsent(code, PythonLexerBase::parseDictionaryComprehensionOrSetComprehension);
+    }
+
+    private static boolean parseDictionaryComprehensionOrSetComprehension(final String code) {
         final CharStream inputStream = CharStreams.fromString(code);
         final PythonLexer lexer = new PythonLexer(inputStream);
         final CommonTokenStream tokenStream = new CommonTokenStream(lexer);
@@ -621,21 +886,42 @@ public abstract class PythonLexerBase extends Lexer {
     }
 
     private void hideAndAddPendingToken(final Token tkn) {
-        final CommonToken ctkn = new CommonToken(tkn);
-        ctkn.setChannel(Token.HIDDEN_CHANNEL);
-        this.addPendingToken(ctkn);
+        this.addPendingToken(this.hideToken(tkn));
     }
 
-    private void createAndAddPendingToken(final int ttype, final int channel, final String text, final Token sampleToken) {
-        final CommonToken ctkn = new CommonToken(sampleToken);
-        ctkn.setType(ttype);
-        ctkn.setChannel(channel);
-        ctkn.setStopIndex(sampleToken.getStartIndex() - 1);
-        ctkn.setText(text == null ?
-            "<" + this.getVocabulary().getDisplayName(ttype) + ">" :
-            text);
+    // the current and the following tokens are not shared with anything else (not even with a checkpoint),
+    // so we change their channel in place instead of copying them
+    private Token hideToken(final Token tkn) {
+        final WritableToken wtkn = tkn instanceof WritableToken ?
+            (WritableToken) tkn :
+            new CommonToken(tkn);
+        wtkn.setChannel(Token.HIDDEN_CHANNEL);
+        return wtkn;
+    }
 
-        this.addPendingToken(ctkn);
+    // the synthetic tokens come from the token factory of the lexer without copying the sample token
+    private void createAndAddPendingToken(final int ttype, final int channel, final String text, final Token sampleToken) {
+        final Token tkn = this._factory.create(
+            this._tokenFactorySourcePair,
+            ttype,
+            text == null ? this.getSyntheticTokenText(ttype) : text,
+            channel,
+            sampleToken.getStartIndex(),
+            sampleToken.getStartIndex() - 1,
+            sampleToken.getLine(),
+            sampleToken.getCharPositionInLine()
+        );
+        this.addPendingToken(tkn);
+    }
+
+    // "<INDENT>", "<DEDENT>", etc. built only once per token type
+    private String getSyntheticTokenText(final int ttype) {
+        String text = this.syntheticTokenTexts[ttype];
+        if (text == null) {
+            text = "<" + this.getVocabulary().getDisplayName(ttype) + ">";
+            this.syntheticTokenTexts[ttype] = text;
+        }
+        return text;
     }
 
     private void addPendingToken(final Token tkn) {
@@ -3,35 +3,52 @@ package com.levelrin;
 import com.levelrin.antlr.generated.PythonLexer;
 import com.levelrin.antlr.generated.PythonParser;
 import com.levelrin.antlr.generated.PythonParserBaseVisitor;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.IntegerList;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.RuleNode;
 import org.antlr.v4.runtime.tree.TerminalNode;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * This is the class that has the formatting logic.
  * Welcome to the project :)
+ * The formatted code is written into a single sink while we visit the tree.
+ * That way, each character is written only once regardless of how deep the tree is.
  */
-public final class PythonVisitor extends PythonParserBaseVisitor<String> {
+public final class PythonVisitor extends PythonParserBaseVisitor<Void> {
 
     /**
-     * For logging.
+     * The rules we can skip when they have a single child that is also a rule.
+     * Their visit methods only visit that child in that case.
+     * For example, an identifier in an expression goes through
+     * `expression -> disjunction -> ... -> primary -> atom`, and we jump straight to `atom`.
+     * {@link TreeCompactor} removes the same chains from the tree while parsing.
+     * Index - Rule index of the context. Ex: {@link PythonParser#RULE_sum}.
      */
-    private static final Logger LOGGER = LoggerFactory.getLogger(PythonVisitor.class);
-
-    /**
-     * Number of spaces for an indentation.
-     */
-    private static final String INDENT_UNIT = "    ";
+    private static final boolean[] PASS_THROUGH = passThrough(
+        PythonParser.RULE_star_expressions,
+        PythonParser.RULE_star_expression,
+        PythonParser.RULE_star_named_expression,
+        PythonParser.RULE_expression,
+        PythonParser.RULE_disjunction,
+        PythonParser.RULE_conjunction,
+        PythonParser.RULE_inversion,
+        PythonParser.RULE_comparison,
+        PythonParser.RULE_bitwise_or,
+        PythonParser.RULE_bitwise_xor,
+        PythonParser.RULE_bitwise_and,
+        PythonParser.RULE_shift_expr,
+        PythonParser.RULE_sum,
+        PythonParser.RULE_term,
+        PythonParser.RULE_factor,
+        PythonParser.RULE_power,
+        PythonParser.RULE_await_primary,
+        PythonParser.RULE_primary,
+        PythonParser.RULE_name
+    );
 
     /**
      * Whenever we visit a rule, we will record its count.
@@ -40,16 +57,27 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
      *     if the child also calls the constructor (nested constructor calls).
      *     We can identify the nested constructor calls by checking the constructor call counts
      *     after visiting the child context.
-     * Key - Simple class name of the context. Ex: KotlinFileContext.
+     * Index - Rule index of the context. Ex: {@link PythonParser#RULE_file_input}.
      * Value - Number of visits.
      */
-    private Map<String, Integer> ruleVisitCounts = new HashMap<>();
+    private final int[] ruleVisitCounts = new int[PythonParser.ruleNames.length];
 
     /**
      * As is.
      */
     private int currentIndentLevel;
 
+    /**
+     * The indentation level of each function we are in, the innermost last.
+     */
+    private final IntegerList functionLevels = new IntegerList();
+
+    /**
+     * Number of blank lines that we have written before trailing comments,
+     * which the blocks of the functions ending there must not write again.
+     */
+    private int movedBlankLines;
+
     /**
      * We will use this for formatting the method chain.
      */
@@ -61,142 +89,186 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
     private boolean memberAccessing;
 
     /**
-     * For getting comments from the hidden channel.
+     * For getting comments from the hidden channel and the INDENT/DEDENT tokens after each terminal.
+     */
+    private final TokenIndex tokens;
+
+    /**
+     * We write the formatted code here.
+     * Each character is written once, and nothing is post-processed.
+     */
+    private final Emitter output;
+
+    /**
+     * Whether the calls, the subscripts, and the collection literals can be wrapped.
+     * Without a line width, they are written on one line as before, and only the dictionaries are broken.
+     */
+    private final boolean wrapping;
+
+    /**
+     * The line (1-based) where each top-level statement begins in the input.
+     */
+    private final IntegerList statementLines = new IntegerList();
+
+    /**
+     * The output position where each top-level statement begins.
+     * Together with {@link PythonVisitor#statementLines}, we can replace the output of a single statement.
+     */
+    private final IntegerList statementOffsets = new IntegerList();
+
+    /**
+     * It receives the enter and exit events of the rules.
+     */
+    private final Tracer tracer;
+
+    /**
+     * Whether {@link PythonVisitor#tracer} is on.
+     * We check this flag instead of calling the tracer for every node.
      */
-    private final CommonTokenStream tokens;
+    private final boolean tracing;
+
+    /**
+     * Constructor without tracing.
+     *
+     * @param tokens All tokens of the code, including the hidden ones.
+     * @param sink We write the formatted code here.
+     *             It can be a {@link StringBuilder}, a {@link java.io.Writer}, or anything appendable.
+     */
+    public PythonVisitor(final CommonTokenStream tokens, final Appendable sink) {
+        this(tokens, sink, Tracer.NONE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tokens All tokens of the code, including the hidden ones.
+     * @param sink We write the formatted code here.
+     *             It can be a {@link StringBuilder}, a {@link java.io.Writer}, or anything appendable.
+     * @param tracer See {@link PythonVisitor#tracer}.
+     *               It must be already sampled by {@link Tracer#sample()}.
+     */
+    public PythonVisitor(final CommonTokenStream tokens, final Appendable sink, final Tracer tracer) {
+        this(tokens, sink, tracer, 0);
+    }
 
     /**
      * Constructor.
      *
-     * @param tokens See {@link PythonVisitor#tokens}.
+     * @param tokens All tokens of the code, including the hidden ones.
+     * @param sink We write the formatted code here.
+     *             It can be a {@link StringBuilder}, a {@link java.io.Writer}, or anything appendable.
+     * @param tracer See {@link PythonVisitor#tracer}.
+     *               It must be already sampled by {@link Tracer#sample()}.
+     * @param lineWidth The maximum line length that the brackets can fill before we break them into lines.
+     *                  With zero, we always break the dictionaries and never break the other brackets.
      */
-    public PythonVisitor(final CommonTokenStream tokens) {
-        this.tokens = tokens;
+    public PythonVisitor(final CommonTokenStream tokens, final Appendable sink, final Tracer tracer, final int lineWidth) {
+        this.tokens = new TokenIndex(tokens);
+        this.output = new Emitter(sink, lineWidth);
+        this.wrapping = lineWidth > 0;
+        this.tracer = tracer;
+        this.tracing = tracer != Tracer.NONE;
     }
 
     @Override
-    public String visitFile_input(final PythonParser.File_inputContext context) {
+    public Void visitFile_input(final PythonParser.File_inputContext context) {
         final PythonParser.StatementsContext statementsContext = context.statements();
-        final StringBuilder text = new StringBuilder();
         if (statementsContext != null) {
-            text.append(this.visit(statementsContext));
+            this.visit(statementsContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStatements(final PythonParser.StatementsContext context) {
-        final List<PythonParser.StatementContext> statementContexts = context.statement();
-        final StringBuilder text = new StringBuilder();
-        for (final PythonParser.StatementContext statementContext : statementContexts) {
-            text.append(this.visit(statementContext));
+    public Void visitStatements(final PythonParser.StatementsContext context) {
+        // All children are statements, so we don't need `context.statement()` to collect them.
+        final boolean topLevel = context.getParent() instanceof PythonParser.File_inputContext;
+        for (int index = 0; index < context.getChildCount(); index++) {
+            final ParseTree statementContext = context.getChild(index);
+            if (topLevel) {
+                this.statementLines.add(((ParserRuleContext) statementContext).getStart().getLine());
+                this.statementOffsets.add(this.output.position());
+            }
+            this.visit(statementContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStatement(final PythonParser.StatementContext context) {
-        final PythonParser.Compound_stmtContext compoundStmtContext = context.compound_stmt();
-        final PythonParser.Simple_stmtsContext simpleStmtsContext = context.simple_stmts();
-        final StringBuilder text = new StringBuilder();
-        if (compoundStmtContext != null) {
-            text.append(this.visit(compoundStmtContext));
-        } else if (simpleStmtsContext != null) {
-            text.append(this.visit(simpleStmtsContext));
-        }
-        return text.toString();
+    public Void visitStatement(final PythonParser.StatementContext context) {
+        // compound_stmt | simple_stmts
+        this.visit(context.getChild(0));
+        return null;
     }
 
     @Override
-    public String visitSimple_stmts(final PythonParser.Simple_stmtsContext context) {
-        final List<PythonParser.Simple_stmtContext> simpleStmtContexts = context.simple_stmt();
-        final List<TerminalNode> semiTerminals = context.SEMI();
-        final TerminalNode newlineTerminal = context.NEWLINE();
-        final StringBuilder text = new StringBuilder();
-        final PythonParser.Simple_stmtContext firstSimpleStmtContext = simpleStmtContexts.get(0);
-        text.append(this.visit(firstSimpleStmtContext));
-        if (!semiTerminals.isEmpty()) {
+    public Void visitSimple_stmts(final PythonParser.Simple_stmtsContext context) {
+        // simple_stmt (';' simple_stmt)* ';'? NEWLINE
+        // Without SEMI, the children are just the statement and NEWLINE.
+        final int childCount = context.getChildCount();
+        this.visit(context.getChild(0));
+        if (childCount > 2) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmts -> SEMI");
         }
-        text.append(this.visit(newlineTerminal));
-        return text.toString();
+        this.visit(context.getChild(childCount - 1));
+        return null;
     }
 
     @Override
-    public String visitSimple_stmt(final PythonParser.Simple_stmtContext context) {
-        final PythonParser.AssignmentContext assignmentContext = context.assignment();
-        final PythonParser.Type_aliasContext typeAliasContext = context.type_alias();
-        final PythonParser.Star_expressionsContext starExpressionsContext = context.star_expressions();
-        final PythonParser.Return_stmtContext returnStmtContext = context.return_stmt();
-        final PythonParser.Import_stmtContext importStmtContext = context.import_stmt();
-        final PythonParser.Raise_stmtContext raiseStmtContext = context.raise_stmt();
-        final TerminalNode passTerminal = context.PASS();
-        final PythonParser.Del_stmtContext delStmtContext = context.del_stmt();
-        final PythonParser.Yield_stmtContext yieldStmtContext = context.yield_stmt();
-        final PythonParser.Assert_stmtContext assertStmtContext = context.assert_stmt();
-        final TerminalNode breakTerminal = context.BREAK();
-        final TerminalNode continueTerminal = context.CONTINUE();
-        final PythonParser.Global_stmtContext globalStmtContext = context.global_stmt();
-        final PythonParser.Nonlocal_stmtContext nonlocalStmtContext = context.nonlocal_stmt();
-        final StringBuilder text = new StringBuilder();
-        if (assignmentContext != null) {
-            text.append(this.visit(assignmentContext));
-        } else if (typeAliasContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> type_alias");
-        } else if (starExpressionsContext != null) {
-            text.append(this.visit(starExpressionsContext));
-        } else if (returnStmtContext != null) {
-            text.append(this.visit(returnStmtContext));
-        } else if (importStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> import_stmt");
-        } else if (raiseStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> raise_stmt");
-        } else if (passTerminal != null) {
-            text.append(this.visit(passTerminal));
-        } else if (delStmtContext != null) {
-            text.append(this.visit(delStmtContext));
-        } else if (yieldStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> yield_stmt");
-        } else if (assertStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> assert_stmt");
-        } else if (breakTerminal != null) {
-            text.append(this.visit(breakTerminal));
-        } else if (continueTerminal != null) {
-            text.append(this.visit(continueTerminal));
-        } else if (globalStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> global_stmt");
-        } else if (nonlocalStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> nonlocal_stmt");
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitDel_stmt(final PythonParser.Del_stmtContext context) {
+    public Void visitSimple_stmt(final PythonParser.Simple_stmtContext context) {
+        // Each alternative is a single child, so we dispatch on it instead of calling all the getters.
+        final ParseTree child = context.getChild(0);
+        if (child instanceof TerminalNode) {
+            // 'pass', 'break', or 'continue'.
+            this.visit(child);
+            return null;
+        }
+        switch (((ParserRuleContext) child).getRuleIndex()) {
+            case PythonParser.RULE_type_alias:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> type_alias");
+            case PythonParser.RULE_import_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> import_stmt");
+            case PythonParser.RULE_raise_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> raise_stmt");
+            case PythonParser.RULE_yield_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> yield_stmt");
+            case PythonParser.RULE_assert_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> assert_stmt");
+            case PythonParser.RULE_global_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> global_stmt");
+            case PythonParser.RULE_nonlocal_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSimple_stmt -> nonlocal_stmt");
+            default:
+                // assignment, star_expressions, return_stmt, or del_stmt.
+                this.visit(child);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDel_stmt(final PythonParser.Del_stmtContext context) {
         final TerminalNode delTerminal = context.DEL();
         final PythonParser.Del_targetsContext delTargetsContext = context.del_targets();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(delTerminal))
-            .append(' ')
-            .append(this.visit(delTargetsContext));
-        return text.toString();
+        this.visit(delTerminal);
+        this.output.append(' ');
+        this.visit(delTargetsContext);
+        return null;
     }
 
     @Override
-    public String visitDel_targets(final PythonParser.Del_targetsContext context) {
+    public Void visitDel_targets(final PythonParser.Del_targetsContext context) {
         final List<PythonParser.Del_targetContext>  delTargetContexts = context.del_target();
         final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
         final PythonParser.Del_targetContext firstDelTargetContext = delTargetContexts.get(0);
-        text.append(this.visit(firstDelTargetContext));
+        this.visit(firstDelTargetContext);
         if (!commaTerminals.isEmpty()) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitDel_targets -> comma");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitDel_target(final PythonParser.Del_targetContext context) {
+    public Void visitDel_target(final PythonParser.Del_targetContext context) {
         final PythonParser.T_primaryContext tPrimaryContext = context.t_primary();
         final TerminalNode dotTerminal = context.DOT();
         // todo: use `nameContext` with tests.
@@ -205,140 +277,93 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.SlicesContext slicesContext = context.slices();
         final TerminalNode rsqbTerminal = context.RSQB();
         final PythonParser.Del_t_atomContext delTAtomContext = context.del_t_atom();
-        final StringBuilder text = new StringBuilder();
         if (tPrimaryContext != null) {
-            text.append(this.visit(tPrimaryContext));
+            this.visit(tPrimaryContext);
             if (dotTerminal != null) {
                 throw new UnsupportedOperationException("Thje following parsing path is not supported yet: visitDel_target -> dot");
             } else if (lsqbTerminal != null) {
-                text.append(this.visit(lsqbTerminal))
-                    .append(this.visit(slicesContext))
-                    .append(this.visit(rsqbTerminal));
+                this.visit(lsqbTerminal);
+                this.visit(slicesContext);
+                this.visit(rsqbTerminal);
             }
         } else if (delTAtomContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitDel_target -> del_t_atom");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitReturn_stmt(final PythonParser.Return_stmtContext context) {
+    public Void visitReturn_stmt(final PythonParser.Return_stmtContext context) {
         final TerminalNode returnTerminal = context.RETURN();
         final PythonParser.Star_expressionsContext starExpressionsContext = context.star_expressions();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(returnTerminal));
+        this.visit(returnTerminal);
         if (starExpressionsContext != null) {
-            text.append(' ')
-                .append(this.visit(starExpressionsContext));
+            this.output.append(' ');
+            this.visit(starExpressionsContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitAssignment(final PythonParser.AssignmentContext context) {
-        final PythonParser.AssignmentPartOneContext assignmentPartOneContext = context.assignmentPartOne();
-        final PythonParser.AssignmentPartTwoContext assignmentPartTwoContext = context.assignmentPartTwo();
-        final PythonParser.AssignmentPartThreeContext assignmentPartThreeContext = context.assignmentPartThree();
-        final PythonParser.AssignmentPartFourContext assignmentPartFourContext = context.assignmentPartFour();
-        final StringBuilder text = new StringBuilder();
-        if (assignmentPartOneContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignment -> assignmentPartOne");
-        } else if (assignmentPartTwoContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignment -> assignmentPartTwo");
-        } else if (assignmentPartThreeContext != null) {
-            text.append(this.visit(assignmentPartThreeContext));
-        } else if (assignmentPartFourContext != null) {
-            text.append(this.visit(assignmentPartFourContext));
+    public Void visitAssignment(final PythonParser.AssignmentContext context) {
+        final ParseTree child = context.getChild(0);
+        switch (((ParserRuleContext) child).getRuleIndex()) {
+            case PythonParser.RULE_assignmentPartOne:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignment -> assignmentPartOne");
+            case PythonParser.RULE_assignmentPartTwo:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignment -> assignmentPartTwo");
+            default:
+                // assignmentPartThree or assignmentPartFour.
+                this.visit(child);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitAssignmentPartFour(final PythonParser.AssignmentPartFourContext context) {
+    public Void visitAssignmentPartFour(final PythonParser.AssignmentPartFourContext context) {
         final PythonParser.Single_targetContext singleTargetContext = context.single_target();
         final PythonParser.AugassignContext augassignContext = context.augassign();
         final PythonParser.Yield_exprContext yieldExprContext = context.yield_expr();
         final PythonParser.Star_expressionsContext starExpressionsContext = context.star_expressions();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(singleTargetContext))
-            .append(' ')
-            .append(this.visit(augassignContext));
+        this.visit(singleTargetContext);
+        this.output.append(' ');
+        this.visit(augassignContext);
         if (yieldExprContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignmentPartFour -> yield_expr");
         } else if (starExpressionsContext != null) {
-            text.append(' ')
-                .append(this.visit(starExpressionsContext));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitAugassign(final PythonParser.AugassignContext context) {
-        final TerminalNode plusequalTerminal = context.PLUSEQUAL();
-        final TerminalNode minequalTerminal = context.MINEQUAL();
-        final TerminalNode starequalTerminal = context.STAREQUAL();
-        final TerminalNode atequalTerminal = context.ATEQUAL();
-        final TerminalNode slashequalTerminal = context.SLASHEQUAL();
-        final TerminalNode percentequalTerminal = context.PERCENTEQUAL();
-        final TerminalNode amperequalTerminal = context.AMPEREQUAL();
-        final TerminalNode vbarequalTerminal = context.VBAREQUAL();
-        final TerminalNode circumflexequalTerminal = context.CIRCUMFLEXEQUAL();
-        final TerminalNode leftshiftequalTerminal = context.LEFTSHIFTEQUAL();
-        final TerminalNode rightshiftequalTerminal = context.RIGHTSHIFTEQUAL();
-        final TerminalNode doublestarequalTerminal = context.DOUBLESTAREQUAL();
-        final TerminalNode doubleslashequalTerminal = context.DOUBLESLASHEQUAL();
-        final StringBuilder text = new StringBuilder();
-        if (plusequalTerminal != null) {
-            text.append(this.visit(plusequalTerminal));
-        } else if (minequalTerminal != null) {
-            text.append(this.visit(minequalTerminal));
-        } else if (starequalTerminal != null) {
-            text.append(this.visit(starequalTerminal));
-        } else if (atequalTerminal != null) {
-            text.append(this.visit(atequalTerminal));
-        } else if (slashequalTerminal != null) {
-            text.append(this.visit(slashequalTerminal));
-        } else if (percentequalTerminal != null) {
-            text.append(this.visit(percentequalTerminal));
-        } else if (amperequalTerminal != null) {
-            text.append(this.visit(amperequalTerminal));
-        } else if (vbarequalTerminal != null) {
-            text.append(this.visit(vbarequalTerminal));
-        } else if (circumflexequalTerminal != null) {
-            text.append(this.visit(circumflexequalTerminal));
-        } else if (leftshiftequalTerminal != null) {
-            text.append(this.visit(leftshiftequalTerminal));
-        } else if (rightshiftequalTerminal != null) {
-            text.append(this.visit(rightshiftequalTerminal));
-        } else if (doublestarequalTerminal != null) {
-            text.append(this.visit(doublestarequalTerminal));
-        } else if (doubleslashequalTerminal != null) {
-            text.append(this.visit(doubleslashequalTerminal));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitSingle_target(final PythonParser.Single_targetContext context) {
+            this.output.append(' ');
+            this.visit(starExpressionsContext);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAugassign(final PythonParser.AugassignContext context) {
+        // Each alternative is a single operator, and we write all of them as they are.
+        this.visit(context.getChild(0));
+        return null;
+    }
+
+    @Override
+    public Void visitSingle_target(final PythonParser.Single_targetContext context) {
         final PythonParser.Single_subscript_attribute_targetContext singleSubscriptAttributeTargetContext = context.single_subscript_attribute_target();
         final PythonParser.NameContext nameContext = context.name();
         final TerminalNode lparTerminal = context.LPAR();
         // todo: use `singleTargetContext` and `rparTerminal` with tests.
         final PythonParser.Single_targetContext singleTargetContext = context.single_target();
         final TerminalNode rparTerminal = context.RPAR();
-        final StringBuilder text = new StringBuilder();
         if (singleSubscriptAttributeTargetContext != null) {
-            text.append(this.visit(singleSubscriptAttributeTargetContext));
+            this.visit(singleSubscriptAttributeTargetContext);
         } else if (nameContext != null) {
-            text.append(this.visit(nameContext));
+            this.visit(nameContext);
         } else if (lparTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSingle_target -> LPAR");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSingle_subscript_attribute_target(final PythonParser.Single_subscript_attribute_targetContext context) {
+    public Void visitSingle_subscript_attribute_target(final PythonParser.Single_subscript_attribute_targetContext context) {
         final PythonParser.T_primaryContext tPrimaryContext = context.t_primary();
         final TerminalNode dotTerminal = context.DOT();
         final PythonParser.NameContext nameContext = context.name();
@@ -346,152 +371,138 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         // todo: use `slicesContext` and `rsqbTerminal` with tests.
         final PythonParser.SlicesContext slicesContext = context.slices();
         final TerminalNode rsqbTerminal = context.RSQB();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(tPrimaryContext));
+        this.visit(tPrimaryContext);
         if (dotTerminal != null) {
-            text.append(this.visit(dotTerminal))
-                .append(this.visit(nameContext));
+            this.visit(dotTerminal);
+            this.visit(nameContext);
         } else if (lsqbTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSingle_subscript_attribute_target -> LSQB");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitAssignmentPartThree(final PythonParser.AssignmentPartThreeContext context) {
-        final List<PythonParser.Star_targetsContext> starTargetsContexts = context.star_targets();
-        final List<TerminalNode> equalTerminals = context.EQUAL();
-        final PythonParser.Yield_exprContext yieldExprContext = context.yield_expr();
-        final PythonParser.Star_expressionsContext starExpressionsContext = context.star_expressions();
-        final TerminalNode typeCommentTerminal = context.TYPE_COMMENT();
-        final StringBuilder text = new StringBuilder();
-        for (int index = 0; index < starTargetsContexts.size(); index++) {
-            final PythonParser.Star_targetsContext starTargetsContext = starTargetsContexts.get(index);
-            final TerminalNode equalTerminal = equalTerminals.get(index);
-            text.append(this.visit(starTargetsContext))
-                .append(' ')
-                .append(this.visit(equalTerminal))
-                .append(' ');
-        }
-        if (yieldExprContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignmentPartThree -> yield_expr");
-        } else if (starExpressionsContext != null) {
-            text.append(this.visit(starExpressionsContext));
-        }
-        if (typeCommentTerminal != null) {
-            text.append(this.visit(typeCommentTerminal));
+    public Void visitAssignmentPartThree(final PythonParser.AssignmentPartThreeContext context) {
+        // (star_targets '=')+ (yield_expr | star_expressions) TYPE_COMMENT?
+        // The children are already in the order we write them.
+        for (int index = 0; index < context.getChildCount(); index++) {
+            final ParseTree child = context.getChild(index);
+            if (child instanceof TerminalNode) {
+                if (((TerminalNode) child).getSymbol().getType() == PythonLexer.EQUAL) {
+                    this.output.append(' ');
+                    this.visit(child);
+                    this.output.append(' ');
+                } else {
+                    this.visit(child);
+                }
+            } else if (((ParserRuleContext) child).getRuleIndex() == PythonParser.RULE_yield_expr) {
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAssignmentPartThree -> yield_expr");
+            } else {
+                this.visit(child);
+            }
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_expressions(final PythonParser.Star_expressionsContext context) {
-        final List<PythonParser.Star_expressionContext> starExpressionContexts = context.star_expression();
-        final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        final PythonParser.Star_expressionContext firstStarExpressionContext = starExpressionContexts.get(0);
-        text.append(this.visit(firstStarExpressionContext));
-        if (!commaTerminals.isEmpty()) {
+    public Void visitStar_expressions(final PythonParser.Star_expressionsContext context) {
+        // star_expression (',' star_expression )* ','?
+        this.visit(context.getChild(0));
+        if (context.getChildCount() > 1) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_expressions -> COMMA");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_expression(final PythonParser.Star_expressionContext context) {
+    public Void visitStar_expression(final PythonParser.Star_expressionContext context) {
         final TerminalNode starTerminal = context.STAR();
         // todo: use `bitwiseOrContext` with tests.
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
         final PythonParser.ExpressionContext expressionContext = context.expression();
-        final StringBuilder text = new StringBuilder();
         if (starTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_expression -> STAR");
         } else if (expressionContext != null) {
-            text.append(this.visit(expressionContext));
+            this.visit(expressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitExpression(final PythonParser.ExpressionContext context) {
+    public Void visitExpression(final PythonParser.ExpressionContext context) {
         final List<PythonParser.DisjunctionContext> disjunctionContexts = context.disjunction();
         final TerminalNode ifTerminal = context.IF();
         // todo: use `elseTerminal` and `expressionContext` with tests.
         final TerminalNode elseTerminal = context.ELSE();
         final PythonParser.ExpressionContext expressionContext = context.expression();
         final PythonParser.LambdefContext lambdefContext = context.lambdef();
-        final StringBuilder text = new StringBuilder();
         if (lambdefContext == null) {
             final PythonParser.DisjunctionContext firstDisjunctionContext = disjunctionContexts.get(0);
-            text.append(this.visit(firstDisjunctionContext));
+            this.visit(firstDisjunctionContext);
             if (ifTerminal != null) {
                 throw new UnsupportedOperationException("The following parsing path is not supported yet: visitExpression -> IF");
             }
         } else {
-            text.append(this.visit(lambdefContext));
+            this.visit(lambdefContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitLambdef(final PythonParser.LambdefContext context) {
+    public Void visitLambdef(final PythonParser.LambdefContext context) {
         final TerminalNode lambdaTerminal = context.LAMBDA();
         final PythonParser.Lambda_paramsContext lambdaParamsContext = context.lambda_params();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.ExpressionContext expressionContext = context.expression();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lambdaTerminal));
+        this.visit(lambdaTerminal);
         if (lambdaParamsContext != null) {
-            text.append(' ')
-                .append(this.visit(lambdaParamsContext));
+            this.output.append(' ');
+            this.visit(lambdaParamsContext);
         }
-        text.append(this.visit(colonTerminal))
-            .append(' ')
-            .append(this.visit(expressionContext));
-        return text.toString();
+        this.visit(colonTerminal);
+        this.output.append(' ');
+        this.visit(expressionContext);
+        return null;
     }
 
     @Override
-    public String visitLambda_params(final PythonParser.Lambda_paramsContext context) {
+    public Void visitLambda_params(final PythonParser.Lambda_paramsContext context) {
         final PythonParser.Lambda_parametersContext lambdaParametersContext = context.lambda_parameters();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lambdaParametersContext));
-        return text.toString();
+        this.visit(lambdaParametersContext);
+        return null;
     }
 
     @Override
-    public String visitLambda_parameters(final PythonParser.Lambda_parametersContext context) {
+    public Void visitLambda_parameters(final PythonParser.Lambda_parametersContext context) {
         final PythonParser.FirstPartOfLambdaParametersContext firstPartOfLambdaParametersContext = context.firstPartOfLambdaParameters();
         final PythonParser.SecondPartOfLambdaParametersContext secondPartOfLambdaParametersContext = context.secondPartOfLambdaParameters();
         final PythonParser.ThirdPartOfLambdaParametersContext thirdPartOfLambdaParametersContext = context.thirdPartOfLambdaParameters();
         final PythonParser.FourthPartOfLambdaParametersContext fourthPartOfLambdaParametersContext = context.fourthPartOfLambdaParameters();
         final PythonParser.FifthPartOfLambdaParametersContext fifthPartOfLambdaParametersContext = context.fifthPartOfLambdaParameters();
-        final StringBuilder text = new StringBuilder();
         if (firstPartOfLambdaParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitLambda_parameters -> firstPartOfLambdaParameters");
         } else if (secondPartOfLambdaParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitLambda_parameters -> secondPartOfLambdaParameters");
         } else if (thirdPartOfLambdaParametersContext != null) {
-            text.append(this.visit(thirdPartOfLambdaParametersContext));
+            this.visit(thirdPartOfLambdaParametersContext);
         } else if (fourthPartOfLambdaParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitLambda_parameters -> fourthPartOfLambdaParameters");
         } else if (fifthPartOfLambdaParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitLambda_parameters -> fifthPartOfLambdaParameters");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitThirdPartOfLambdaParameters(final PythonParser.ThirdPartOfLambdaParametersContext context) {
+    public Void visitThirdPartOfLambdaParameters(final PythonParser.ThirdPartOfLambdaParametersContext context) {
         final List<PythonParser.Lambda_param_no_defaultContext> lambdaParamNoDefaultContexts = context.lambda_param_no_default();
         final List<PythonParser.Lambda_param_with_defaultContext> lambdaParamWithDefaultContexts = context.lambda_param_with_default();
         final PythonParser.Lambda_star_etcContext lambdaStarEtcContext = context.lambda_star_etc();
-        final StringBuilder text = new StringBuilder();
         for (int index = 0; index < lambdaParamNoDefaultContexts.size(); index++) {
             final PythonParser.Lambda_param_no_defaultContext lambdaParamNoDefaultContext = lambdaParamNoDefaultContexts.get(index);
-            text.append(this.visit(lambdaParamNoDefaultContext));
+            this.visit(lambdaParamNoDefaultContext);
             if (index < lambdaParamNoDefaultContexts.size() - 1) {
-                text.append(' ');
+                this.output.append(' ');
             }
         }
         if (!lambdaParamWithDefaultContexts.isEmpty()) {
@@ -500,259 +511,230 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         if (lambdaStarEtcContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitThirdPartOfLambdaParameters -> lambda_star_etc");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitLambda_param_no_default(final PythonParser.Lambda_param_no_defaultContext context) {
+    public Void visitLambda_param_no_default(final PythonParser.Lambda_param_no_defaultContext context) {
         final PythonParser.Lambda_paramContext lambdaParamContext = context.lambda_param();
         final TerminalNode commaTerminal = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lambdaParamContext));
+        this.visit(lambdaParamContext);
         if (commaTerminal != null) {
-            text.append(this.visit(commaTerminal));
+            this.visit(commaTerminal);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitLambda_param(final PythonParser.Lambda_paramContext context) {
+    public Void visitLambda_param(final PythonParser.Lambda_paramContext context) {
         final PythonParser.NameContext nameContext = context.name();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(nameContext));
-        return text.toString();
+        this.visit(nameContext);
+        return null;
     }
 
     @Override
-    public String visitDisjunction(final PythonParser.DisjunctionContext context) {
+    public Void visitDisjunction(final PythonParser.DisjunctionContext context) {
         final List<PythonParser.ConjunctionContext> conjunctionContexts = context.conjunction();
         final List<TerminalNode> orTerminals = context.OR();
-        final StringBuilder text = new StringBuilder();
         final PythonParser.ConjunctionContext firstConjunctionContext = conjunctionContexts.get(0);
-        text.append(this.visit(firstConjunctionContext));
+        this.visit(firstConjunctionContext);
         if (!orTerminals.isEmpty()) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitDisjunction -> OR");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitConjunction(final PythonParser.ConjunctionContext context) {
+    public Void visitConjunction(final PythonParser.ConjunctionContext context) {
         final List<PythonParser.InversionContext> inversionContexts = context.inversion();
         final List<TerminalNode> andTerminals = context.AND();
-        final StringBuilder text = new StringBuilder();
         final PythonParser.InversionContext firstInversionContext = inversionContexts.get(0);
-        text.append(this.visit(firstInversionContext));
+        this.visit(firstInversionContext);
         if (!andTerminals.isEmpty()) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitConjunction -> AND");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitInversion(final PythonParser.InversionContext context) {
+    public Void visitInversion(final PythonParser.InversionContext context) {
         final TerminalNode notTerminal = context.NOT();
         // todo: use `inversionContext` with tests.
         final PythonParser.InversionContext inversionContext = context.inversion();
         final PythonParser.ComparisonContext comparisonContext = context.comparison();
-        final StringBuilder text = new StringBuilder();
         if (notTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitInversion -> NOT");
         } else if (comparisonContext != null) {
-            text.append(this.visit(comparisonContext));
+            this.visit(comparisonContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitComparison(final PythonParser.ComparisonContext context) {
+    public Void visitComparison(final PythonParser.ComparisonContext context) {
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
         final List<PythonParser.Compare_op_bitwise_or_pairContext> compareOpBitwiseOrPairContexts = context.compare_op_bitwise_or_pair();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(bitwiseOrContext));
+        this.visit(bitwiseOrContext);
         for (final PythonParser.Compare_op_bitwise_or_pairContext compareOpBitwiseOrPairContext : compareOpBitwiseOrPairContexts) {
-            text.append(' ')
-                .append(this.visit(compareOpBitwiseOrPairContext));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitCompare_op_bitwise_or_pair(final PythonParser.Compare_op_bitwise_or_pairContext context) {
-        final PythonParser.Eq_bitwise_orContext eqBitwiseOrContext = context.eq_bitwise_or();
-        final PythonParser.Noteq_bitwise_orContext noteqBitwiseOrContext = context.noteq_bitwise_or();
-        final PythonParser.Lte_bitwise_orContext lteBitwiseOrContext = context.lte_bitwise_or();
-        final PythonParser.Lt_bitwise_orContext ltBitwiseOrContext = context.lt_bitwise_or();
-        final PythonParser.Gte_bitwise_orContext gteBitwiseOrContext = context.gte_bitwise_or();
-        final PythonParser.Gt_bitwise_orContext gtBitwiseOrContext = context.gt_bitwise_or();
-        final PythonParser.Notin_bitwise_orContext notinBitwiseOrContext = context.notin_bitwise_or();
-        final PythonParser.In_bitwise_orContext inBitwiseOrContext = context.in_bitwise_or();
-        final PythonParser.Isnot_bitwise_orContext isnotBitwiseOrContext = context.isnot_bitwise_or();
-        final PythonParser.Is_bitwise_orContext isBitwiseOrContext = context.is_bitwise_or();
-        final StringBuilder text = new StringBuilder();
-        if (eqBitwiseOrContext != null) {
-            text.append(this.visit(eqBitwiseOrContext));
-        } else if (noteqBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> noteq_bitwise_or");
-        } else if (lteBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> lte_bitwise_or");
-        } else if (ltBitwiseOrContext != null) {
-            text.append(this.visit(ltBitwiseOrContext));
-        } else if (gteBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> gte_bitwise_or");
-        } else if (gtBitwiseOrContext != null) {
-            text.append(this.visit(gtBitwiseOrContext));
-        } else if (notinBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> notin_bitwise_or");
-        } else if (inBitwiseOrContext != null) {
-            text.append(this.visit(inBitwiseOrContext));
-        } else if (isnotBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> isnot_bitwise_or");
-        } else if (isBitwiseOrContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> is_bitwise_or");
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitIn_bitwise_or(final PythonParser.In_bitwise_orContext context) {
+            this.output.append(' ');
+            this.visit(compareOpBitwiseOrPairContext);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCompare_op_bitwise_or_pair(final PythonParser.Compare_op_bitwise_or_pairContext context) {
+        final ParseTree child = context.getChild(0);
+        switch (((ParserRuleContext) child).getRuleIndex()) {
+            case PythonParser.RULE_noteq_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> noteq_bitwise_or");
+            case PythonParser.RULE_lte_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> lte_bitwise_or");
+            case PythonParser.RULE_gte_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> gte_bitwise_or");
+            case PythonParser.RULE_notin_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> notin_bitwise_or");
+            case PythonParser.RULE_isnot_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> isnot_bitwise_or");
+            case PythonParser.RULE_is_bitwise_or:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompare_op_bitwise_or_pair -> is_bitwise_or");
+            default:
+                // eq_bitwise_or, lt_bitwise_or, gt_bitwise_or, or in_bitwise_or.
+                this.visit(child);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIn_bitwise_or(final PythonParser.In_bitwise_orContext context) {
         final TerminalNode inTerminal = context.IN();
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(inTerminal))
-            .append(' ')
-            .append(this.visit(bitwiseOrContext));
-        return text.toString();
+        this.visit(inTerminal);
+        this.output.append(' ');
+        this.visit(bitwiseOrContext);
+        return null;
     }
 
     @Override
-    public String visitEq_bitwise_or(final PythonParser.Eq_bitwise_orContext context) {
+    public Void visitEq_bitwise_or(final PythonParser.Eq_bitwise_orContext context) {
         final TerminalNode eqequalTerminal = context.EQEQUAL();
         final PythonParser.Bitwise_orContext bitwise_orContext = context.bitwise_or();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(eqequalTerminal))
-            .append(' ')
-            .append(this.visit(bitwise_orContext));
-        return text.toString();
+        this.visit(eqequalTerminal);
+        this.output.append(' ');
+        this.visit(bitwise_orContext);
+        return null;
     }
 
     @Override
-    public String visitGt_bitwise_or(final PythonParser.Gt_bitwise_orContext context) {
+    public Void visitGt_bitwise_or(final PythonParser.Gt_bitwise_orContext context) {
         final TerminalNode greaterTerminal = context.GREATER();
         final PythonParser.Bitwise_orContext bitwise_orContext = context.bitwise_or();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(greaterTerminal))
-            .append(' ')
-            .append(this.visit(bitwise_orContext));
-        return text.toString();
+        this.visit(greaterTerminal);
+        this.output.append(' ');
+        this.visit(bitwise_orContext);
+        return null;
     }
 
     @Override
-    public String visitLt_bitwise_or(final PythonParser.Lt_bitwise_orContext context) {
+    public Void visitLt_bitwise_or(final PythonParser.Lt_bitwise_orContext context) {
         final TerminalNode lessTerminal = context.LESS();
         final PythonParser.Bitwise_orContext bitwise_orContext = context.bitwise_or();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lessTerminal))
-            .append(' ')
-            .append(this.visit(bitwise_orContext));
-        return text.toString();
+        this.visit(lessTerminal);
+        this.output.append(' ');
+        this.visit(bitwise_orContext);
+        return null;
     }
 
     @Override
-    public String visitBitwise_or(final PythonParser.Bitwise_orContext context) {
+    public Void visitBitwise_or(final PythonParser.Bitwise_orContext context) {
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
         final TerminalNode vbarTerminal = context.VBAR();
         final PythonParser.Bitwise_xorContext bitwiseXorContext = context.bitwise_xor();
-        final StringBuilder text = new StringBuilder();
         if (bitwiseOrContext == null) {
-            text.append(this.visit(bitwiseXorContext));
+            this.visit(bitwiseXorContext);
         } else {
-            text.append(this.visit(bitwiseOrContext))
-                .append(' ')
-                .append(this.visit(vbarTerminal))
-                .append(' ')
-                .append(this.visit(bitwiseXorContext));
+            this.visit(bitwiseOrContext);
+            this.output.append(' ');
+            this.visit(vbarTerminal);
+            this.output.append(' ');
+            this.visit(bitwiseXorContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitBitwise_xor(final PythonParser.Bitwise_xorContext context) {
+    public Void visitBitwise_xor(final PythonParser.Bitwise_xorContext context) {
         final PythonParser.Bitwise_xorContext bitwiseXorContext = context.bitwise_xor();
         final TerminalNode circumflexTerminal = context.CIRCUMFLEX();
         final PythonParser.Bitwise_andContext bitwiseAndContext = context.bitwise_and();
-        final StringBuilder text = new StringBuilder();
         if (bitwiseXorContext == null) {
-            text.append(this.visit(bitwiseAndContext));
+            this.visit(bitwiseAndContext);
         } else {
-            text.append(this.visit(bitwiseXorContext))
-                .append(' ')
-                .append(this.visit(circumflexTerminal))
-                .append(' ')
-                .append(this.visit(bitwiseAndContext));
+            this.visit(bitwiseXorContext);
+            this.output.append(' ');
+            this.visit(circumflexTerminal);
+            this.output.append(' ');
+            this.visit(bitwiseAndContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitBitwise_and(final PythonParser.Bitwise_andContext context) {
+    public Void visitBitwise_and(final PythonParser.Bitwise_andContext context) {
         final PythonParser.Bitwise_andContext bitwiseAndContext = context.bitwise_and();
         final TerminalNode amperTerminal = context.AMPER();
         final PythonParser.Shift_exprContext shiftExprContext = context.shift_expr();
-        final StringBuilder text = new StringBuilder();
         if (bitwiseAndContext == null) {
-            text.append(this.visit(shiftExprContext));
+            this.visit(shiftExprContext);
         } else {
-            text.append(this.visit(bitwiseAndContext))
-                .append(' ')
-                .append(this.visit(amperTerminal))
-                .append(' ')
-                .append(this.visit(shiftExprContext));
+            this.visit(bitwiseAndContext);
+            this.output.append(' ');
+            this.visit(amperTerminal);
+            this.output.append(' ');
+            this.visit(shiftExprContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitShift_expr(final PythonParser.Shift_exprContext context) {
+    public Void visitShift_expr(final PythonParser.Shift_exprContext context) {
         final PythonParser.Shift_exprContext shiftExprContext = context.shift_expr();
         // todo: use `leftshiftTerminal` and `rightshiftTerminal` with tests.
         final TerminalNode leftshiftTerminal = context.LEFTSHIFT();
         final TerminalNode rightshiftTerminal = context.RIGHTSHIFT();
         final PythonParser.SumContext sumContext = context.sum();
-        final StringBuilder text = new StringBuilder();
         if (shiftExprContext == null) {
-            text.append(this.visit(sumContext));
+            this.visit(sumContext);
         } else {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitShift_expr -> shift_expr");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSum(final PythonParser.SumContext context) {
+    public Void visitSum(final PythonParser.SumContext context) {
         final PythonParser.SumContext sumContext = context.sum();
         final TerminalNode plusTerminal = context.PLUS();
         final TerminalNode minusTerminal = context.MINUS();
         final PythonParser.TermContext termContext = context.term();
-        final StringBuilder text = new StringBuilder();
         if (sumContext == null) {
-            text.append(this.visit(termContext));
+            this.visit(termContext);
         } else {
-            text.append(this.visit(sumContext))
-                .append(' ');
+            this.visit(sumContext);
+            this.output.append(' ');
             if (plusTerminal != null) {
-                text.append(this.visit(plusTerminal));
+                this.visit(plusTerminal);
             } else if (minusTerminal != null) {
-                text.append(this.visit(minusTerminal));
+                this.visit(minusTerminal);
             }
-            text.append(' ')
-                .append(this.visit(termContext));
+            this.output.append(' ');
+            this.visit(termContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitTerm(final PythonParser.TermContext context) {
+    public Void visitTerm(final PythonParser.TermContext context) {
         final PythonParser.TermContext termContext = context.term();
         // todo: use `starTerminal`, `slashTerminal`, `doubleSlashTerminal`, `percentTerminal`, and `atTerminal` with tests.
         final TerminalNode starTerminal = context.STAR();
@@ -761,69 +743,65 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final TerminalNode percentTerminal = context.PERCENT();
         final TerminalNode atTerminal = context.AT();
         final PythonParser.FactorContext factorContext = context.factor();
-        final StringBuilder text = new StringBuilder();
         if (termContext == null) {
-            text.append(this.visit(factorContext));
+            this.visit(factorContext);
         } else {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitTerm -> term");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFactor(final PythonParser.FactorContext context) {
+    public Void visitFactor(final PythonParser.FactorContext context) {
         final TerminalNode plusTerminal = context.PLUS();
         final PythonParser.FactorContext factorContext = context.factor();
         final TerminalNode minusTerminal = context.MINUS();
         final TerminalNode tildeTerminal = context.TILDE();
         final PythonParser.PowerContext powerContext = context.power();
-        final StringBuilder text = new StringBuilder();
         if (powerContext == null) {
             if (plusTerminal != null) {
-                text.append(this.visit(plusTerminal))
-                    .append(this.visit(factorContext));
+                this.visit(plusTerminal);
+                this.visit(factorContext);
             } else if (minusTerminal != null) {
-                text.append(this.visit(minusTerminal))
-                    .append(this.visit(factorContext));
+                this.visit(minusTerminal);
+                this.visit(factorContext);
             } else if (tildeTerminal != null) {
-                text.append(this.visit(tildeTerminal))
-                    .append(this.visit(factorContext));
+                this.visit(tildeTerminal);
+                this.visit(factorContext);
             }
         } else {
-            text.append(this.visit(powerContext));
+            this.visit(powerContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitPower(final PythonParser.PowerContext context) {
+    public Void visitPower(final PythonParser.PowerContext context) {
         final PythonParser.Await_primaryContext awaitPrimaryContext = context.await_primary();
         final TerminalNode doublestartTerminal = context.DOUBLESTAR();
         // todo: use `factorContext` with tests.
         final PythonParser.FactorContext factorContext = context.factor();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(awaitPrimaryContext));
+        this.visit(awaitPrimaryContext);
         if (doublestartTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitPower -> DOUBLESTAR");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitAwait_primary(final PythonParser.Await_primaryContext context) {
+    public Void visitAwait_primary(final PythonParser.Await_primaryContext context) {
         final TerminalNode awaitTerminal = context.AWAIT();
         final PythonParser.PrimaryContext primaryContext = context.primary();
-        final StringBuilder text = new StringBuilder();
         if (awaitTerminal == null) {
-            text.append(this.visit(primaryContext));
+            this.visit(primaryContext);
         } else {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAwait_primary -> AWAIT");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitPrimary(final PythonParser.PrimaryContext context) {
+    public Void visitPrimary(final PythonParser.PrimaryContext context) {
         final PythonParser.PrimaryContext primaryContext = context.primary();
         final TerminalNode dotTerminal = context.DOT();
         final PythonParser.NameContext nameContext = context.name();
@@ -835,73 +813,66 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.SlicesContext slicesContext = context.slices();
         final TerminalNode rsqbTerminal = context.RSQB();
         final PythonParser.AtomContext atomContext = context.atom();
-        final StringBuilder text = new StringBuilder();
         if (primaryContext != null) {
-            text.append(this.visit(primaryContext));
+            this.visit(primaryContext);
             if (dotTerminal != null) {
-                text.append(this.visit(dotTerminal))
-                    .append(this.visit(nameContext));
+                this.visit(dotTerminal);
+                this.visit(nameContext);
             } else if (genexpContext != null) {
                 throw new UnsupportedOperationException("The following parsing path is not supported yet: visitPrimary -> genexp");
             } else if (lparTerminal != null) {
-                text.append(this.visit(lparTerminal));
-                if (argumentsContext != null) {
-                    text.append(this.visit(argumentsContext));
+                if (argumentsContext == null) {
+                    this.visit(lparTerminal);
+                    this.visit(rparTerminal);
+                } else {
+                    this.openBrackets(lparTerminal);
+                    this.visit(argumentsContext);
+                    this.closeBrackets(rparTerminal);
                 }
-                text.append(this.visit(rparTerminal));
             } else if (lsqbTerminal != null) {
-                text.append(this.visit(lsqbTerminal))
-                    .append(this.visit(slicesContext))
-                    .append(this.visit(rsqbTerminal));
+                this.openBrackets(lsqbTerminal);
+                this.visit(slicesContext);
+                this.closeBrackets(rsqbTerminal);
             }
         } else if (atomContext != null) {
-            text.append(this.visit(atomContext));
+            this.visit(atomContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSlices(final PythonParser.SlicesContext context) {
-        final PythonParser.SliceContext sliceContext = context.slice();
-        final List<PythonParser.SliceOrStarredExpressionContext> sliceOrStarredExpressionContexts = context.sliceOrStarredExpression();
-        final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        if (sliceContext != null) {
-            text.append(this.visit(sliceContext));
-        } else {
-            // sliceOrStarredExpression (',' sliceOrStarredExpression)* ','?;
-            final PythonParser.SliceOrStarredExpressionContext firstSliceOrStarredExpressionContext = sliceOrStarredExpressionContexts.get(0);
-            text.append(this.visit(firstSliceOrStarredExpressionContext));
-            for (int index = 1; index < sliceOrStarredExpressionContexts.size(); index++) {
-                final PythonParser.SliceOrStarredExpressionContext sliceOrStarredExpressionContext = sliceOrStarredExpressionContexts.get(index);
-                final TerminalNode commaTerminal = commaTerminals.get(index - 1);
-                text.append(commaTerminal)
-                    .append(' ')
-                    .append(this.visit(sliceOrStarredExpressionContext));
-            }
-            if (sliceOrStarredExpressionContexts.size() == commaTerminals.size()) {
-                final TerminalNode commaTerminal = commaTerminals.get(sliceOrStarredExpressionContexts.size() - 1);
-                text.append(commaTerminal);
+    public Void visitSlices(final PythonParser.SlicesContext context) {
+        // slice | sliceOrStarredExpression (',' sliceOrStarredExpression)* ','?
+        // We write the commas and the elements in a single pass over the children.
+        for (int index = 0; index < context.getChildCount(); index++) {
+            final ParseTree child = context.getChild(index);
+            if (child instanceof TerminalNode) {
+                // The trailing comma stays even on one line because it makes the key a tuple.
+                this.output.append(child.getText());
+            } else {
+                if (index > 0) {
+                    this.softLine(" ");
+                }
+                this.visit(child);
             }
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSliceOrStarredExpression(final PythonParser.SliceOrStarredExpressionContext context) {
+    public Void visitSliceOrStarredExpression(final PythonParser.SliceOrStarredExpressionContext context) {
         final PythonParser.SliceContext sliceContext = context.slice();
         final PythonParser.Starred_expressionContext starredExpressionContext = context.starred_expression();
-        final StringBuilder text = new StringBuilder();
         if (sliceContext != null) {
-            text.append(this.visit(sliceContext));
+            this.visit(sliceContext);
         } else if (starredExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSliceOrStarredExpression -> starred_expression");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSlice(final PythonParser.SliceContext context) {
+    public Void visitSlice(final PythonParser.SliceContext context) {
         // todo: use `firstExpressionOfSliceContext` with tests.
         final PythonParser.FirstExpressionOfSliceContext firstExpressionOfSliceContext = context.firstExpressionOfSlice();
         final List<TerminalNode> colonTerminals = context.COLON();
@@ -909,363 +880,319 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.SecondExpressionOfSliceContext secondExpressionOfSliceContext = context.secondExpressionOfSlice();
         final PythonParser.ThirdExpressionOfSliceContext thirdExpressionOfSliceContext = context.thirdExpressionOfSlice();
         final PythonParser.Named_expressionContext namedExpressionContext = context.named_expression();
-        final StringBuilder text = new StringBuilder();
         if (!colonTerminals.isEmpty()) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSlice -> COLON");
         } else if (namedExpressionContext != null) {
-            text.append(this.visit(namedExpressionContext));
+            this.visit(namedExpressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitArguments(final PythonParser.ArgumentsContext context) {
+    public Void visitArguments(final PythonParser.ArgumentsContext context) {
         final PythonParser.ArgsContext argsContext = context.args();
         final TerminalNode commaTerminal = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(argsContext));
+        this.visit(argsContext);
         if (commaTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitArguments -> COMMA");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitArgs(final PythonParser.ArgsContext context) {
+    public Void visitArgs(final PythonParser.ArgsContext context) {
         final PythonParser.FirstPartOfArgsContext firstPartOfArgsContext = context.firstPartOfArgs();
         final List<PythonParser.SecondPartOfArgsContext> secondPartOfArgsContexts = context.secondPartOfArgs();
         final TerminalNode commaTerminal = context.COMMA();
         // todo: use `kwargsContext` with tests.
         final PythonParser.KwargsContext kwargsContext = context.kwargs();
-        final StringBuilder text = new StringBuilder();
         if (firstPartOfArgsContext == null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitArgs -> kwargs");
         } else {
-            text.append(this.visit(firstPartOfArgsContext));
+            this.visit(firstPartOfArgsContext);
             for (final PythonParser.SecondPartOfArgsContext secondPartOfArgsContext : secondPartOfArgsContexts) {
-                text.append(this.visit(secondPartOfArgsContext));
+                this.visit(secondPartOfArgsContext);
             }
             if (commaTerminal != null) {
                 throw new UnsupportedOperationException("The following parsing path is not supported yet: visitArgs -> COMMA");
             }
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSecondPartOfArgs(final PythonParser.SecondPartOfArgsContext context) {
+    public Void visitSecondPartOfArgs(final PythonParser.SecondPartOfArgsContext context) {
         final TerminalNode commaTerminal = context.COMMA();
         final PythonParser.Starred_expressionContext starredExpressionContext = context.starred_expression();
         final PythonParser.Assignment_expressionContext assignmentExpressionContext = context.assignment_expression();
         final PythonParser.ExpressionContext expressionContext = context.expression();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(commaTerminal))
-            .append(' ');
+        this.visit(commaTerminal);
+        this.softLine(" ");
         if (starredExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSecondPartOfArgs -> starred_expression");
         } else if (assignmentExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSecondPartOfArgs -> assignment_expression");
         } else if (expressionContext != null) {
-            text.append(this.visit(expressionContext));
+            this.visit(expressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFirstPartOfArgs(final PythonParser.FirstPartOfArgsContext context) {
+    public Void visitFirstPartOfArgs(final PythonParser.FirstPartOfArgsContext context) {
         final PythonParser.Starred_expressionContext starredExpressionContext = context.starred_expression();
         final PythonParser.Assignment_expressionContext assignmentExpressionContext = context.assignment_expression();
         final PythonParser.ExpressionContext expressionContext = context.expression();
-        final StringBuilder text = new StringBuilder();
         if (starredExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFirstPartOfArgs -> starred_expression");
         } else if (assignmentExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFirstPartOfArgs -> assignment_expression");
         } else if (expressionContext != null) {
-            text.append(this.visit(expressionContext));
+            this.visit(expressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitAtom(final PythonParser.AtomContext context) {
-        final PythonParser.NameContext nameContext = context.name();
-        final TerminalNode trueTerminal = context.TRUE();
-        final TerminalNode falseTerminal = context.FALSE();
-        final TerminalNode noneTerminal = context.NONE();
-        final PythonParser.StringsContext stringsContext = context.strings();
-        final TerminalNode numberTerminal = context.NUMBER();
-        final PythonParser.TupleContext tupleContext = context.tuple();
-        final PythonParser.GroupContext groupContext = context.group();
-        final PythonParser.GenexpContext genexpContext = context.genexp();
-        final PythonParser.ListContext listContext = context.list();
-        final PythonParser.ListcompContext listcompContext = context.listcomp();
-        final PythonParser.DictContext dictContext = context.dict();
-        final PythonParser.SetContext setContext = context.set();
-        final PythonParser.DictcompContext dictcompContext = context.dictcomp();
-        final PythonParser.SetcompContext setcompContext = context.setcomp();
-        final TerminalNode ellipsesTerminal = context.ELLIPSIS();
-        final StringBuilder text = new StringBuilder();
-        if (nameContext != null) {
-            text.append(this.visit(nameContext));
-        } else if (trueTerminal != null) {
-            text.append(this.visit(trueTerminal));
-        } else if (falseTerminal != null) {
-            text.append(this.visit(falseTerminal));
-        } else if (noneTerminal != null) {
-            text.append(this.visit(noneTerminal));
-        } else if (stringsContext != null) {
-            text.append(this.visit(stringsContext));
-        } else if (numberTerminal != null) {
-            text.append(this.visit(numberTerminal));
-        } else if (tupleContext != null) {
-            text.append(this.visit(tupleContext));
-        } else if (groupContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> group");
-        } else if (genexpContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> genexp");
-        } else if (listContext != null) {
-            text.append(this.visit(listContext));
-        } else if (listcompContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> listcomp");
-        } else if (dictContext != null) {
-            text.append(this.visit(dictContext));
-        } else if (setContext != null) {
-            text.append(this.visit(setContext));
-        } else if (dictcompContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> dictcomp");
-        } else if (setcompContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> setcomp");
-        } else if (ellipsesTerminal != null) {
-            text.append(this.visit(ellipsesTerminal));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitDict(final PythonParser.DictContext context) {
+    public Void visitAtom(final PythonParser.AtomContext context) {
+        // Each alternative is a single child, so we dispatch on it instead of calling all the getters.
+        final ParseTree child = context.getChild(0);
+        if (child instanceof TerminalNode) {
+            // 'True', 'False', 'None', NUMBER, or '...'.
+            this.visit(child);
+            return null;
+        }
+        switch (((ParserRuleContext) child).getRuleIndex()) {
+            case PythonParser.RULE_group:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> group");
+            case PythonParser.RULE_genexp:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> genexp");
+            case PythonParser.RULE_listcomp:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> listcomp");
+            case PythonParser.RULE_dictcomp:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> dictcomp");
+            case PythonParser.RULE_setcomp:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAtom -> setcomp");
+            default:
+                // name, strings, tuple, list, dict, or set.
+                this.visit(child);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDict(final PythonParser.DictContext context) {
         final TerminalNode lbraceTerminal = context.LBRACE();
         final PythonParser.Double_starred_kvpairsContext doubleStarredKvpairsContext = context.double_starred_kvpairs();
         final TerminalNode rbraceTerminal = context.RBRACE();
-        final StringBuilder text = new StringBuilder();
         if (doubleStarredKvpairsContext == null) {
-            text.append(this.visit(lbraceTerminal))
-                .append(this.visit(rbraceTerminal));
+            this.visit(lbraceTerminal);
+            this.visit(rbraceTerminal);
         } else {
-            text.append(this.visit(lbraceTerminal));
+            // The pairs go on one line if they fit. Otherwise, each pair goes on its own line.
+            this.output.group();
+            this.visit(lbraceTerminal);
             this.currentIndentLevel++;
-            text.append('\n')
-                .append(INDENT_UNIT.repeat(this.currentIndentLevel))
-                .append(this.visit(doubleStarredKvpairsContext));
+            this.output.line(this.currentIndentLevel, "");
+            this.visit(doubleStarredKvpairsContext);
             this.currentIndentLevel--;
-            text.append('\n')
-                .append(INDENT_UNIT.repeat(this.currentIndentLevel))
-                .append(this.visit(rbraceTerminal));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitDouble_starred_kvpairs(final PythonParser.Double_starred_kvpairsContext context) {
-        final List<PythonParser.Double_starred_kvpairContext> doubleStarredKvpairContexts = context.double_starred_kvpair();
-        final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        final PythonParser.Double_starred_kvpairContext firstDoubleStarredKvpairContext = doubleStarredKvpairContexts.get(0);
-        text.append(this.visit(firstDoubleStarredKvpairContext));
-        for (int index = 1; index < doubleStarredKvpairContexts.size(); index++) {
-            final TerminalNode commaTerminal = commaTerminals.get(index - 1);
-            final PythonParser.Double_starred_kvpairContext doubleStarredKvpairContext = doubleStarredKvpairContexts.get(index);
-            text.append(this.visit(commaTerminal))
-                .append('\n')
-                .append(INDENT_UNIT.repeat(this.currentIndentLevel))
-                .append(this.visit(doubleStarredKvpairContext));
-        }
-        if (doubleStarredKvpairContexts.size() == commaTerminals.size()) {
-            final TerminalNode commaTerminal = commaTerminals.get(commaTerminals.size() - 1);
-            text.append(this.visit(commaTerminal));
+            this.output.line(this.currentIndentLevel, "");
+            this.visit(rbraceTerminal);
+            this.output.end();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitDouble_starred_kvpairs(final PythonParser.Double_starred_kvpairsContext context) {
+        // double_starred_kvpair (',' double_starred_kvpair)* ','?
+        // We write the commas and the pairs in a single pass over the children.
+        final int childCount = context.getChildCount();
+        for (int index = 0; index < childCount; index++) {
+            final ParseTree child = context.getChild(index);
+            if (child instanceof TerminalNode) {
+                final int tokenIndex = ((TerminalNode) child).getSymbol().getTokenIndex();
+                if (index == childCount - 1 && this.tokens.commentsFrom(tokenIndex) == this.tokens.commentsTo(tokenIndex)) {
+                    // The trailing comma is useless if the pairs are on one line.
+                    this.output.ifBreak(",", "");
+                } else {
+                    this.visit(child);
+                }
+            } else {
+                if (index > 0) {
+                    this.output.line(this.currentIndentLevel, " ");
+                }
+                this.visit(child);
+            }
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitDouble_starred_kvpair(final PythonParser.Double_starred_kvpairContext context) {
+    public Void visitDouble_starred_kvpair(final PythonParser.Double_starred_kvpairContext context) {
         final TerminalNode doublestarTerminal = context.DOUBLESTAR();
         // todo: use `bitwiseOrContext` with tests.
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
         final PythonParser.KvpairContext kvpairContext = context.kvpair();
-        final StringBuilder text = new StringBuilder();
         if (doublestarTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitDouble_starred_kvpair -> doublestar");
         } else if (kvpairContext != null) {
-            text.append(this.visit(kvpairContext));
+            this.visit(kvpairContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitKvpair(final PythonParser.KvpairContext context) {
+    public Void visitKvpair(final PythonParser.KvpairContext context) {
         final List<PythonParser.ExpressionContext> expressionContexts = context.expression();
         final TerminalNode colonTerminal = context.COLON();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(expressionContexts.get(0)))
-            .append(this.visit(colonTerminal))
-            .append(' ')
-            .append(this.visit(expressionContexts.get(1)));
-        return text.toString();
+        this.visit(expressionContexts.get(0));
+        this.visit(colonTerminal);
+        this.output.append(' ');
+        this.visit(expressionContexts.get(1));
+        return null;
     }
 
     @Override
-    public String visitSet(final PythonParser.SetContext context) {
+    public Void visitSet(final PythonParser.SetContext context) {
         final TerminalNode lbraceTerminal = context.LBRACE();
         final PythonParser.Star_named_expressionsContext star_named_expressionsContext = context.star_named_expressions();
         final TerminalNode rbraceTerminal = context.RBRACE();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lbraceTerminal))
-            .append(this.visit(star_named_expressionsContext))
-            .append(this.visit(rbraceTerminal));
-        return text.toString();
+        this.openBrackets(lbraceTerminal);
+        this.visit(star_named_expressionsContext);
+        this.closeBrackets(rbraceTerminal);
+        return null;
     }
 
     @Override
-    public String visitTuple(final PythonParser.TupleContext context) {
+    public Void visitTuple(final PythonParser.TupleContext context) {
         final TerminalNode lparTerminal = context.LPAR();
         final PythonParser.Star_named_expressionContext starNamedExpressionContext = context.star_named_expression();
         final TerminalNode commaTerminal = context.COMMA();
         final PythonParser.Star_named_expressionsContext starNamedExpressionsContext = context.star_named_expressions();
         final TerminalNode rparTerminal = context.RPAR();
-        final StringBuilder text =  new StringBuilder();
-        text.append(this.visit(lparTerminal));
-        if (starNamedExpressionContext != null) {
-            text.append(this.visit(starNamedExpressionContext))
-                .append(this.visit(commaTerminal));
+        if (starNamedExpressionContext == null) {
+            this.visit(lparTerminal);
+            this.visit(rparTerminal);
+        } else {
+            this.openBrackets(lparTerminal);
+            this.visit(starNamedExpressionContext);
+            // The comma stays even on one line because it makes the single element a tuple.
+            this.visit(commaTerminal);
             if (starNamedExpressionsContext != null) {
-                text.append(' ')
-                    .append(this.visit(starNamedExpressionsContext));
+                this.softLine(" ");
+                this.visit(starNamedExpressionsContext);
             }
+            this.closeBrackets(rparTerminal);
         }
-        text.append(this.visit(rparTerminal));
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitList(final PythonParser.ListContext context) {
+    public Void visitList(final PythonParser.ListContext context) {
         final TerminalNode lsqbTerminal = context.LSQB();
         final PythonParser.Star_named_expressionsContext starNamedExpressionsContext = context.star_named_expressions();
         final TerminalNode rsqbTerminal = context.RSQB();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lsqbTerminal));
-        if (starNamedExpressionsContext != null) {
-            text.append(this.visit(starNamedExpressionsContext));
-        }
-        text.append(this.visit(rsqbTerminal));
-        return text.toString();
-    }
-
-    @Override
-    public String visitStar_named_expressions(final PythonParser.Star_named_expressionsContext context) {
-        final List<PythonParser.Star_named_expressionContext> starNamedExpressionsContexts = context.star_named_expression();
-        final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        final PythonParser.Star_named_expressionContext firstStarNamedExpressionContext = starNamedExpressionsContexts.get(0);
-        text.append(this.visit(firstStarNamedExpressionContext));
-        for (int index = 1; index < starNamedExpressionsContexts.size(); index++) {
-            final TerminalNode commaTerminal = commaTerminals.get(index - 1);
-            final PythonParser.Star_named_expressionContext starNamedExpressionContext = starNamedExpressionsContexts.get(index);
-            text.append(this.visit(commaTerminal))
-                .append(' ')
-                .append(this.visit(starNamedExpressionContext));
-        }
-        if (starNamedExpressionsContexts.size() == commaTerminals.size()) {
-            final TerminalNode commaTerminal = commaTerminals.get(commaTerminals.size() - 1);
-            text.append(this.visit(commaTerminal));
+        if (starNamedExpressionsContext == null) {
+            this.visit(lsqbTerminal);
+            this.visit(rsqbTerminal);
+        } else {
+            this.openBrackets(lsqbTerminal);
+            this.visit(starNamedExpressionsContext);
+            this.closeBrackets(rsqbTerminal);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitStar_named_expressions(final PythonParser.Star_named_expressionsContext context) {
+        // star_named_expression (',' star_named_expression)* ','?
+        // We write the commas and the elements in a single pass over the children.
+        final int childCount = context.getChildCount();
+        for (int index = 0; index < childCount; index++) {
+            final ParseTree child = context.getChild(index);
+            if (child instanceof TerminalNode) {
+                final int tokenIndex = ((TerminalNode) child).getSymbol().getTokenIndex();
+                if (this.wrapping && index == childCount - 1 && this.tokens.commentsFrom(tokenIndex) == this.tokens.commentsTo(tokenIndex)) {
+                    // The trailing comma is useless if the elements are on one line.
+                    this.output.ifBreak(",", "");
+                } else {
+                    this.visit(child);
+                }
+            } else {
+                if (index > 0) {
+                    this.softLine(" ");
+                }
+                this.visit(child);
+            }
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_named_expression(final PythonParser.Star_named_expressionContext context) {
+    public Void visitStar_named_expression(final PythonParser.Star_named_expressionContext context) {
         final TerminalNode starTerminal = context.STAR();
         // todo: use `bitwiseOrContext` with tests.
         final PythonParser.Bitwise_orContext bitwiseOrContext = context.bitwise_or();
         final PythonParser.Named_expressionContext namedExpressionContext = context.named_expression();
-        final StringBuilder text = new StringBuilder();
         if (starTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_named_expression -> STAR");
         } else if (namedExpressionContext != null) {
-            text.append(this.visit(namedExpressionContext));
+            this.visit(namedExpressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStrings(final PythonParser.StringsContext context) {
-        final List<PythonParser.FstringOrStringContext> fstringOrStringContexts = context.fstringOrString();
-        final StringBuilder text = new StringBuilder();
-        for (final PythonParser.FstringOrStringContext fstringOrStringContext : fstringOrStringContexts) {
-            text.append(this.visit(fstringOrStringContext));
+    public Void visitStrings(final PythonParser.StringsContext context) {
+        // All children are fstringOrString, so we don't need `context.fstringOrString()` to collect them.
+        for (int index = 0; index < context.getChildCount(); index++) {
+            this.visit(context.getChild(index));
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitString(final PythonParser.StringContext context) {
+    public Void visitString(final PythonParser.StringContext context) {
         final TerminalNode stringTerminal = context.STRING();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(stringTerminal));
-        return text.toString();
+        this.visit(stringTerminal);
+        return null;
     }
 
     @Override
-    public String visitFstringOrString(final PythonParser.FstringOrStringContext context) {
-        final PythonParser.FstringContext fstringContext = context.fstring();
-        final PythonParser.StringContext stringContext = context.string();
-        final StringBuilder text = new StringBuilder();
-        if (fstringContext != null) {
-            text.append(this.visit(fstringContext));
-        } else if (stringContext != null) {
-            text.append(this.visit(stringContext));
-        }
-        return text.toString();
+    public Void visitFstringOrString(final PythonParser.FstringOrStringContext context) {
+        // fstring | string
+        this.visit(context.getChild(0));
+        return null;
     }
 
     @Override
-    public String visitFstring(final PythonParser.FstringContext context) {
-        final TerminalNode fstringStartTerminal = context.FSTRING_START();
-        final List<PythonParser.Fstring_middleContext> fstringMiddleContexts = context.fstring_middle();
-        final TerminalNode fstringEndTerminal = context.FSTRING_END();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(fstringStartTerminal));
-        for (final PythonParser.Fstring_middleContext fstringMiddleContext : fstringMiddleContexts) {
-            text.append(this.visit(fstringMiddleContext));
+    public Void visitFstring(final PythonParser.FstringContext context) {
+        // FSTRING_START fstring_middle* FSTRING_END
+        // The children are already in the order we write them.
+        for (int index = 0; index < context.getChildCount(); index++) {
+            this.visit(context.getChild(index));
         }
-        text.append(this.visit(fstringEndTerminal));
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFstring_middle(final PythonParser.Fstring_middleContext context) {
-        final PythonParser.Fstring_replacement_fieldContext fstringReplacementFieldContext = context.fstring_replacement_field();
-        final TerminalNode fstringMiddleTerminal = context.FSTRING_MIDDLE();
-        final StringBuilder text = new StringBuilder();
-        if (fstringReplacementFieldContext != null) {
-            text.append(this.visit(fstringReplacementFieldContext));
-        } else if (fstringMiddleTerminal != null) {
-            text.append(this.visit(fstringMiddleTerminal));
-        }
-        return text.toString();
+    public Void visitFstring_middle(final PythonParser.Fstring_middleContext context) {
+        // fstring_replacement_field | FSTRING_MIDDLE
+        this.visit(context.getChild(0));
+        return null;
     }
 
     @Override
-    public String visitFstring_replacement_field(final PythonParser.Fstring_replacement_fieldContext context) {
+    public Void visitFstring_replacement_field(final PythonParser.Fstring_replacement_fieldContext context) {
         final TerminalNode lbraceTerminal = context.LBRACE();
         final PythonParser.Annotated_rhsContext annotatedRhsContext = context.annotated_rhs();
         final TerminalNode equalTerminal = context.EQUAL();
         final PythonParser.Fstring_conversionContext fstringConversionContext = context.fstring_conversion();
         final PythonParser.Fstring_full_format_specContext fstringFullFormatSpecContext = context.fstring_full_format_spec();
         final TerminalNode rbraceTerminal = context.RBRACE();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(lbraceTerminal))
-            .append(this.visit(annotatedRhsContext));
+        this.visit(lbraceTerminal);
+        this.visit(annotatedRhsContext);
         if (equalTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFstring_replacement_field -> EQUAL");
         }
@@ -1275,84 +1202,65 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         if (fstringFullFormatSpecContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFstring_replacement_field -> fstring_full_format_spec");
         }
-        text.append(this.visit(rbraceTerminal));
-        return text.toString();
+        this.visit(rbraceTerminal);
+        return null;
     }
 
     @Override
-    public String visitAnnotated_rhs(final PythonParser.Annotated_rhsContext context) {
+    public Void visitAnnotated_rhs(final PythonParser.Annotated_rhsContext context) {
         final PythonParser.Yield_exprContext yieldExprContext = context.yield_expr();
         final PythonParser.Star_expressionsContext starExpressionsContext = context.star_expressions();
-        final StringBuilder text = new StringBuilder();
         if (yieldExprContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitAnnotated_rhs -> yield_expr");
         } else if (starExpressionsContext != null) {
-            text.append(this.visit(starExpressionsContext));
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitCompound_stmt(final PythonParser.Compound_stmtContext context) {
-        final PythonParser.Function_defContext functionDefContext = context.function_def();
-        final PythonParser.If_stmtContext ifStmtContext = context.if_stmt();
-        final PythonParser.Class_defContext classDefContext = context.class_def();
-        final PythonParser.With_stmtContext withStmtContext = context.with_stmt();
-        final PythonParser.For_stmtContext forStmtContext = context.for_stmt();
-        final PythonParser.Try_stmtContext tryStmtContext = context.try_stmt();
-        final PythonParser.While_stmtContext whileStmtContext = context.while_stmt();
-        final PythonParser.Match_stmtContext matchStmtContext = context.match_stmt();
-        final StringBuilder text = new StringBuilder();
-        if (functionDefContext != null) {
-            text.append(this.visit(functionDefContext));
-        } else if (ifStmtContext != null) {
-            text.append(this.visit(ifStmtContext));
-        } else if (classDefContext != null) {
-            text.append(this.visit(classDefContext));
-        } else if (withStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompound_stmt -> with_stmt");
-        } else if (forStmtContext != null) {
-            text.append(this.visit(forStmtContext));
-        } else if (tryStmtContext != null) {
-            text.append(this.visit(tryStmtContext));
-        } else if (whileStmtContext != null) {
-            text.append(this.visit(whileStmtContext));
-        } else if (matchStmtContext != null) {
-            throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompound_stmt -> match_stmt");
-        }
-        return text.toString();
-    }
-
-    @Override
-    public String visitTry_stmt(final PythonParser.Try_stmtContext context) {
+            this.visit(starExpressionsContext);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCompound_stmt(final PythonParser.Compound_stmtContext context) {
+        final ParseTree child = context.getChild(0);
+        switch (((ParserRuleContext) child).getRuleIndex()) {
+            case PythonParser.RULE_with_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompound_stmt -> with_stmt");
+            case PythonParser.RULE_match_stmt:
+                throw new UnsupportedOperationException("The following parsing path is not supported yet: visitCompound_stmt -> match_stmt");
+            default:
+                // function_def, if_stmt, class_def, for_stmt, try_stmt, or while_stmt.
+                this.visit(child);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTry_stmt(final PythonParser.Try_stmtContext context) {
         final PythonParser.FirstPartOfTryContext firstPartOfTryContext = context.firstPartOfTry();
         final PythonParser.SecondPartOfTryContext secondPartOfTryContext = context.secondPartOfTry();
         final PythonParser.ThirdPartOfTryContext thirdPartOfTryContext = context.thirdPartOfTry();
-        final StringBuilder text = new StringBuilder();
         if (firstPartOfTryContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitTry_stmt -> firstPartOfTry");
         } else if (secondPartOfTryContext != null) {
-            text.append(this.visit(secondPartOfTryContext));
+            this.visit(secondPartOfTryContext);
         } else if (thirdPartOfTryContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitTry_stmt -> thirdPartOfTry");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitSecondPartOfTry(final PythonParser.SecondPartOfTryContext context) {
+    public Void visitSecondPartOfTry(final PythonParser.SecondPartOfTryContext context) {
         final TerminalNode tryTerminal = context.TRY();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
         final List<PythonParser.Except_blockContext> exceptBlockContexts = context.except_block();
         final PythonParser.Else_blockContext elseBlockContext = context.else_block();
         final PythonParser.Finally_blockContext finallyBlockContext = context.finally_block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(tryTerminal))
-            .append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
+        this.visit(tryTerminal);
+        this.visit(colonTerminal);
+        this.visit(blockContext);
         for (final PythonParser.Except_blockContext exceptBlockContext : exceptBlockContexts) {
-            text.append(this.visit(exceptBlockContext));
+            this.visit(exceptBlockContext);
         }
         if (elseBlockContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSecondPartOfTry -> else_block");
@@ -1360,11 +1268,11 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         if (finallyBlockContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitSecondPartOfTry -> finally_block");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitExcept_block(final PythonParser.Except_blockContext context) {
+    public Void visitExcept_block(final PythonParser.Except_blockContext context) {
         final TerminalNode exceptTerminal = context.EXCEPT();
         final PythonParser.ExpressionContext expressionContext = context.expression();
         final TerminalNode asTerminal = context.AS();
@@ -1372,38 +1280,36 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.NameContext nameContext = context.name();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(exceptTerminal));
+        this.visit(exceptTerminal);
         if (expressionContext != null) {
-            text.append(' ')
-                .append(this.visit(expressionContext));
+            this.output.append(' ');
+            this.visit(expressionContext);
             if (asTerminal != null) {
-                text.append(' ')
-                    .append(this.visit(asTerminal))
-                    .append(' ')
-                    .append(this.visit(nameContext));
+                this.output.append(' ');
+                this.visit(asTerminal);
+                this.output.append(' ');
+                this.visit(nameContext);
             }
         }
-        text.append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
-        return text.toString();
+        this.visit(colonTerminal);
+        this.visit(blockContext);
+        return null;
     }
 
     @Override
-    public String visitClass_def(final PythonParser.Class_defContext context) {
+    public Void visitClass_def(final PythonParser.Class_defContext context) {
         final PythonParser.DecoratorsContext decoratorsContext = context.decorators();
         final PythonParser.Class_def_rawContext classDefRawContext = context.class_def_raw();
-        final StringBuilder text = new StringBuilder();
         if (decoratorsContext == null) {
-            text.append(this.visit(classDefRawContext));
+            this.visit(classDefRawContext);
         } else {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitClass_def -> decorators");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitClass_def_raw(final PythonParser.Class_def_rawContext context) {
+    public Void visitClass_def_raw(final PythonParser.Class_def_rawContext context) {
         final TerminalNode classTerminal = context.CLASS();
         final PythonParser.NameContext nameContext = context.name();
         final PythonParser.Type_paramsContext typeParamsContext = context.type_params();
@@ -1412,116 +1318,110 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final TerminalNode rparTerminal = context.RPAR();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(classTerminal))
-            .append(' ')
-            .append(this.visit(nameContext));
+        this.visit(classTerminal);
+        this.output.append(' ');
+        this.visit(nameContext);
         if (typeParamsContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitClass_def_raw -> type_params");
         }
         if (lparTerminal != null) {
-            text.append(this.visit(lparTerminal));
+            this.visit(lparTerminal);
             if (argumentsContext != null) {
-                text.append(this.visit(argumentsContext));
+                this.visit(argumentsContext);
             }
-            text.append(this.visit(rparTerminal));
+            this.visit(rparTerminal);
         }
-        text.append(this.visit(colonTerminal))
-            .append('\n')
-            .append(this.visit(blockContext));
-        return text.toString();
+        this.visit(colonTerminal);
+        this.output.append('\n');
+        this.visit(blockContext);
+        return null;
     }
 
     @Override
-    public String visitWhile_stmt(final PythonParser.While_stmtContext context) {
+    public Void visitWhile_stmt(final PythonParser.While_stmtContext context) {
         final TerminalNode whileTerminal = context.WHILE();
         final PythonParser.Named_expressionContext namedExpressionContext = context.named_expression();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
         final PythonParser.Else_blockContext elseBlockContext = context.else_block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(whileTerminal))
-            .append(' ')
-            .append(this.visit(namedExpressionContext))
-            .append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
+        this.visit(whileTerminal);
+        this.output.append(' ');
+        this.visit(namedExpressionContext);
+        this.visit(colonTerminal);
+        this.visit(blockContext);
         if (elseBlockContext != null) {
-            text.append(this.visit(elseBlockContext));
+            this.visit(elseBlockContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitIf_stmt(final PythonParser.If_stmtContext context) {
+    public Void visitIf_stmt(final PythonParser.If_stmtContext context) {
         final TerminalNode ifTerminal = context.IF();
         final PythonParser.Named_expressionContext namedExpressionContext = context.named_expression();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
         final PythonParser.Elif_stmtContext elifStmtContext = context.elif_stmt();
         final PythonParser.Else_blockContext elseBlockContext = context.else_block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(ifTerminal))
-            .append(' ')
-            .append(this.visit(namedExpressionContext))
-            .append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
+        this.visit(ifTerminal);
+        this.output.append(' ');
+        this.visit(namedExpressionContext);
+        this.visit(colonTerminal);
+        this.visit(blockContext);
         if (elifStmtContext != null) {
-            text.append(this.visit(elifStmtContext));
+            this.visit(elifStmtContext);
         } else if (elseBlockContext != null) {
-            text.append(this.visit(elseBlockContext));
+            this.visit(elseBlockContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitElif_stmt(final PythonParser.Elif_stmtContext context) {
+    public Void visitElif_stmt(final PythonParser.Elif_stmtContext context) {
         final TerminalNode elifTerminal = context.ELIF();
         final PythonParser.Named_expressionContext namedExpressionContext = context.named_expression();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
         final PythonParser.Elif_stmtContext elifStmtContext = context.elif_stmt();
         final PythonParser.Else_blockContext elseBlockContext = context.else_block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(elifTerminal))
-            .append(' ')
-            .append(this.visit(namedExpressionContext))
-            .append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
+        this.visit(elifTerminal);
+        this.output.append(' ');
+        this.visit(namedExpressionContext);
+        this.visit(colonTerminal);
+        this.visit(blockContext);
         if (elifStmtContext != null) {
-            text.append(this.visit(elifStmtContext));
+            this.visit(elifStmtContext);
         } else if (elseBlockContext != null) {
-            text.append(this.visit(elseBlockContext));
+            this.visit(elseBlockContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitElse_block(final PythonParser.Else_blockContext context) {
+    public Void visitElse_block(final PythonParser.Else_blockContext context) {
         final TerminalNode elseTerminal = context.ELSE();
         final TerminalNode colonTerminal = context.COLON();
         final PythonParser.BlockContext blockContext = context.block();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(elseTerminal))
-            .append(this.visit(colonTerminal))
-            .append(this.visit(blockContext));
-        return text.toString();
+        this.visit(elseTerminal);
+        this.visit(colonTerminal);
+        this.visit(blockContext);
+        return null;
     }
 
     @Override
-    public String visitNamed_expression(final PythonParser.Named_expressionContext context) {
+    public Void visitNamed_expression(final PythonParser.Named_expressionContext context) {
         final PythonParser.Assignment_expressionContext assignmentExpressionContext = context.assignment_expression();
         final PythonParser.ExpressionContext expressionContext = context.expression();
-        final StringBuilder text = new StringBuilder();
         if (assignmentExpressionContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitNamed_expression -> assignment_expression");
         } else if (expressionContext != null) {
-            text.append(this.visit(expressionContext));
+            this.visit(expressionContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFor_stmt(final PythonParser.For_stmtContext context) {
+    public Void visitFor_stmt(final PythonParser.For_stmtContext context) {
         final TerminalNode asyncTerminal = context.ASYNC();
         final TerminalNode forTerminal = context.FOR();
         final PythonParser.Star_targetsContext starTargetsContext = context.star_targets();
@@ -1531,67 +1431,58 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final TerminalNode typeCommentTerminal = context.TYPE_COMMENT();
         final PythonParser.BlockContext blockContext = context.block();
         final PythonParser.Else_blockContext elseBlockContext = context.else_block();
-        final StringBuilder text = new StringBuilder();
         if (asyncTerminal != null) {
-            text.append(this.visit(asyncTerminal))
-                .append(' ');
-        }
-        text.append(this.visit(forTerminal))
-            .append(' ')
-            .append(this.visit(starTargetsContext))
-            .append(' ')
-            .append(this.visit(inTerminal))
-            .append(' ')
-            .append(this.visit(starExpressionsContext))
-            .append(this.visit(colonTerminal));
+            this.visit(asyncTerminal);
+            this.output.append(' ');
+        }
+        this.visit(forTerminal);
+        this.output.append(' ');
+        this.visit(starTargetsContext);
+        this.output.append(' ');
+        this.visit(inTerminal);
+        this.output.append(' ');
+        this.visit(starExpressionsContext);
+        this.visit(colonTerminal);
         if (typeCommentTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFor_stmt -> TYPE_COMMENT");
         }
-        text.append(this.visit(blockContext));
+        this.visit(blockContext);
         if (elseBlockContext != null) {
-            text.append(this.visit(elseBlockContext));
+            this.visit(elseBlockContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_targets(final PythonParser.Star_targetsContext context) {
-        final List<PythonParser.Star_targetContext> starTargetContexts = context.star_target();
-        final List<TerminalNode> commaTerminals = context.COMMA();
-        final StringBuilder text = new StringBuilder();
-        final PythonParser.Star_targetContext firstStarTargetContext = starTargetContexts.get(0);
-        text.append(this.visit(firstStarTargetContext));
-        for (int index = 1; index < starTargetContexts.size(); index++) {
-            final TerminalNode commaTerminal = commaTerminals.get(index - 1);
-            final PythonParser.Star_targetContext star_targetContext = starTargetContexts.get(index);
-            text.append(this.visit(commaTerminal))
-                .append(' ')
-                .append(this.visit(star_targetContext));
-        }
-        if (commaTerminals.size() == starTargetContexts.size()) {
-            final TerminalNode commaTerminal = commaTerminals.get(commaTerminals.size() - 1);
-            text.append(this.visit(commaTerminal));
+    public Void visitStar_targets(final PythonParser.Star_targetsContext context) {
+        // star_target (',' star_target )* ','?
+        // We write the commas and the targets in a single pass over the children.
+        for (int index = 0; index < context.getChildCount(); index++) {
+            final ParseTree child = context.getChild(index);
+            if (!(child instanceof TerminalNode) && index > 0) {
+                this.output.append(' ');
+            }
+            this.visit(child);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_target(final PythonParser.Star_targetContext context) {
+    public Void visitStar_target(final PythonParser.Star_targetContext context) {
         final TerminalNode starTerminal = context.STAR();
         // todo: use `starTargetContext` with tests.
         final PythonParser.Star_targetContext starTargetContext = context.star_target();
         final PythonParser.Target_with_star_atomContext targetWithStarAtomContext = context.target_with_star_atom();
-        final StringBuilder text = new StringBuilder();
         if (starTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_target -> STAR");
         } else if (targetWithStarAtomContext != null) {
-            text.append(this.visit(targetWithStarAtomContext));
+            this.visit(targetWithStarAtomContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitTarget_with_star_atom(final PythonParser.Target_with_star_atomContext context) {
+    public Void visitTarget_with_star_atom(final PythonParser.Target_with_star_atomContext context) {
         final PythonParser.T_primaryContext tPrimaryContext = context.t_primary();
         final TerminalNode dotTerminal = context.DOT();
         final PythonParser.NameContext nameContext = context.name();
@@ -1599,25 +1490,24 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.SlicesContext slicesContext = context.slices();
         final TerminalNode rsqbTerminal = context.RSQB();
         final PythonParser.Star_atomContext starAtomContext = context.star_atom();
-        final StringBuilder text = new StringBuilder();
         if (tPrimaryContext != null) {
-            text.append(this.visit(tPrimaryContext));
+            this.visit(tPrimaryContext);
             if (dotTerminal != null) {
-                text.append(this.visit(dotTerminal))
-                    .append(this.visit(nameContext));
+                this.visit(dotTerminal);
+                this.visit(nameContext);
             } else if (lsqbTerminal != null) {
-                text.append(this.visit(lsqbTerminal))
-                    .append(this.visit(slicesContext))
-                    .append(this.visit(rsqbTerminal));
+                this.visit(lsqbTerminal);
+                this.visit(slicesContext);
+                this.visit(rsqbTerminal);
             }
         } else if (starAtomContext != null) {
-            text.append(this.visit(starAtomContext));
+            this.visit(starAtomContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitT_primary(final PythonParser.T_primaryContext context) {
+    public Void visitT_primary(final PythonParser.T_primaryContext context) {
         final PythonParser.T_primaryContext tPrimaryContext = context.t_primary();
         // todo: use `dotTerminal`, `nameContext`, `lsqbTerminal`, `slicesContext`, `rsqbTerminal`, `genexpContext`, `lparTerminal`, `argumentsContext`, and `rparTerminal` with tests.
         final TerminalNode dotTerminal = context.DOT();
@@ -1630,17 +1520,16 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.ArgumentsContext argumentsContext = context.arguments();
         final TerminalNode rparTerminal = context.RPAR();
         final PythonParser.AtomContext atomContext = context.atom();
-        final StringBuilder text = new StringBuilder();
         if (tPrimaryContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitT_primary -> t_primary");
         } else if (atomContext != null) {
-            text.append(this.visit(atomContext));
+            this.visit(atomContext);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitStar_atom(final PythonParser.Star_atomContext context) {
+    public Void visitStar_atom(final PythonParser.Star_atomContext context) {
         final PythonParser.NameContext nameContext = context.name();
         // todo: use `lparTerminal` with tests.
         final TerminalNode lparTerminal = context.LPAR();
@@ -1652,9 +1541,8 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         // todo: use `starTargetsListSeqContext` and `rsqb`.
         final PythonParser.Star_targets_list_seqContext starTargetsListSeqContext = context.star_targets_list_seq();
         final TerminalNode rsqb = context.RSQB();
-        final StringBuilder text = new StringBuilder();
         if (nameContext != null) {
-            text.append(this.visit(nameContext));
+            this.visit(nameContext);
         } else if (targetWithStarAtomContext != null) {
             // '(' target_with_star_atom ')'
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_atom -> '(' target_with_star_atom ')'");
@@ -1665,19 +1553,17 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
             // '(' star_targets_tuple_seq? ')'
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitStar_atom -> '(' star_targets_tuple_seq? ')'");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFunction_def(final PythonParser.Function_defContext context) {
+    public Void visitFunction_def(final PythonParser.Function_defContext context) {
         final PythonParser.DecoratorsContext decoratorsContext = context.decorators();
         final PythonParser.Function_def_rawContext functionDefRawContext = context.function_def_raw();
-        final StringBuilder text = new StringBuilder();
         if (decoratorsContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFunction_def -> decorators");
         } else {
-            final String functionDefRawText = this.visit(functionDefRawContext);
-            // If `functionDefRawText` ends with comment lines, we need to insert one line break before them.
+            // If the function ends with comment lines, the blank line after the function goes before them.
             // For example:
             // ```py
             // def main():
@@ -1699,36 +1585,17 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
             // # cinco
             // # extra
             // ```
-            final List<String> lines = new ArrayList<>(
-                Arrays.asList(
-                    functionDefRawText.split("\n")
-                )
-            );
-            boolean endsWithComments = false;
-            for (int index = lines.size() - 1; index >= 0; index--) {
-                final String line = lines.get(index).trim();
-                if (line.startsWith("#")) {
-                    endsWithComments = true;
-                } else if (endsWithComments) {
-                    // The `String.join` below will add two linebreaks.
-                    // One on the left and another on the right.
-                    lines.add(index + 1, "");
-                    break;
-                }
-            }
-            if (endsWithComments) {
-                text.append(String.join("\n", lines))
-                    // Restore the last line break removed by the split before.
-                    .append('\n');
-            } else {
-                text.append(functionDefRawText);
-            }
+            // Those comments belong to the last NEWLINE of the function.
+            // So `visitTerminal` writes the blank line before them, and `visitBlock` skips it after them.
+            this.functionLevels.add(this.currentIndentLevel);
+            this.visit(functionDefRawContext);
+            this.functionLevels.removeAt(this.functionLevels.size() - 1);
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitFunction_def_raw(final PythonParser.Function_def_rawContext context) {
+    public Void visitFunction_def_raw(final PythonParser.Function_def_rawContext context) {
         final TerminalNode defTerminal = context.DEF();
         final PythonParser.NameContext nameContext = context.name();
         final PythonParser.Type_paramsContext typeParamsContext = context.type_params();
@@ -1742,74 +1609,70 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         final PythonParser.Func_type_commentContext typeCommentContext = context.func_type_comment();
         final PythonParser.BlockContext blockContext = context.block();
         final TerminalNode asyncTerminal = context.ASYNC();
-        final StringBuilder text = new StringBuilder();
         if (asyncTerminal != null) {
-            text.append(this.visit(asyncTerminal))
-                .append(' ');
+            this.visit(asyncTerminal);
+            this.output.append(' ');
         }
-        text.append(this.visit(defTerminal))
-            .append(' ')
-            .append(this.visit(nameContext));
+        this.visit(defTerminal);
+        this.output.append(' ');
+        this.visit(nameContext);
         if (typeParamsContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFunction_def_raw -> type_params");
         }
-        text.append(this.visit(lparTerminal));
+        this.visit(lparTerminal);
         if (paramsContext != null) {
-            text.append(this.visit(paramsContext));
+            this.visit(paramsContext);
         }
-        text.append(this.visit(rparTerminal));
+        this.visit(rparTerminal);
         if (rarrowTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFunction_def_raw -> rarrow");
         }
-        text.append(this.visit(colonTerminal));
+        this.visit(colonTerminal);
         if (typeCommentContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitFunction_def_raw -> func_type_comment");
         }
-        text.append(this.visit(blockContext));
-        return text.toString();
+        this.visit(blockContext);
+        return null;
     }
 
     @Override
-    public String visitParams(final PythonParser.ParamsContext context) {
+    public Void visitParams(final PythonParser.ParamsContext context) {
         final PythonParser.ParametersContext parametersContext = context.parameters();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(parametersContext));
-        return text.toString();
+        this.visit(parametersContext);
+        return null;
     }
 
     @Override
-    public String visitParameters(final PythonParser.ParametersContext context) {
+    public Void visitParameters(final PythonParser.ParametersContext context) {
         final PythonParser.FirstPartOfParametersContext firstPartOfParametersContext = context.firstPartOfParameters();
         final PythonParser.SecondPartOfParametersContext secondPartOfParametersContext = context.secondPartOfParameters();
         final PythonParser.ThirdPartOfParametersContext thirdPartOfParametersContext = context.thirdPartOfParameters();
         final PythonParser.FourthPartOfParametersContext fourthPartOfParametersContext = context.fourthPartOfParameters();
         final PythonParser.FifthPartOfParametersContext fifthPartOfParametersContext = context.fifthPartOfParameters();
-        final StringBuilder text = new StringBuilder();
         if (firstPartOfParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParameters -> firstPartOfParameters");
         } else if (secondPartOfParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParameters -> secondPartOfParameters");
         } else if (thirdPartOfParametersContext != null) {
-            text.append(this.visit(thirdPartOfParametersContext));
+            this.visit(thirdPartOfParametersContext);
         } else if (fourthPartOfParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParameters -> fourthPartOfParameters");
         } else if (fifthPartOfParametersContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParameters -> fifthPartOfParameters");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitThirdPartOfParameters(final PythonParser.ThirdPartOfParametersContext context) {
+    public Void visitThirdPartOfParameters(final PythonParser.ThirdPartOfParametersContext context) {
         final List<PythonParser.Param_no_defaultContext> paramNoDefaultContexts = context.param_no_default();
         final List<PythonParser.Param_with_defaultContext> paramWithDefaultContexts = context.param_with_default();
         final PythonParser.Star_etcContext starEtcContext = context.star_etc();
-        final StringBuilder text = new StringBuilder();
         for (int index = 0; index < paramNoDefaultContexts.size(); index++) {
             final PythonParser.Param_no_defaultContext paramNoDefaultContext = paramNoDefaultContexts.get(index);
-            text.append(this.visit(paramNoDefaultContext));
+            this.visit(paramNoDefaultContext);
             if (index < paramNoDefaultContexts.size() - 1) {
-                text.append(' ');
+                this.output.append(' ');
             }
         }
         if (!paramWithDefaultContexts.isEmpty()) {
@@ -1818,171 +1681,283 @@ public final class PythonVisitor extends PythonParserBaseVisitor<String> {
         if (starEtcContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitThirdPartOfParameters -> star_etc");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitParam_no_default(final PythonParser.Param_no_defaultContext context) {
+    public Void visitParam_no_default(final PythonParser.Param_no_defaultContext context) {
         final PythonParser.ParamContext paramContext = context.param();
         final TerminalNode commaTerminal = context.COMMA();
         final TerminalNode typeCommentTerminal = context.TYPE_COMMENT();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(paramContext));
+        this.visit(paramContext);
         if (commaTerminal != null) {
-            text.append(this.visit(commaTerminal));
+            this.visit(commaTerminal);
         }
         if (typeCommentTerminal != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParam_no_default -> TYPE_COMMENT");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitParam(final PythonParser.ParamContext context) {
+    public Void visitParam(final PythonParser.ParamContext context) {
         final PythonParser.NameContext nameContext = context.name();
         final PythonParser.AnnotationContext annotationContext = context.annotation();
-        final StringBuilder text = new StringBuilder();
-        text.append(this.visit(nameContext));
+        this.visit(nameContext);
         if (annotationContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitParam -> annotation");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitBlock(final PythonParser.BlockContext context) {
+    public Void visitBlock(final PythonParser.BlockContext context) {
         final TerminalNode newlineTerminal = context.NEWLINE();
         final TerminalNode indentTerminal = context.INDENT();
         final PythonParser.StatementsContext statementsContext = context.statements();
         final TerminalNode dedentTerminal = context.DEDENT();
         final PythonParser.Simple_stmtsContext simpleStmtsContext = context.simple_stmts();
-        final StringBuilder text = new StringBuilder();
         if (newlineTerminal != null) {
-            text.append(this.visit(newlineTerminal))
-                .append(this.visit(indentTerminal))
-                .append(this.visit(statementsContext));
+            this.visit(newlineTerminal);
+            this.visit(indentTerminal);
+            this.visit(statementsContext);
             final ParserRuleContext parent = context.getParent();
             if (parent instanceof PythonParser.Function_def_rawContext) {
-                text.append('\n');
+                if (this.movedBlankLines > 0) {
+                    // It's already written before the trailing comments.
+                    this.movedBlankLines--;
+                } else {
+                    this.output.append('\n');
+                }
             }
-            text.append(this.visit(dedentTerminal));
+            this.visit(dedentTerminal);
         } else if (simpleStmtsContext != null) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitBlock -> simple_stmts");
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitName(final PythonParser.NameContext context) {
-        final TerminalNode nameOrWildcardTerminal = context.NAME_OR_WILDCARD();
-        final PythonParser.Name_except_underscoreContext nameExceptUnderscoreContext = context.name_except_underscore();
-        final StringBuilder text = new StringBuilder();
-        if (nameOrWildcardTerminal != null) {
+    public Void visitName(final PythonParser.NameContext context) {
+        // NAME_OR_WILDCARD | name_except_underscore
+        final ParseTree child = context.getChild(0);
+        if (child instanceof TerminalNode) {
             throw new UnsupportedOperationException("The following parsing path is not supported yet: visitName -> NAME_OR_WILDCARD");
-        } else if (nameExceptUnderscoreContext != null) {
-            text.append(this.visit(nameExceptUnderscoreContext));
         }
-        return text.toString();
+        this.visit(child);
+        return null;
     }
 
     @Override
-    public String visitName_except_underscore(final PythonParser.Name_except_underscoreContext context) {
-        final TerminalNode nameTerminal = context.NAME();
-        final TerminalNode nameOrType = context.NAME_OR_TYPE();
-        final TerminalNode nameOrMatch = context.NAME_OR_MATCH();
-        final TerminalNode nameOrCase = context.NAME_OR_CASE();
-        final StringBuilder text = new StringBuilder();
-        if (nameTerminal != null) {
-            text.append(this.visit(nameTerminal));
-        } else if (nameOrType != null) {
-            text.append(this.visit(nameOrType));
-        } else if (nameOrMatch != null) {
-            text.append(this.visit(nameOrMatch));
-        } else if (nameOrCase != null) {
-            text.append(this.visit(nameOrCase));
-        }
-        return text.toString();
+    public Void visitName_except_underscore(final PythonParser.Name_except_underscoreContext context) {
+        // NAME | NAME_OR_TYPE | NAME_OR_MATCH | NAME_OR_CASE
+        this.visit(context.getChild(0));
+        return null;
     }
 
     @Override
-    public String visit(final ParseTree tree) {
-        final String ruleName = tree.getClass().getSimpleName();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Enter `{}` text: {}\n", ruleName, tree.getText());
+    public Void visit(final ParseTree tree) {
+        if (!(tree instanceof ParserRuleContext)) {
+            return tree.accept(this);
+        }
+        ParserRuleContext context = (ParserRuleContext) tree;
+        int ruleIndex = context.getRuleIndex();
+        this.ruleVisitCounts[ruleIndex]++;
+        if (!this.tracing) {
+            // Jump over the unit productions, but still count them as visited.
+            // With tracing, we visit them one by one below so that the tracer sees all of them.
+            while (passesThrough(context)) {
+                context = (ParserRuleContext) context.getChild(0);
+                ruleIndex = context.getRuleIndex();
+                this.ruleVisitCounts[ruleIndex]++;
+            }
+            return context.accept(this);
+        }
+        final int startToken = context.getStart().getTokenIndex();
+        final int stopToken;
+        if (context.getStop() == null) {
+            stopToken = -1;
+        } else {
+            stopToken = context.getStop().getTokenIndex();
+        }
+        this.tracer.enter(ruleIndex, startToken, stopToken);
+        if (passesThrough(context)) {
+            // The child may not be the type the visit method expects if the tree was compacted by TreeCompactor.
+            this.visit(context.getChild(0));
+        } else {
+            tree.accept(this);
+        }
+        this.tracer.exit(ruleIndex, startToken, stopToken);
+        return null;
+    }
+
+    /**
+     * Write the opening bracket and begin a group that goes on one line if it fits.
+     * Otherwise, the content is indented on its own lines.
+     * Without a line width, it's only the bracket.
+     *
+     * @param bracket As is.
+     */
+    private void openBrackets(final ParseTree bracket) {
+        if (this.wrapping) {
+            this.output.group();
+            this.visit(bracket);
+            this.currentIndentLevel++;
+            this.output.line(this.currentIndentLevel, "");
+        } else {
+            this.visit(bracket);
         }
-        this.ruleVisitCounts.putIfAbsent(ruleName, 0);
-        this.ruleVisitCounts.computeIfPresent(ruleName, (ignored, currentCount) -> currentCount + 1);
-        return tree.accept(this);
+    }
+
+    /**
+     * Write the closing bracket and end the group of {@link PythonVisitor#openBrackets(ParseTree)}.
+     *
+     * @param bracket As is.
+     */
+    private void closeBrackets(final ParseTree bracket) {
+        if (this.wrapping) {
+            this.currentIndentLevel--;
+            this.output.line(this.currentIndentLevel, "");
+            this.visit(bracket);
+            this.output.end();
+        } else {
+            this.visit(bracket);
+        }
+    }
+
+    /**
+     * A place between the items in brackets where the line can be broken.
+     * Without a line width, it's only the flat text.
+     *
+     * @param flat The text if the items are on one line.
+     */
+    private void softLine(final String flat) {
+        if (this.wrapping) {
+            this.output.line(this.currentIndentLevel, flat);
+        } else {
+            this.output.append(flat);
+        }
+    }
+
+    /**
+     * See {@link PythonVisitor#statementLines}.
+     *
+     * @return A copy.
+     */
+    public int[] statementLines() {
+        return this.statementLines.toArray();
+    }
+
+    /**
+     * See {@link PythonVisitor#statementOffsets}.
+     *
+     * @return A copy.
+     */
+    public int[] statementOffsets() {
+        return this.statementOffsets.toArray();
+    }
+
+    /**
+     * Number of visits of the rule so far.
+     * Compare it before and after visiting a child to find out whether the child visited the rule.
+     *
+     * @param ruleIndex Ex: {@link PythonParser#RULE_primary}.
+     * @return As is.
+     */
+    public int ruleVisitCount(final int ruleIndex) {
+        return this.ruleVisitCounts[ruleIndex];
+    }
+
+    /**
+     * A copy of the visit counts of all rules.
+     *
+     * @return Index - Rule index, Value - Number of visits.
+     */
+    public int[] ruleVisitCounts() {
+        return this.ruleVisitCounts.clone();
+    }
+
+    /**
+     * Whether we can jump over the context to its only child.
+     * See {@link PythonVisitor#PASS_THROUGH}.
+     *
+     * @param context As is.
+     * @return True if the rule is in {@link PythonVisitor#PASS_THROUGH} and its only child is a rule.
+     */
+    static boolean passesThrough(final ParserRuleContext context) {
+        return PASS_THROUGH[context.getRuleIndex()] &&
+            context.getChildCount() == 1 &&
+            context.getChild(0) instanceof ParserRuleContext;
+    }
+
+    /**
+     * Build {@link PythonVisitor#PASS_THROUGH}.
+     *
+     * @param ruleIndexes The rules to skip.
+     * @return Index - Rule index, Value - Whether we can skip it.
+     */
+    private static boolean[] passThrough(final int... ruleIndexes) {
+        final boolean[] result = new boolean[PythonParser.ruleNames.length];
+        for (final int ruleIndex : ruleIndexes) {
+            result[ruleIndex] = true;
+        }
+        return result;
     }
 
     @Override
-    public String visitTerminal(final TerminalNode node) {
+    public Void visitTerminal(final TerminalNode node) {
         final Token token = node.getSymbol();
         final int tokenIndex = token.getTokenIndex();
-        final int commentChannel = 3;
-        final List<Token> comments = this.tokens.getHiddenTokensToLeft(tokenIndex, commentChannel);
+        final int commentsFrom = this.tokens.commentsFrom(tokenIndex);
+        final int commentsTo = this.tokens.commentsTo(tokenIndex);
         final int type = token.getType();
-        final StringBuilder text = new StringBuilder();
-        int nextIndentCount = 0;
-        int nextDedentCount = 0;
-        int nextTokenIndex = token.getTokenIndex() + 1;
-        // Check if the next token is indent or dedent.
-        // Ignore WS in between.
-        while (nextTokenIndex < this.tokens.size()) {
-            final Token nextToken = this.tokens.get(nextTokenIndex);
-            final int nextTokenType = nextToken.getType();
-            if (nextTokenType == PythonLexer.WS) {
-                // Skip WS tokens.
-                nextTokenIndex++;
-            } else if (nextTokenType == PythonLexer.INDENT) {
-                nextIndentCount++;
-                nextTokenIndex++;
-            } else if (nextTokenType == PythonLexer.DEDENT) {
-                nextDedentCount++;
-                nextTokenIndex++;
-            } else {
-                break;
-            }
-        }
+        // Number of INDENT or DEDENT tokens right after this one.
+        final int nextIndentCount = this.tokens.indentsAfter(tokenIndex);
+        final int nextDedentCount = this.tokens.dedentsAfter(tokenIndex);
         if (type == PythonLexer.NEWLINE) {
-            if (comments != null) {
-                for (final Token comment : comments) {
-                    text.append('\n');
-                    text.append(INDENT_UNIT.repeat(this.currentIndentLevel + nextIndentCount - nextDedentCount));
-                    text.append(comment.getText());
+            final int nextLevel = this.currentIndentLevel + nextIndentCount - nextDedentCount;
+            if (commentsFrom < commentsTo) {
+                // The comments come after the functions that end here.
+                // We write the blank line of each of those functions before the comments instead of after them.
+                for (int index = this.functionLevels.size() - 1; index >= 0 && this.functionLevels.get(index) >= nextLevel; index--) {
+                    this.output.append('\n');
+                    this.movedBlankLines++;
                 }
             }
-            text.append('\n');
+            for (int position = commentsFrom; position < commentsTo; position++) {
+                this.output.append('\n');
+                this.output.indent(nextLevel);
+                this.output.append(this.tokens.comment(position).getText());
+            }
+            this.output.append('\n');
             if (nextIndentCount == 0 && nextDedentCount == 0) {
                 // Add indentation for the next line.
-                text.append(INDENT_UNIT.repeat(this.currentIndentLevel));
+                this.output.indent(this.currentIndentLevel);
             }
         } else if (type == PythonLexer.INDENT) {
             this.currentIndentLevel++;
             if (nextIndentCount == 0) {
-                text.append(INDENT_UNIT.repeat(this.currentIndentLevel));
+                this.output.indent(this.currentIndentLevel);
             }
         } else if (type == PythonLexer.DEDENT) {
             this.currentIndentLevel--;
             if (nextDedentCount == 0) {
-                text.append(INDENT_UNIT.repeat(this.currentIndentLevel));
+                this.output.indent(this.currentIndentLevel);
             }
         } else {
             // It's the case where the file begins with comments.
-            if (comments != null) {
-                for (final Token comment : comments) {
-                    text.append(comment.getText());
-                    text.append('\n')
-                        .append(INDENT_UNIT.repeat(this.currentIndentLevel));
-                }
+            for (int position = commentsFrom; position < commentsTo; position++) {
+                this.output.append(this.tokens.comment(position).getText());
+                this.output.append('\n');
+                this.output.indent(this.currentIndentLevel);
             }
-            text.append(node.getText());
+            this.output.append(node.getText());
         }
-        return text.toString();
+        return null;
     }
 
     @Override
-    public String visitChildren(final RuleNode node) {
+    public Void visitChildren(final RuleNode node) {
         throw new UnsupportedOperationException(
             String.format(
                 "The following rule is not implemented yet: %s text: %s",
@@ -0,0 +1,183 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Lookup tables built by a single pass over the tokens.
+ * {@link PythonVisitor#visitTerminal} used to scan the neighbors of every terminal,
+ * which allocated a list of comments for each token.
+ * With this, it's just a few array reads per token.
+ */
+final class TokenIndex {
+
+    /**
+     * Comments are on this channel.
+     * See the `COMMENT` rule in the lexer grammar.
+     */
+    static final int COMMENT_CHANNEL = 3;
+
+    /**
+     * Number of INDENT tokens right after each token, ignoring WS in between.
+     * The index is the token index.
+     */
+    private final int[] indents;
+
+    /**
+     * Number of DEDENT tokens right after each token, ignoring WS in between.
+     * The index is the token index.
+     */
+    private final int[] dedents;
+
+    /**
+     * All comments in order of appearance.
+     */
+    private final Token[] comments;
+
+    /**
+     * The first comment in {@link TokenIndex#comments} that belongs to the left of each token.
+     * The index is the token index.
+     */
+    private final int[] commentsFrom;
+
+    /**
+     * The end (exclusive) of the comments in {@link TokenIndex#comments} that belong to the left of each token.
+     * The index is the token index.
+     */
+    private final int[] commentsTo;
+
+    /**
+     * Constructor.
+     * It reads the rest of the tokens from the source if they haven't been read yet.
+     *
+     * @param stream As is.
+     */
+    TokenIndex(final BufferedTokenStream stream) {
+        stream.fill();
+        final int size = stream.size();
+        this.indents = new int[size];
+        this.dedents = new int[size];
+        this.commentsFrom = new int[size];
+        this.commentsTo = new int[size];
+        for (int index = size - 2; index >= 0; index--) {
+            final int next = index + 1;
+            final int nextType = type(stream, next);
+            if (nextType == PythonLexer.WS) {
+                this.indents[index] = this.indents[next];
+                this.dedents[index] = this.dedents[next];
+            } else if (nextType == PythonLexer.INDENT) {
+                this.indents[index] = this.indents[next] + 1;
+                this.dedents[index] = this.dedents[next];
+            } else if (nextType == PythonLexer.DEDENT) {
+                this.indents[index] = this.indents[next];
+                this.dedents[index] = this.dedents[next] + 1;
+            }
+        }
+        int commentCount = 0;
+        for (int index = 0; index < size; index++) {
+            if (channel(stream, index) == COMMENT_CHANNEL) {
+                commentCount++;
+            }
+        }
+        this.comments = new Token[commentCount];
+        // Same range as BufferedTokenStream#getHiddenTokensToLeft:
+        // everything after the previous token on the default channel.
+        int pending = 0;
+        int total = 0;
+        for (int index = 0; index < size; index++) {
+            final int channel = channel(stream, index);
+            this.commentsFrom[index] = pending;
+            this.commentsTo[index] = total;
+            if (channel == COMMENT_CHANNEL) {
+                this.comments[total] = stream.get(index);
+                total++;
+            } else if (channel == Lexer.DEFAULT_TOKEN_CHANNEL || type(stream, index) == Token.EOF) {
+                pending = total;
+            }
+        }
+    }
+
+    /**
+     * Number of INDENT tokens right after the token, ignoring WS in between.
+     *
+     * @param tokenIndex As is.
+     * @return As is.
+     */
+    int indentsAfter(final int tokenIndex) {
+        return this.indents[tokenIndex];
+    }
+
+    /**
+     * Number of DEDENT tokens right after the token, ignoring WS in between.
+     *
+     * @param tokenIndex As is.
+     * @return As is.
+     */
+    int dedentsAfter(final int tokenIndex) {
+        return this.dedents[tokenIndex];
+    }
+
+    /**
+     * Where the comments on the left of the token begin.
+     * Use it with {@link TokenIndex#commentsTo(int)} and {@link TokenIndex#comment(int)}.
+     *
+     * @param tokenIndex As is.
+     * @return Position for {@link TokenIndex#comment(int)}.
+     */
+    int commentsFrom(final int tokenIndex) {
+        return this.commentsFrom[tokenIndex];
+    }
+
+    /**
+     * Where the comments on the left of the token end (exclusive).
+     *
+     * @param tokenIndex As is.
+     * @return Position for {@link TokenIndex#comment(int)}.
+     */
+    int commentsTo(final int tokenIndex) {
+        return this.commentsTo[tokenIndex];
+    }
+
+    /**
+     * The comment at the position.
+     *
+     * @param position Between {@link TokenIndex#commentsFrom(int)} and {@link TokenIndex#commentsTo(int)}.
+     * @return As is.
+     */
+    Token comment(final int position) {
+        return this.comments[position];
+    }
+
+    /**
+     * The token type at the index.
+     * We don't create the token if the stream is a {@link ColumnarTokenStream}.
+     *
+     * @param stream As is.
+     * @param index Token index.
+     * @return As is.
+     */
+    private static int type(final BufferedTokenStream stream, final int index) {
+        if (stream instanceof ColumnarTokenStream) {
+            return ((ColumnarTokenStream) stream).type(index);
+        }
+        return stream.get(index).getType();
+    }
+
+    /**
+     * The channel at the index.
+     * We don't create the token if the stream is a {@link ColumnarTokenStream}.
+     *
+     * @param stream As is.
+     * @param index Token index.
+     * @return As is.
+     */
+    private static int channel(final BufferedTokenStream stream, final int index) {
+        if (stream instanceof ColumnarTokenStream) {
+            return ((ColumnarTokenStream) stream).channel(index);
+        }
+        return stream.get(index).getChannel();
+    }
+
+}
@@ -0,0 +1,471 @@
+package com.levelrin;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * The result of {@link IncrementalLexer}.
+ * Besides the tokens, it remembers the lexer state at the start of each logical line,
+ * so the next edit can resume lexing from the last one before it.
+ * The tokens and the checkpoints are kept as pieces of the lists lexed by the previous edits,
+ * each moved by the offsets of the edits after it.
+ * So an edit shares the unchanged parts instead of copying them, and the offsets are applied only when a token is read.
+ * It's immutable.
+ */
+public final class TokenSnapshot {
+
+    /**
+     * Adjacent pieces are copied into one if they have this many tokens or fewer together.
+     * So there are at most two pieces per this many tokens, and a copy never takes more than this.
+     */
+    private static final int SMALL = 512;
+
+    /**
+     * The code that was lexed.
+     */
+    private final String source;
+
+    /**
+     * The lexer and the input that the tokens from {@link TokenSnapshot#tokens()} belong to.
+     */
+    private final Pair<TokenSource, CharStream> origin;
+
+    /**
+     * The tokens and the checkpoints in the order of their positions.
+     */
+    private final List<Piece> pieces;
+
+    /**
+     * Number of tokens before each piece, and the total at the end.
+     */
+    private final int[] tokenStarts;
+
+    /**
+     * Number of checkpoints before each piece, and the total at the end.
+     */
+    private final int[] markStarts;
+
+    /**
+     * Number of tokens that were lexed to build this snapshot.
+     * The other tokens were reused from the previous snapshot.
+     */
+    private final int lexed;
+
+    /**
+     * Constructor.
+     *
+     * @param source See {@link TokenSnapshot#source}.
+     * @param origin See {@link TokenSnapshot#origin}.
+     * @param pieces See {@link TokenSnapshot#pieces}. The small ones are merged here.
+     * @param lexed See {@link TokenSnapshot#lexed}.
+     */
+    TokenSnapshot(final String source, final Pair<TokenSource, CharStream> origin, final List<Piece> pieces, final int lexed) {
+        this.source = source;
+        this.origin = origin;
+        this.pieces = merged(pieces);
+        this.tokenStarts = new int[this.pieces.size() + 1];
+        this.markStarts = new int[this.pieces.size() + 1];
+        for (int index = 0; index < this.pieces.size(); index++) {
+            this.tokenStarts[index + 1] = this.tokenStarts[index] + this.pieces.get(index).tokenCount();
+            this.markStarts[index + 1] = this.markStarts[index] + this.pieces.get(index).markCount();
+        }
+        this.lexed = lexed;
+    }
+
+    /**
+     * See {@link TokenSnapshot#source}.
+     *
+     * @return As is.
+     */
+    public String source() {
+        return this.source;
+    }
+
+    /**
+     * All tokens of the code, including the hidden ones and the EOF token.
+     * Use {@link org.antlr.v4.runtime.ListTokenSource} to parse them.
+     * Each call of {@link List#get(int)} creates a token, so read each of them once.
+     *
+     * @return An unmodifiable list.
+     */
+    public List<Token> tokens() {
+        return new Tokens();
+    }
+
+    /**
+     * See {@link TokenSnapshot#lexed}.
+     *
+     * @return As is.
+     */
+    public int lexed() {
+        return this.lexed;
+    }
+
+    /**
+     * Number of checkpoints.
+     *
+     * @return As is.
+     */
+    int markCount() {
+        return this.markStarts[this.pieces.size()];
+    }
+
+    /**
+     * The checkpoint at the index, in the order of their positions.
+     *
+     * @param index As is.
+     * @return As is.
+     */
+    IncrementalLexer.Mark mark(final int index) {
+        final int piece = find(this.markStarts, this.pieces.size(), index);
+        return this.pieces.get(piece).mark(index - this.markStarts[piece]);
+    }
+
+    /**
+     * The pieces of the first tokens, with the checkpoints among them.
+     *
+     * @param count Number of tokens.
+     * @return As is.
+     */
+    List<Piece> head(final int count) {
+        final List<Piece> result = new ArrayList<>();
+        for (int index = 0; index < this.pieces.size() && this.tokenStarts[index] < count; index++) {
+            if (this.tokenStarts[index + 1] <= count) {
+                result.add(this.pieces.get(index));
+            } else {
+                result.add(this.pieces.get(index).head(count - this.tokenStarts[index], count));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The pieces of the tokens after the first ones, with the checkpoints among them, moved by an edit before them.
+     *
+     * @param count Number of the first tokens to skip.
+     * @param indexDelta How many characters the edit has added.
+     * @param lineDelta How many lines the edit has added.
+     * @param tokenDelta How many tokens the edit has added.
+     * @return As is.
+     */
+    List<Piece> tail(final int count, final int indexDelta, final int lineDelta, final int tokenDelta) {
+        final List<Piece> result = new ArrayList<>();
+        for (int index = 0; index < this.pieces.size(); index++) {
+            if (this.tokenStarts[index + 1] <= count) {
+                continue;
+            }
+            Piece piece = this.pieces.get(index);
+            if (this.tokenStarts[index] < count) {
+                piece = piece.tail(count - this.tokenStarts[index], count);
+            }
+            result.add(piece.shift(indexDelta, lineDelta, tokenDelta));
+        }
+        return result;
+    }
+
+    /**
+     * The piece that has the item at the index.
+     *
+     * @param starts Number of items before each piece, and the total at the end.
+     * @param count Number of pieces.
+     * @param index The index of the item.
+     * @return The index of the piece.
+     */
+    private static int find(final int[] starts, final int count, final int index) {
+        if (index < 0 || index >= starts[count]) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, starts[count]));
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (starts[middle + 1] > index) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Drop the empty pieces and copy the adjacent small ones into one.
+     *
+     * @param pieces As is.
+     * @return As is.
+     */
+    private static List<Piece> merged(final List<Piece> pieces) {
+        final List<Piece> result = new ArrayList<>(pieces.size());
+        for (final Piece piece : pieces) {
+            if (piece.tokenCount() == 0) {
+                continue;
+            }
+            final int last = result.size() - 1;
+            if (last >= 0 && result.get(last).tokenCount() + piece.tokenCount() <= SMALL) {
+                result.set(last, Piece.copy(result.get(last), piece));
+            } else {
+                result.add(piece);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A range of tokens and the checkpoints among them, which were lexed together, moved by the edits after that.
+     * A piece of the tokens from A to B (exclusive) has the checkpoints taken after A tokens and before B tokens, inclusive.
+     * The tokens don't belong to any input, so a piece doesn't keep the code it was lexed from.
+     */
+    static final class Piece {
+
+        /**
+         * The tokens as they were lexed.
+         */
+        private final List<Token> tokens;
+
+        /**
+         * The checkpoints as they were taken.
+         */
+        private final List<IncrementalLexer.Mark> marks;
+
+        /**
+         * The first token of this piece in {@link Piece#tokens}.
+         */
+        private final int tokenFrom;
+
+        /**
+         * After the last token of this piece in {@link Piece#tokens}.
+         */
+        private final int tokenTo;
+
+        /**
+         * The first checkpoint of this piece in {@link Piece#marks}.
+         */
+        private final int markFrom;
+
+        /**
+         * After the last checkpoint of this piece in {@link Piece#marks}.
+         */
+        private final int markTo;
+
+        /**
+         * How many characters the edits have moved the tokens by.
+         */
+        private final int indexDelta;
+
+        /**
+         * How many lines the edits have moved the tokens by.
+         */
+        private final int lineDelta;
+
+        /**
+         * How many tokens the edits have added before the checkpoints.
+         */
+        private final int tokenDelta;
+
+        /**
+         * Constructor for the tokens and the checkpoints that were just lexed.
+         *
+         * @param tokens The tokens that don't belong to any input. See {@link Piece#tokens}.
+         * @param marks See {@link Piece#marks}.
+         */
+        Piece(final List<Token> tokens, final List<IncrementalLexer.Mark> marks) {
+            this(tokens, marks, 0, tokens.size(), 0, marks.size(), 0, 0, 0);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param tokens See {@link Piece#tokens}.
+         * @param marks See {@link Piece#marks}.
+         * @param tokenFrom See {@link Piece#tokenFrom}.
+         * @param tokenTo See {@link Piece#tokenTo}.
+         * @param markFrom See {@link Piece#markFrom}.
+         * @param markTo See {@link Piece#markTo}.
+         * @param indexDelta See {@link Piece#indexDelta}.
+         * @param lineDelta See {@link Piece#lineDelta}.
+         * @param tokenDelta See {@link Piece#tokenDelta}.
+         */
+        @SuppressWarnings("ParameterNumber")
+        private Piece(
+            final List<Token> tokens,
+            final List<IncrementalLexer.Mark> marks,
+            final int tokenFrom,
+            final int tokenTo,
+            final int markFrom,
+            final int markTo,
+            final int indexDelta,
+            final int lineDelta,
+            final int tokenDelta
+        ) {
+            this.tokens = tokens;
+            this.marks = marks;
+            this.tokenFrom = tokenFrom;
+            this.tokenTo = tokenTo;
+            this.markFrom = markFrom;
+            this.markTo = markTo;
+            this.indexDelta = indexDelta;
+            this.lineDelta = lineDelta;
+            this.tokenDelta = tokenDelta;
+        }
+
+        /**
+         * Copy two adjacent pieces into one that is not moved.
+         *
+         * @param first As is.
+         * @param second As is.
+         * @return As is.
+         */
+        static Piece copy(final Piece first, final Piece second) {
+            final List<Token> tokens = new ArrayList<>(first.tokenCount() + second.tokenCount());
+            final List<IncrementalLexer.Mark> marks = new ArrayList<>(first.markCount() + second.markCount());
+            for (final Piece piece : new Piece[] {first, second}) {
+                for (int index = 0; index < piece.tokenCount(); index++) {
+                    tokens.add(piece.token(index, null, null));
+                }
+                for (int index = 0; index < piece.markCount(); index++) {
+                    marks.add(piece.mark(index));
+                }
+            }
+            return new Piece(tokens, marks);
+        }
+
+        /**
+         * As is.
+         *
+         * @return As is.
+         */
+        int tokenCount() {
+            return this.tokenTo - this.tokenFrom;
+        }
+
+        /**
+         * As is.
+         *
+         * @return As is.
+         */
+        int markCount() {
+            return this.markTo - this.markFrom;
+        }
+
+        /**
+         * The token at the index in this piece, moved and attached to the input.
+         *
+         * @param index As is.
+         * @param lexer The token source of the input.
+         * @param input As is.
+         * @return A new token.
+         */
+        Token token(final int index, final TokenSource lexer, final CharStream input) {
+            return PythonLexerBase.shiftToken(this.tokens.get(this.tokenFrom + index), this.indexDelta, this.lineDelta, lexer, input);
+        }
+
+        /**
+         * The checkpoint at the index in this piece, moved.
+         *
+         * @param index As is.
+         * @return As is.
+         */
+        IncrementalLexer.Mark mark(final int index) {
+            return this.marks.get(this.markFrom + index).shift(this.indexDelta, this.lineDelta, this.tokenDelta);
+        }
+
+        /**
+         * The first tokens of this piece.
+         *
+         * @param count Number of tokens.
+         * @param limit Number of tokens before the end of the result in the snapshot. The checkpoints after it are dropped.
+         * @return As is.
+         */
+        Piece head(final int count, final int limit) {
+            return new Piece(
+                this.tokens, this.marks,
+                this.tokenFrom, this.tokenFrom + count,
+                this.markFrom, this.firstMarkAfter(limit),
+                this.indexDelta, this.lineDelta, this.tokenDelta
+            );
+        }
+
+        /**
+         * The tokens of this piece after the first ones.
+         *
+         * @param count Number of the first tokens to skip.
+         * @param limit Number of tokens before the beginning of the result in the snapshot. The checkpoints until it are dropped.
+         * @return As is.
+         */
+        Piece tail(final int count, final int limit) {
+            return new Piece(
+                this.tokens, this.marks,
+                this.tokenFrom + count, this.tokenTo,
+                this.firstMarkAfter(limit), this.markTo,
+                this.indexDelta, this.lineDelta, this.tokenDelta
+            );
+        }
+
+        /**
+         * This piece moved by an edit before it.
+         *
+         * @param index How many characters the edit has added.
+         * @param line How many lines the edit has added.
+         * @param token How many tokens the edit has added.
+         * @return As is.
+         */
+        Piece shift(final int index, final int line, final int token) {
+            return new Piece(
+                this.tokens, this.marks,
+                this.tokenFrom, this.tokenTo,
+                this.markFrom, this.markTo,
+                this.indexDelta + index, this.lineDelta + line, this.tokenDelta + token
+            );
+        }
+
+        /**
+         * The first checkpoint of this piece that was taken after more tokens than the limit.
+         *
+         * @param limit Number of tokens in the snapshot.
+         * @return The index in {@link Piece#marks}.
+         */
+        private int firstMarkAfter(final int limit) {
+            int low = this.markFrom;
+            int high = this.markTo;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (this.marks.get(middle).tokens() + this.tokenDelta > limit) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+    }
+
+    /**
+     * The tokens of all pieces, attached to {@link TokenSnapshot#origin}.
+     */
+    private final class Tokens extends AbstractList<Token> implements RandomAccess {
+
+        @Override
+        public Token get(final int index) {
+            final int piece = find(TokenSnapshot.this.tokenStarts, TokenSnapshot.this.pieces.size(), index);
+            return TokenSnapshot.this.pieces.get(piece).token(
+                index - TokenSnapshot.this.tokenStarts[piece],
+                TokenSnapshot.this.origin.a,
+                TokenSnapshot.this.origin.b
+            );
+        }
+
+        @Override
+        public int size() {
+            return TokenSnapshot.this.tokenStarts[TokenSnapshot.this.pieces.size()];
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonParser;
+
+/**
+ * It receives an event whenever {@link PythonVisitor} enters or exits a rule.
+ * The events carry the rule index and the token range instead of the text,
+ * so tracing doesn't rebuild the text of every subtree.
+ * Use {@link Tracer#NONE} to turn it off. The visitor doesn't even build the events in that case.
+ * Implementations must be thread-safe if the {@link PythonFormatter} is shared among threads.
+ */
+public interface Tracer {
+
+    /**
+     * It ignores everything.
+     */
+    Tracer NONE = new Tracer() {
+        @Override
+        public boolean sample() {
+            return false;
+        }
+
+        @Override
+        public void enter(final int ruleIndex, final int startToken, final int stopToken) {
+            // Nothing to do.
+        }
+
+        @Override
+        public void exit(final int ruleIndex, final int startToken, final int stopToken) {
+            // Nothing to do.
+        }
+    };
+
+    /**
+     * It's called once per input before the visitor starts.
+     * The events of the input are reported to this tracer only if it returns true.
+     * The events are reported from the thread that called this method.
+     *
+     * @return Whether to trace the input.
+     */
+    boolean sample();
+
+    /**
+     * We are about to visit the rule.
+     *
+     * @param ruleIndex Ex: {@link PythonParser#RULE_file_input}.
+     * @param startToken Index of the first token of the rule.
+     * @param stopToken Index of the last token of the rule, or -1 if the rule matched nothing.
+     */
+    void enter(int ruleIndex, int startToken, int stopToken);
+
+    /**
+     * We finished visiting the rule.
+     *
+     * @param ruleIndex Ex: {@link PythonParser#RULE_file_input}.
+     * @param startToken Index of the first token of the rule.
+     * @param stopToken Index of the last token of the rule, or -1 if the rule matched nothing.
+     */
+    void exit(int ruleIndex, int startToken, int stopToken);
+
+}
@@ -0,0 +1,72 @@
+package com.levelrin;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * It makes the parse tree smaller while the parser builds it.
+ * Whenever a rule is finished, we remove the unit productions below it,
+ * the same ones {@link PythonVisitor} jumps over (see {@link PythonVisitor#passesThrough}).
+ * For example, `star_expressions -> star_expression -> expression -> ... -> primary -> atom`
+ * becomes `star_expressions -> atom`.
+ * The first rule of the chain stays because its parent expects that type.
+ * The removed contexts become garbage right away instead of living until the formatting is done.
+ * We also trim the children list of each finished rule to its size.
+ * The formatted code is the same, but {@link PythonVisitor#ruleVisitCount(int)} doesn't count the removed rules.
+ * It's stateless, so all parsers can share it.
+ */
+final class TreeCompactor implements ParseTreeListener {
+
+    /**
+     * The shared instance.
+     */
+    static final TreeCompactor INSTANCE = new TreeCompactor();
+
+    /**
+     * Use {@link TreeCompactor#INSTANCE}.
+     */
+    private TreeCompactor() {
+    }
+
+    @Override
+    public void visitTerminal(final TerminalNode node) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void visitErrorNode(final ErrorNode node) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void enterEveryRule(final ParserRuleContext context) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void exitEveryRule(final ParserRuleContext context) {
+        final List<ParseTree> children = context.children;
+        if (children == null) {
+            return;
+        }
+        if (PythonVisitor.passesThrough(context)) {
+            // The child is usually compacted already, so this loop takes one or two steps.
+            // Left-recursive rules don't get the exit event for their inner contexts, so it may take more.
+            ParserRuleContext bottom = (ParserRuleContext) children.get(0);
+            while (PythonVisitor.passesThrough(bottom)) {
+                bottom = (ParserRuleContext) bottom.getChild(0);
+            }
+            bottom.setParent(context);
+            children.set(0, bottom);
+        }
+        if (children instanceof ArrayList) {
+            ((ArrayList<ParseTree>) children).trimToSize();
+        }
+    }
+
+}
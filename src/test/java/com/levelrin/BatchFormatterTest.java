@@ -0,0 +1,115 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class BatchFormatterTest {
+
+    @Test
+    void shouldFormatDirectoryTree(@TempDir final Path root) throws IOException, URISyntaxException {
+        final Path nested = Files.createDirectories(root.resolve("nested"));
+        final Path first = nested.resolve("first.py");
+        final Path second = root.resolve("second.py");
+        final Path ignored = root.resolve("ignored.txt");
+        Files.writeString(first, TestResources.read("main-before.py"), StandardCharsets.UTF_8);
+        Files.writeString(second, TestResources.read("while-after.py"), StandardCharsets.UTF_8);
+        Files.writeString(ignored, "x  =  1", StandardCharsets.UTF_8);
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), true).format(List.of(root));
+        MatcherAssert.assertThat(report.files(), Matchers.equalTo(2L));
+        MatcherAssert.assertThat(report.unchanged(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(report.changed(), Matchers.contains(first));
+        MatcherAssert.assertThat(
+            Files.readString(first, StandardCharsets.UTF_8),
+            Matchers.equalTo(TestResources.read("main-after.py"))
+        );
+        MatcherAssert.assertThat(Files.readString(ignored, StandardCharsets.UTF_8), Matchers.equalTo("x  =  1"));
+    }
+
+    @Test
+    void shouldNotWriteInCheckMode(@TempDir final Path root) throws IOException, URISyntaxException {
+        final Path file = root.resolve("main.py");
+        final String original = TestResources.read("main-before.py");
+        Files.writeString(file, original, StandardCharsets.UTF_8);
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), false).format(List.of(root));
+        MatcherAssert.assertThat(report.changed(), Matchers.contains(file));
+        MatcherAssert.assertThat(Files.readString(file, StandardCharsets.UTF_8), Matchers.equalTo(original));
+    }
+
+    @Test
+    void shouldSkipCachedFiles(@TempDir final Path root, @TempDir final Path cacheDirectory) throws IOException, URISyntaxException {
+        final Path file = root.resolve("main.py");
+        Files.writeString(file, TestResources.read("main-before.py"), StandardCharsets.UTF_8);
+        final PythonFormatter formatter = new PythonFormatter();
+        final DiskCache cache = new DiskCache(cacheDirectory, 1024 * 1024);
+        new BatchFormatter(formatter, ForkJoinPool.commonPool(), false, cache).format(List.of(root));
+        final BatchReport report = new BatchFormatter(formatter, ForkJoinPool.commonPool(), false, cache).format(List.of(root));
+        MatcherAssert.assertThat(formatter.statistics().sll(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(report.changed(), Matchers.contains(file));
+    }
+
+    @Test
+    void shouldKeepTheDeclaredEncoding(@TempDir final Path root) throws IOException {
+        final Path file = root.resolve("latin1.py");
+        Files.writeString(file, "# coding: latin-1\nname  =  'Jos\u00e9'\n", StandardCharsets.ISO_8859_1);
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), true).format(List.of(root));
+        MatcherAssert.assertThat(report.changed(), Matchers.contains(file));
+        MatcherAssert.assertThat(
+            Files.readString(file, StandardCharsets.ISO_8859_1),
+            Matchers.equalTo("# coding: latin-1\nname = 'Jos\u00e9'\n")
+        );
+    }
+
+    @Test
+    void shouldNotRewriteInvalidBytes(@TempDir final Path root) throws IOException {
+        final Path file = root.resolve("undeclared.py");
+        final byte[] original = "name  =  'Jos\u00e9'\n".getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(file, original);
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), true).format(List.of(root));
+        MatcherAssert.assertThat(report.failed().keySet(), Matchers.contains(file));
+        MatcherAssert.assertThat(Files.readAllBytes(file), Matchers.equalTo(original));
+    }
+
+    @Test
+    void shouldRecordFailuresWithoutStopping(@TempDir final Path root) throws IOException, URISyntaxException {
+        final Path broken = root.resolve("broken.py");
+        final Path valid = root.resolve("valid.py");
+        Files.writeString(broken, "def (:\n", StandardCharsets.UTF_8);
+        Files.writeString(valid, TestResources.read("main-before.py"), StandardCharsets.UTF_8);
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), true).format(List.of(root));
+        MatcherAssert.assertThat(report.failed().keySet(), Matchers.contains(broken));
+        MatcherAssert.assertThat(report.changed(), Matchers.contains(valid));
+    }
+
+    @Test
+    void shouldRecordUnexpectedErrorsPerFile(@TempDir final Path root) throws IOException, URISyntaxException {
+        final Path first = root.resolve("first.py");
+        final Path second = root.resolve("second.py");
+        Files.writeString(first, TestResources.read("main-before.py"), StandardCharsets.UTF_8);
+        Files.writeString(second, TestResources.read("while-before.py"), StandardCharsets.UTF_8);
+        final FormatCache broken = new FormatCache() {
+            @Override
+            public String lookup(final byte[] input) {
+                throw new IllegalStateException("The cache is broken.");
+            }
+
+            @Override
+            public void store(final byte[] input, final String formatted) {
+                throw new IllegalStateException("The cache is broken.");
+            }
+        };
+        final BatchReport report = new BatchFormatter(new PythonFormatter(), ForkJoinPool.commonPool(), true, broken).format(List.of(root));
+        MatcherAssert.assertThat(report.files(), Matchers.equalTo(2L));
+        MatcherAssert.assertThat(report.failed().keySet(), Matchers.containsInAnyOrder(first, second));
+        MatcherAssert.assertThat(report.failed().get(first), Matchers.containsString("The cache is broken."));
+    }
+
+}
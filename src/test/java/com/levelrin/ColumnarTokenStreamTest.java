@@ -0,0 +1,77 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class ColumnarTokenStreamTest {
+
+    @Test
+    void shouldHaveTheSameTokensAsCommonTokenStream() throws IOException, URISyntaxException {
+        for (final Path file : TestResources.files(".py")) {
+            final CommonTokenStream expected = new CommonTokenStream(new PythonLexer(CharStreams.fromPath(file)));
+            final ColumnarTokenStream actual = new ColumnarTokenStream(new PythonLexer(CharStreams.fromPath(file)));
+            expected.fill();
+            actual.fill();
+            MatcherAssert.assertThat(file.toString(), actual.size(), Matchers.equalTo(expected.size()));
+            for (int index = 0; index < expected.size(); index++) {
+                MatcherAssert.assertThat(file.toString(), actual.get(index).toString(), Matchers.equalTo(expected.get(index).toString()));
+                MatcherAssert.assertThat(file.toString(), actual.channel(index), Matchers.equalTo(expected.get(index).getChannel()));
+                MatcherAssert.assertThat(file.toString(), actual.type(index), Matchers.equalTo(expected.get(index).getType()));
+            }
+        }
+    }
+
+    @Test
+    void shouldFindTheSameHiddenTokensToLeft() throws IOException, URISyntaxException {
+        for (final Path file : TestResources.files(".py")) {
+            final CommonTokenStream expected = new CommonTokenStream(new PythonLexer(CharStreams.fromPath(file)));
+            final ColumnarTokenStream actual = new ColumnarTokenStream(new PythonLexer(CharStreams.fromPath(file)));
+            expected.fill();
+            actual.fill();
+            for (int index = 0; index < expected.size(); index++) {
+                MatcherAssert.assertThat(
+                    file.toString(),
+                    String.valueOf(actual.getHiddenTokensToLeft(index, TokenIndex.COMMENT_CHANNEL)),
+                    Matchers.equalTo(String.valueOf(expected.getHiddenTokensToLeft(index, TokenIndex.COMMENT_CHANNEL)))
+                );
+            }
+        }
+    }
+
+    @Test
+    void shouldLookAheadOnTheDefaultChannelOnly() {
+        final ColumnarTokenStream stream = new ColumnarTokenStream(new PythonLexer(CharStreams.fromString("a = 1  # one\n")));
+        MatcherAssert.assertThat(stream.LA(1), Matchers.equalTo(PythonLexer.NAME));
+        MatcherAssert.assertThat(stream.LA(2), Matchers.equalTo(PythonLexer.EQUAL));
+        MatcherAssert.assertThat(stream.LA(3), Matchers.equalTo(PythonLexer.NUMBER));
+        MatcherAssert.assertThat(stream.LA(4), Matchers.equalTo(PythonLexer.NEWLINE));
+        MatcherAssert.assertThat(stream.LA(5), Matchers.equalTo(Token.EOF));
+        MatcherAssert.assertThat(stream.LT(3).getText(), Matchers.equalTo("1"));
+    }
+
+    @Test
+    void shouldKeepTheTokensOfThePreviousSource() {
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString("first\n"));
+        final ColumnarTokenStream stream = new ColumnarTokenStream(lexer);
+        stream.fill();
+        final List<Token> previous = stream.getTokens();
+        // The first token is ENCODING, which the lexer inserts.
+        final Token first = previous.get(1);
+        lexer.setInputStream(CharStreams.fromString("second = 2\n"));
+        stream.setTokenSource(lexer);
+        stream.fill();
+        MatcherAssert.assertThat(first.getText(), Matchers.equalTo("first"));
+        MatcherAssert.assertThat(stream.get(1).getText(), Matchers.equalTo("second"));
+        MatcherAssert.assertThat(stream.get(1), Matchers.sameInstance(stream.get(1)));
+    }
+
+}
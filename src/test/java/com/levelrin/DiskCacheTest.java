@@ -0,0 +1,139 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class DiskCacheTest {
+
+    @Test
+    void shouldReturnTheStoredOutput(@TempDir final Path root) throws IOException {
+        final DiskCache cache = new DiskCache(root, 1024 * 1024);
+        final byte[] changed = "x  =  1\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] unchanged = "x = 1\n".getBytes(StandardCharsets.UTF_8);
+        cache.store(changed, "x = 1\n");
+        cache.store(unchanged, "x = 1\n");
+        MatcherAssert.assertThat(cache.lookup(changed), Matchers.equalTo("x = 1\n"));
+        MatcherAssert.assertThat(cache.lookup(unchanged), Matchers.equalTo("x = 1\n"));
+        MatcherAssert.assertThat(cache.lookup("y = 2\n".getBytes(StandardCharsets.UTF_8)), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldKeepTheOutputOfOtherEncodings(@TempDir final Path root) throws IOException {
+        final DiskCache cache = new DiskCache(root, 1024 * 1024);
+        final byte[] input = "# -*- coding: latin-1 -*-\nx = '\u00e9'\n".getBytes(StandardCharsets.ISO_8859_1);
+        final String formatted = new String(input, StandardCharsets.ISO_8859_1);
+        cache.store(input, formatted);
+        MatcherAssert.assertThat(cache.lookup(input), Matchers.equalTo(formatted));
+    }
+
+    @Test
+    void shouldBeSharedByInstances(@TempDir final Path root) throws IOException {
+        final byte[] input = "x  =  1\n".getBytes(StandardCharsets.UTF_8);
+        new DiskCache(root, 1024 * 1024).store(input, "x = 1\n");
+        MatcherAssert.assertThat(new DiskCache(root, 1024 * 1024).lookup(input), Matchers.equalTo("x = 1\n"));
+        MatcherAssert.assertThat(this.files(root, ".tmp"), Matchers.empty());
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyUsedEntries(@TempDir final Path root) throws IOException {
+        final String output = "a".repeat(100);
+        final DiskCache cache = new DiskCache(root, 1024 * 1024);
+        final byte[] oldest = "1".getBytes(StandardCharsets.UTF_8);
+        final byte[] middle = "2".getBytes(StandardCharsets.UTF_8);
+        final byte[] newest = "3".getBytes(StandardCharsets.UTF_8);
+        cache.store(oldest, output);
+        cache.store(middle, output);
+        cache.store(newest, output);
+        final List<Path> entries = this.files(root, "");
+        for (final Path entry : entries) {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(0));
+        }
+        // Hits refresh the entries.
+        cache.lookup(middle);
+        cache.lookup(newest);
+        MatcherAssert.assertThat(new DiskCache(root, 250).evict(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(cache.lookup(oldest), Matchers.nullValue());
+        MatcherAssert.assertThat(cache.lookup(middle), Matchers.equalTo(output));
+        MatcherAssert.assertThat(cache.lookup(newest), Matchers.equalTo(output));
+    }
+
+    @Test
+    void shouldIgnoreTheEntriesEvictedByOthers(@TempDir final Path root) throws Exception {
+        final DiskCache cache = new DiskCache(root, 1);
+        final AtomicBoolean done = new AtomicBoolean();
+        // Another process evicts the entries and their directories while we walk them.
+        final Thread other = new Thread(
+            () -> {
+                while (!done.get()) {
+                    try (Stream<Path> paths = Files.list(root)) {
+                        paths.forEach(this::deleteTree);
+                    } catch (final IOException | UncheckedIOException ex) {
+                        // We race with the cache, too.
+                    }
+                }
+            }
+        );
+        other.start();
+        try {
+            for (int index = 0; index < 2000; index++) {
+                cache.store(Integer.toString(index).getBytes(StandardCharsets.UTF_8), "x = 1\n");
+                cache.evict();
+            }
+            cache.close();
+        } finally {
+            done.set(true);
+            other.join();
+        }
+    }
+
+    /**
+     * All files in the directory tree with the suffix.
+     *
+     * @param root As is.
+     * @param suffix As is.
+     * @return As is.
+     * @throws IOException If we fail to walk the directory.
+     */
+    List<Path> files(final Path root, final String suffix) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                .filter(path -> path.toString().endsWith(suffix))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Delete the directory tree, ignoring the files that are already gone.
+     *
+     * @param path As is.
+     */
+    void deleteTree(final Path path) {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(
+                file -> {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (final IOException ex) {
+                        // The directory is not empty yet, or the cache has deleted it.
+                    }
+                }
+            );
+        } catch (final IOException | UncheckedIOException ex) {
+            // The cache has deleted it.
+        }
+    }
+
+}
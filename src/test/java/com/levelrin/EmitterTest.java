@@ -0,0 +1,79 @@
+package com.levelrin;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class EmitterTest {
+
+    /**
+     * Write a list like `[a, b]` as a group.
+     *
+     * @param output As is.
+     * @param items As is.
+     */
+    void list(final Emitter output, final String... items) {
+        output.group().append('[').line(1, "");
+        for (int index = 0; index < items.length; index++) {
+            if (index > 0) {
+                output.append(',').line(1, " ");
+            }
+            output.append(items[index]);
+        }
+        output.ifBreak(",", "").line(0, "").append(']').end();
+    }
+
+    @Test
+    void shouldKeepTheGroupOnOneLineIfItFits() {
+        final StringBuilder sink = new StringBuilder();
+        final Emitter output = new Emitter(sink, 14);
+        output.append("x = ");
+        this.list(output, "1", "2", "3");
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("x = [1, 2, 3]"));
+        MatcherAssert.assertThat(output.position(), Matchers.equalTo(13));
+    }
+
+    @Test
+    void shouldBreakTheGroupIfItDoesNotFit() {
+        final StringBuilder sink = new StringBuilder();
+        final Emitter output = new Emitter(sink, 12);
+        output.append("x = ");
+        this.list(output, "1", "2", "3");
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("x = [\n    1,\n    2,\n    3,\n]"));
+    }
+
+    @Test
+    void shouldBreakEveryGroupWithZeroWidth() {
+        final StringBuilder sink = new StringBuilder();
+        this.list(new Emitter(sink), "1");
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("[\n    1,\n]"));
+    }
+
+    @Test
+    void shouldDecideTheInnerGroupOnItsOwn() {
+        final StringBuilder sink = new StringBuilder();
+        final Emitter output = new Emitter(sink, 18);
+        output.group().append('[').line(1, "");
+        output.append("aaaaaaaaaa,").line(1, " ");
+        this.list(output, "b", "c");
+        output.line(0, "").append(']').end();
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("[\n    aaaaaaaaaa,\n    [b, c]\n]"));
+    }
+
+    @Test
+    void shouldBreakTheGroupAroundLineBreak() {
+        final StringBuilder sink = new StringBuilder();
+        final Emitter output = new Emitter(sink, 80);
+        output.group().append('[').line(1, "").append("# one\n").indent(1).append('1').line(0, "").append(']').end();
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("[\n    # one\n    1\n]"));
+    }
+
+    @Test
+    void shouldWriteTheLongTextWithoutHoldingItForever() {
+        final StringBuilder sink = new StringBuilder();
+        final Emitter output = new Emitter(sink, 8);
+        output.group().append('[').line(1, "").append("123456789");
+        MatcherAssert.assertThat(sink.toString(), Matchers.equalTo("[\n    123456789"));
+    }
+
+}
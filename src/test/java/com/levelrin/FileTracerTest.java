@@ -0,0 +1,41 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class FileTracerTest {
+
+    @Test
+    void shouldWriteEnterAndExitEvents(@TempDir final Path root) throws IOException {
+        final Path file = root.resolve("trace.tsv");
+        try (FileTracer tracer = new FileTracer(file, 1)) {
+            new PythonFormatter(tracer).format("pass\n");
+        }
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        MatcherAssert.assertThat(lines.get(0), Matchers.equalTo("0\tenter\tfile_input\t1\t3"));
+        MatcherAssert.assertThat(lines.get(lines.size() - 1), Matchers.equalTo("0\texit\tfile_input\t1\t3"));
+        MatcherAssert.assertThat(lines, Matchers.hasItem(Matchers.equalTo("0\tenter\tsimple_stmt\t1\t1")));
+    }
+
+    @Test
+    void shouldTraceEveryNthInput(@TempDir final Path root) throws IOException {
+        final Path file = root.resolve("trace.tsv");
+        try (FileTracer tracer = new FileTracer(file, 2)) {
+            final PythonFormatter formatter = new PythonFormatter(tracer);
+            formatter.format("pass\n");
+            formatter.format("pass\n");
+            formatter.format("pass\n");
+        }
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        MatcherAssert.assertThat(lines, Matchers.hasItem(Matchers.startsWith("2\t")));
+        MatcherAssert.assertThat(lines, Matchers.not(Matchers.hasItem(Matchers.startsWith("1\t"))));
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.levelrin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+final class FormatServerTest {
+
+    @Test
+    void shouldFormatOverTheLoopback() throws Exception {
+        final ExecutorService acceptor = Executors.newSingleThreadExecutor();
+        try (FormatServer server = new FormatServer(new PythonFormatter(), 0, 2)) {
+            acceptor.submit(() -> {
+                server.serve();
+                return null;
+            });
+            final FormatClient client = new FormatClient(server.port());
+            MatcherAssert.assertThat(
+                client.format(TestResources.read("class-before.py")),
+                Matchers.equalTo(TestResources.read("class-after.py"))
+            );
+            Assertions.assertThrows(ParseException.class, () -> client.format("def (:\n"));
+            MatcherAssert.assertThat(
+                client.format(TestResources.read("main-before.py")),
+                Matchers.equalTo(TestResources.read("main-after.py"))
+            );
+        } finally {
+            acceptor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldReportUnexpectedErrors() throws Exception {
+        final Tracer broken = new Tracer() {
+            @Override
+            public boolean sample() {
+                return true;
+            }
+
+            @Override
+            public void enter(final int ruleIndex, final int startToken, final int stopToken) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void exit(final int ruleIndex, final int startToken, final int stopToken) {
+                // Nothing to do.
+            }
+        };
+        final ExecutorService acceptor = Executors.newSingleThreadExecutor();
+        try (FormatServer server = new FormatServer(new PythonFormatter(broken), 0, 1)) {
+            acceptor.submit(() -> {
+                server.serve();
+                return null;
+            });
+            final FormatClient client = new FormatClient(server.port());
+            final ParseException error = Assertions.assertThrows(ParseException.class, () -> client.format("x = 1\n"));
+            MatcherAssert.assertThat(error.getMessage(), Matchers.containsString("IllegalStateException"));
+        } finally {
+            acceptor.shutdownNow();
+        }
+    }
+
+}
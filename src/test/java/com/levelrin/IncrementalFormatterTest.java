@@ -0,0 +1,89 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+final class IncrementalFormatterTest {
+
+    /**
+     * The edits we try at every position.
+     */
+    private static final String[] EDITS = {" ", "\n", "x  =  1\n", "#"};
+
+    @Test
+    void shouldSpliceTheEditedStatement() {
+        final PythonFormatter formatter = new PythonFormatter();
+        final IncrementalFormatter incremental = new IncrementalFormatter(formatter);
+        final FormatSnapshot first = incremental.format("a  =  1\nb  =  2\nc  =  3\nd  =  4\ne  =  5\n");
+        final long parsed = formatter.statistics().sll();
+        final FormatSnapshot second = incremental.edit(first, 38, 39, "6");
+        MatcherAssert.assertThat(second.source(), Matchers.equalTo("a  =  1\nb  =  2\nc  =  3\nd  =  4\ne  =  6\n"));
+        MatcherAssert.assertThat(second.output(), Matchers.equalTo("a = 1\nb = 2\nc = 3\nd = 4\ne = 6\n"));
+        MatcherAssert.assertThat(formatter.statistics().sll(), Matchers.equalTo(parsed + 1));
+    }
+
+    @Test
+    void shouldFallBackWhenTheRegionCannotBeParsed() {
+        final IncrementalFormatter incremental = new IncrementalFormatter(new PythonFormatter());
+        final FormatSnapshot first = incremental.format("a = 1\nb = 2\nc = 3\nd = 4\ne = 5\n");
+        Assertions.assertThrows(ParseException.class, () -> incremental.edit(first, 0, 0, "x = (\n"));
+    }
+
+    @Test
+    void shouldMatchTheFullFormatting() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter();
+        final IncrementalFormatter incremental = new IncrementalFormatter(formatter);
+        for (final Path file : TestResources.files(".py")) {
+            final String source = Files.readString(file, StandardCharsets.UTF_8);
+            final FormatSnapshot snapshot = incremental.format(source);
+            for (int position = 0; position <= source.length(); position += 31) {
+                for (final String edit : EDITS) {
+                    final String edited = source.substring(0, position) + edit + source.substring(position);
+                    final String expected = this.full(formatter, edited);
+                    String actual;
+                    try {
+                        final FormatSnapshot next = incremental.edit(snapshot, position, position, edit);
+                        actual = next.output();
+                        // Undo the edit on top of the result to check the recorded offsets as well.
+                        MatcherAssert.assertThat(
+                            incremental.edit(next, position, position + edit.length(), "").output(),
+                            Matchers.equalTo(snapshot.output())
+                        );
+                    } catch (final ParseException | UnsupportedOperationException ex) {
+                        actual = null;
+                    }
+                    MatcherAssert.assertThat(
+                        String.format("%s with %s at %d", file.getFileName(), edit.replace("\n", "\\n"), position),
+                        actual,
+                        Matchers.equalTo(expected)
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Format the whole code.
+     *
+     * @param formatter As is.
+     * @param source As is.
+     * @return Null if it cannot be formatted.
+     */
+    String full(final PythonFormatter formatter, final String source) {
+        String result;
+        try {
+            result = formatter.format(source);
+        } catch (final ParseException | UnsupportedOperationException ex) {
+            result = null;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.antlr.v4.runtime.Token;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class IncrementalLexerTest {
+
+    /**
+     * The edits we try at every position.
+     */
+    private static final String[] EDITS = {" ", "\n", "    ", "(", "\"", "f'{x:>{y}}'\n", "#", "\t"};
+
+    @Test
+    void shouldLexOnlyAroundTheEdit() {
+        final StringBuilder source = new StringBuilder();
+        for (int index = 0; index < 1000; index++) {
+            source.append("def f").append(index).append("(a, b):\n    return a + b\n");
+        }
+        final IncrementalLexer lexer = new IncrementalLexer();
+        final TokenSnapshot first = lexer.lex(source.toString());
+        final int position = source.indexOf("a + b", source.length() / 2);
+        final TokenSnapshot second = lexer.edit(first, position, position + 1, "c");
+        MatcherAssert.assertThat(this.describe(second), Matchers.equalTo(this.describe(lexer.lex(second.source()))));
+        MatcherAssert.assertThat(second.lexed(), Matchers.lessThan(50));
+    }
+
+    @Test
+    void shouldMatchTheFullLexing() throws IOException, URISyntaxException {
+        final IncrementalLexer lexer = new IncrementalLexer();
+        for (final Path file : TestResources.files(".py")) {
+            final String source = Files.readString(file, StandardCharsets.UTF_8);
+            final TokenSnapshot snapshot = lexer.lex(source);
+            for (int position = 0; position <= source.length(); position += 7) {
+                for (final String edit : EDITS) {
+                    final String message = String.format("%s with %s at %d", file.getFileName(), edit.replace("\n", "\\n"), position);
+                    final TokenSnapshot next = lexer.edit(snapshot, position, position, edit);
+                    MatcherAssert.assertThat(message, this.describe(next), Matchers.equalTo(this.describe(lexer.lex(next.source()))));
+                    // Undo the edit on top of the result to check the recorded checkpoints as well.
+                    MatcherAssert.assertThat(
+                        message,
+                        this.describe(lexer.edit(next, position, position + edit.length(), "")),
+                        Matchers.equalTo(this.describe(snapshot))
+                    );
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldMatchTheFullLexingAfterManyEdits() {
+        final StringBuilder source = new StringBuilder();
+        for (int index = 0; index < 300; index++) {
+            source.append("def f").append(index).append("(a, b):\n    return a + b  # sum\n\n");
+        }
+        final IncrementalLexer lexer = new IncrementalLexer();
+        TokenSnapshot snapshot = lexer.lex(source.toString());
+        final Random random = new Random(42);
+        for (int edit = 0; edit < 200; edit++) {
+            final int start = random.nextInt(snapshot.source().length() + 1);
+            final int end = Math.min(snapshot.source().length(), start + random.nextInt(4));
+            snapshot = lexer.edit(snapshot, start, end, EDITS[random.nextInt(EDITS.length)]);
+            MatcherAssert.assertThat(
+                String.format("edit %d at %d", edit, start),
+                this.describe(snapshot),
+                Matchers.equalTo(this.describe(lexer.lex(snapshot.source())))
+            );
+        }
+    }
+
+    /**
+     * Everything the parser and the visitor may read from the tokens.
+     *
+     * @param snapshot As is.
+     * @return One line per token.
+     */
+    String describe(final TokenSnapshot snapshot) {
+        final StringBuilder result = new StringBuilder();
+        for (final Token token : snapshot.tokens()) {
+            result.append(token.getType())
+                .append(' ').append(token.getChannel())
+                .append(' ').append(token.getStartIndex())
+                .append(' ').append(token.getStopIndex())
+                .append(' ').append(token.getLine())
+                .append(' ').append(token.getCharPositionInLine())
+                .append(' ').append(token.getText())
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+}
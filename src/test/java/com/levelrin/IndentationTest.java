@@ -0,0 +1,27 @@
+package com.levelrin;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+final class IndentationTest {
+
+    @Test
+    void shouldRepeatTheUnit() {
+        MatcherAssert.assertThat(Indentation.of(0), Matchers.equalTo(""));
+        MatcherAssert.assertThat(Indentation.of(3), Matchers.equalTo(Indentation.UNIT.repeat(3)));
+    }
+
+    @Test
+    void shouldGrowBeyondTheInitialTable() {
+        MatcherAssert.assertThat(Indentation.of(100), Matchers.equalTo(Indentation.UNIT.repeat(100)));
+        MatcherAssert.assertThat(Indentation.of(100), Matchers.sameInstance(Indentation.of(100)));
+    }
+
+    @Test
+    void shouldRejectNegativeLevel() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Indentation.of(-1));
+    }
+
+}
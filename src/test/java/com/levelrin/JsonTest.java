@@ -0,0 +1,38 @@
+package com.levelrin;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+final class JsonTest {
+
+    @Test
+    void shouldReadNestedValues() {
+        final Object value = Json.parse(" {\"a\": [1, -2.5, true, false, null], \"b\": {\"c\": \"d\\n\\u0041\\\"\"}} ");
+        final Map<?, ?> object = (Map<?, ?>) value;
+        MatcherAssert.assertThat(object.get("a"), Matchers.equalTo(Arrays.asList(1L, -2.5, true, false, null)));
+        MatcherAssert.assertThat(((Map<?, ?>) object.get("b")).get("c"), Matchers.equalTo("d\nA\""));
+    }
+
+    @Test
+    void shouldWriteWhatItReads() {
+        final Map<String, Object> object = new LinkedHashMap<>();
+        object.put("text", "def a():\n\tpass \"quoted\" \\ \u0001");
+        object.put("list", List.of(1L, 2.5, true));
+        object.put("none", null);
+        MatcherAssert.assertThat(Json.parse(Json.write(object)), Matchers.equalTo(object));
+    }
+
+    @Test
+    void shouldRejectInvalidJson() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Json.parse("{\"a\": }"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Json.parse("[1, 2"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Json.parse("1 2"));
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.levelrin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class LanguageServerTest {
+
+    /**
+     * Frame the JSON messages like an LSP client does.
+     *
+     * @param messages JSON texts.
+     * @return As is.
+     */
+    byte[] frame(final String... messages) {
+        final StringBuilder result = new StringBuilder();
+        for (final String message : messages) {
+            result.append("Content-Length: ")
+                .append(message.getBytes(StandardCharsets.UTF_8).length)
+                .append("\r\n\r\n")
+                .append(message);
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Split the output of the server into messages keyed by the request ID.
+     *
+     * @param output As is.
+     * @return As is.
+     */
+    Map<Object, Map<?, ?>> responses(final byte[] output) {
+        final String text = new String(output, StandardCharsets.UTF_8);
+        final Map<Object, Map<?, ?>> result = new HashMap<>();
+        int position = 0;
+        while (position < text.length()) {
+            final int separator = text.indexOf("\r\n\r\n", position);
+            final int length = Integer.parseInt(text.substring(position + "Content-Length: ".length(), separator));
+            final int start = separator + 4;
+            final byte[] body = text.substring(start).getBytes(StandardCharsets.UTF_8);
+            final String json = new String(body, 0, length, StandardCharsets.UTF_8);
+            final Map<?, ?> message = (Map<?, ?>) Json.parse(json);
+            result.put(message.get("id"), message);
+            position = start + json.length();
+        }
+        return result;
+    }
+
+    @Test
+    void shouldFormatOpenDocuments() throws IOException, URISyntaxException {
+        final String before = TestResources.read("main-before.py");
+        final String document = "{\"uri\":\"file:///a.py\",\"languageId\":\"python\",\"version\":1,\"text\":" + Json.write(before) + "}";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int code = new LanguageServer(
+            new PythonFormatter(),
+            new ByteArrayInputStream(
+                this.frame(
+                    "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"initialized\",\"params\":{}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":" + document + "}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/formatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"textDocument/formatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///b.py\"},\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":4,\"method\":\"shutdown\"}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+                )
+            ),
+            output
+        ).run();
+        MatcherAssert.assertThat(code, Matchers.equalTo(0));
+        final Map<Object, Map<?, ?>> responses = this.responses(output.toByteArray());
+        MatcherAssert.assertThat(
+            (Map<?, ?>) ((Map<?, ?>) responses.get(1L).get("result")).get("capabilities"),
+            Matchers.hasEntry("documentFormattingProvider", true)
+        );
+        final List<?> edits = (List<?>) responses.get(2L).get("result");
+        MatcherAssert.assertThat(edits, Matchers.hasSize(1));
+        MatcherAssert.assertThat(((Map<?, ?>) edits.get(0)).get("newText"), Matchers.equalTo(TestResources.read("main-after.py")));
+        MatcherAssert.assertThat(responses.get(3L), Matchers.hasKey("error"));
+        MatcherAssert.assertThat(responses.get(4L), Matchers.hasEntry("result", null));
+    }
+
+    @Test
+    void shouldFormatOnlyTheStatementsInRange() throws IOException {
+        final String text = "a  =  1\nb  =  2\nc  =  3\n";
+        final String document = "{\"uri\":\"file:///a.py\",\"version\":1,\"text\":" + Json.write(text) + "}";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LanguageServer(
+            new PythonFormatter(),
+            new ByteArrayInputStream(
+                this.frame(
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":" + document + "}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"textDocument/rangeFormatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},"
+                        + "\"range\":{\"start\":{\"line\":1,\"character\":0},\"end\":{\"line\":2,\"character\":0}},\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+                )
+            ),
+            output
+        ).run();
+        final List<?> edits = (List<?>) this.responses(output.toByteArray()).get(1L).get("result");
+        final Map<?, ?> edit = (Map<?, ?>) edits.get(0);
+        MatcherAssert.assertThat(edit.get("newText"), Matchers.equalTo("b = 2\n"));
+        final Map<?, ?> range = (Map<?, ?>) edit.get("range");
+        MatcherAssert.assertThat(((Map<?, ?>) range.get("start")).get("line"), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(((Map<?, ?>) range.get("end")).get("line"), Matchers.equalTo(2L));
+    }
+
+    @Test
+    void shouldApplyTheEditedRanges() throws IOException {
+        final String text = "a  =  1\nb  =  2\n";
+        final String document = "{\"uri\":\"file:///a.py\",\"version\":1,\"text\":" + Json.write(text) + "}";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LanguageServer(
+            new PythonFormatter(),
+            new ByteArrayInputStream(
+                this.frame(
+                    "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":" + document + "}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\",\"version\":2},"
+                        + "\"contentChanges\":["
+                        + "{\"range\":{\"start\":{\"line\":1,\"character\":0},\"end\":{\"line\":1,\"character\":1}},\"text\":\"bb\"},"
+                        + "{\"range\":{\"start\":{\"line\":2,\"character\":0},\"end\":{\"line\":2,\"character\":0}},\"text\":\"c  =  3\\n\"},"
+                        + "{\"range\":{\"start\":{\"line\":0,\"character\":5},\"end\":{\"line\":0,\"character\":99}},\"text\":\"4\"}"
+                        + "]}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/formatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+                )
+            ),
+            output
+        ).run();
+        final Map<Object, Map<?, ?>> responses = this.responses(output.toByteArray());
+        MatcherAssert.assertThat(
+            (Map<?, ?>) ((Map<?, ?>) responses.get(1L).get("result")).get("capabilities"),
+            Matchers.hasEntry("textDocumentSync", 2L)
+        );
+        final List<?> edits = (List<?>) responses.get(2L).get("result");
+        MatcherAssert.assertThat(((Map<?, ?>) edits.get(0)).get("newText"), Matchers.equalTo("a = 4\nbb = 2\nc = 3\n"));
+    }
+
+    @Test
+    void shouldFormatAgainAfterTheCodeIsFixed() throws IOException {
+        final String text = "a  =  1\nb  =  2\nc  =  3\n";
+        final String document = "{\"uri\":\"file:///a.py\",\"version\":1,\"text\":" + Json.write(text) + "}";
+        final String formatting = "\"method\":\"textDocument/formatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},\"options\":{}}}";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LanguageServer(
+            new PythonFormatter(),
+            new ByteArrayInputStream(
+                this.frame(
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":" + document + "}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\",\"version\":2},"
+                        + "\"contentChanges\":[{\"range\":{\"start\":{\"line\":1,\"character\":6},\"end\":{\"line\":1,\"character\":7}},\"text\":\"(\"}]}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":2," + formatting,
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\",\"version\":3},"
+                        + "\"contentChanges\":[{\"range\":{\"start\":{\"line\":1,\"character\":6},\"end\":{\"line\":1,\"character\":7}},\"text\":\"f(5)\"}]}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"textDocument/rangeFormatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},"
+                        + "\"range\":{\"start\":{\"line\":1,\"character\":0},\"end\":{\"line\":1,\"character\":3}},\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+                )
+            ),
+            output
+        ).run();
+        final Map<Object, Map<?, ?>> responses = this.responses(output.toByteArray());
+        MatcherAssert.assertThat(responses.get(2L), Matchers.hasKey("error"));
+        final Map<?, ?> edit = (Map<?, ?>) ((List<?>) responses.get(3L).get("result")).get(0);
+        MatcherAssert.assertThat(edit.get("newText"), Matchers.equalTo("b = f(5)\n"));
+        MatcherAssert.assertThat(((Map<?, ?>) ((Map<?, ?>) edit.get("range")).get("start")).get("line"), Matchers.equalTo(1L));
+    }
+
+    @Test
+    void shouldFormatTheFinishedStatementWhileTheOthersAreBroken() throws IOException {
+        final String text = "x  =  =  1\nif  x:\n    y  =  1\nb  =  2\n";
+        final String document = "{\"uri\":\"file:///a.py\",\"version\":1,\"text\":" + Json.write(text) + "}";
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LanguageServer(
+            new PythonFormatter(),
+            new ByteArrayInputStream(
+                this.frame(
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":" + document + "}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\",\"version\":2},"
+                        + "\"contentChanges\":[{\"range\":{\"start\":{\"line\":2,\"character\":11},\"end\":{\"line\":2,\"character\":11}},\"text\":\"\\n\"}]}}",
+                    "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"textDocument/onTypeFormatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},"
+                        + "\"position\":{\"line\":3,\"character\":0},\"ch\":\"\\n\",\"options\":{}}}",
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+                )
+            ),
+            output
+        ).run();
+        final Map<?, ?> edit = (Map<?, ?>) ((List<?>) this.responses(output.toByteArray()).get(1L).get("result")).get(0);
+        MatcherAssert.assertThat(edit.get("newText"), Matchers.equalTo("if x:\n    y = 1\n"));
+        final Map<?, ?> range = (Map<?, ?>) edit.get("range");
+        MatcherAssert.assertThat(((Map<?, ?>) range.get("start")).get("line"), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(((Map<?, ?>) range.get("end")).get("line"), Matchers.equalTo(4L));
+    }
+
+    @Test
+    void shouldKeepServingAfterBadMessages() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] header = "Content-Length: many\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        final byte[] messages = this.frame(
+            "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"}}}",
+            "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"textDocument/formatting\",\"params\":{\"textDocument\":{\"uri\":\"file:///a.py\"},\"options\":{}}}",
+            "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":5,\"params\":{\"textDocument\":{\"uri\":7}}}",
+            "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"shutdown\"}",
+            "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"
+        );
+        final byte[] input = new byte[header.length + messages.length];
+        System.arraycopy(header, 0, input, 0, header.length);
+        System.arraycopy(messages, 0, input, header.length, messages.length);
+        final int code = new LanguageServer(new PythonFormatter(), new ByteArrayInputStream(input), output).run();
+        MatcherAssert.assertThat(code, Matchers.equalTo(0));
+        final Map<Object, Map<?, ?>> responses = this.responses(output.toByteArray());
+        MatcherAssert.assertThat(responses.get(null), Matchers.hasKey("error"));
+        MatcherAssert.assertThat(responses.get(1L), Matchers.hasKey("error"));
+        MatcherAssert.assertThat(responses.get(2L), Matchers.hasKey("error"));
+        MatcherAssert.assertThat(responses.get(3L), Matchers.hasEntry("result", null));
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class MappedCharStreamTest {
+
+    @Test
+    void shouldReadAsciiWithoutDecoding(@TempDir final Path root) throws IOException {
+        final String code = "x  =  {'a':1}\n";
+        final Path file = Files.writeString(root.resolve("ascii.py"), code, StandardCharsets.UTF_8);
+        final CharStream stream = MappedCharStream.open(file);
+        MatcherAssert.assertThat(stream, Matchers.instanceOf(MappedCharStream.class));
+        MatcherAssert.assertThat(stream.getSourceName(), Matchers.equalTo(file.toString()));
+        MatcherAssert.assertThat(new PythonFormatter().format(stream), Matchers.equalTo("x = {\n    'a': 1\n}\n"));
+        MatcherAssert.assertThat(MappedCharStream.contentEquals(stream, code), Matchers.equalTo(true));
+        MatcherAssert.assertThat(MappedCharStream.contentEquals(stream, "x = 1\n"), Matchers.equalTo(false));
+    }
+
+    @Test
+    void shouldBehaveLikeTheStringStream() throws IOException {
+        final String code = "a = 1\n";
+        final CharStream expected = CharStreams.fromString(code);
+        final CharStream actual = MappedCharStream.of(ByteBuffer.wrap(code.getBytes(StandardCharsets.US_ASCII)), StandardCharsets.UTF_8, "");
+        MatcherAssert.assertThat(actual.getSourceName(), Matchers.equalTo(IntStream.UNKNOWN_SOURCE_NAME));
+        for (int index = 0; index <= code.length(); index++) {
+            expected.seek(index);
+            actual.seek(index);
+            for (int offset = -2; offset <= 2; offset++) {
+                MatcherAssert.assertThat(actual.LA(offset), Matchers.equalTo(expected.LA(offset)));
+            }
+        }
+        MatcherAssert.assertThat(actual.getText(Interval.of(2, 100)), Matchers.equalTo(expected.getText(Interval.of(2, 100))));
+        MatcherAssert.assertThat(actual.getText(Interval.of(3, 2)), Matchers.equalTo(""));
+    }
+
+    @Test
+    void shouldDecodeOnlyWhenNeeded() throws IOException {
+        final String code = "s = 'caf\u00e9'\n";
+        final CharStream utf8 = MappedCharStream.of(ByteBuffer.wrap(code.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, "utf8.py");
+        MatcherAssert.assertThat(utf8, Matchers.not(Matchers.instanceOf(MappedCharStream.class)));
+        MatcherAssert.assertThat(MappedCharStream.contentEquals(utf8, code), Matchers.equalTo(true));
+        final CharStream latin1 = MappedCharStream.of(ByteBuffer.wrap(code.getBytes(StandardCharsets.ISO_8859_1)), StandardCharsets.ISO_8859_1, "latin1.py");
+        MatcherAssert.assertThat(latin1, Matchers.instanceOf(MappedCharStream.class));
+        MatcherAssert.assertThat(MappedCharStream.contentEquals(latin1, code), Matchers.equalTo(true));
+        MatcherAssert.assertThat(new PythonFormatter().format(latin1), Matchers.equalTo(code));
+    }
+
+    @Test
+    void shouldRejectInvalidBytes() {
+        final byte[] latin1 = "s = 'caf\u00e9'\n".getBytes(StandardCharsets.ISO_8859_1);
+        Assertions.assertThrows(
+            CharacterCodingException.class,
+            () -> MappedCharStream.of(ByteBuffer.wrap(latin1), StandardCharsets.UTF_8, "latin1.py")
+        );
+    }
+
+    @Test
+    void shouldFindTheDeclaredEncoding() throws IOException {
+        MatcherAssert.assertThat(this.charset("x = 1\n"), Matchers.equalTo(StandardCharsets.UTF_8));
+        MatcherAssert.assertThat(this.charset("# -*- coding: latin-1 -*-\n"), Matchers.equalTo(StandardCharsets.ISO_8859_1));
+        MatcherAssert.assertThat(this.charset("#!/usr/bin/python\r\n# vim: set fileencoding=utf-8-unix :\n"), Matchers.equalTo(StandardCharsets.UTF_8));
+        MatcherAssert.assertThat(this.charset("#!/usr/bin/python\n# coding=ascii\n"), Matchers.equalTo(StandardCharsets.US_ASCII));
+        // Only the first two lines count.
+        MatcherAssert.assertThat(this.charset("\n\n# coding: latin-1\n"), Matchers.equalTo(StandardCharsets.UTF_8));
+        MatcherAssert.assertThat(this.charset("x = 1\n# coding: latin-1\n"), Matchers.equalTo(StandardCharsets.UTF_8));
+        // We stop reading in the middle of a huge first line.
+        MatcherAssert.assertThat(this.charset("#" + " ".repeat(5000) + "\n# coding: latin-1\n"), Matchers.equalTo(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IOException.class, () -> this.charset("# coding: klingon\n"));
+    }
+
+    /**
+     * Find the declared encoding of the code.
+     *
+     * @param code As is.
+     * @return As is.
+     * @throws IOException If the encoding is not supported.
+     */
+    Charset charset(final String code) throws IOException {
+        return MappedCharStream.charset(ByteBuffer.wrap(code.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonParser;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.antlr.v4.runtime.CharStreams;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+final class PythonFormatterTest {
+
+    @Test
+    void shouldReuseThePipelineAcrossInputs() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter();
+        final String[] names = {"class", "comment", "dictionary", "lambda", "main", "class"};
+        for (final String name : names) {
+            MatcherAssert.assertThat(
+                formatter.format(TestResources.read(name + "-before.py")),
+                Matchers.equalTo(TestResources.read(name + "-after.py"))
+            );
+        }
+    }
+
+    @Test
+    void shouldFormatTheSameWithCompactTree() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter(Tracer.NONE, true);
+        for (final Path before : TestResources.files("-before.py")) {
+            final String name = before.getFileName().toString();
+            MatcherAssert.assertThat(
+                name,
+                formatter.format(Files.readString(before, StandardCharsets.UTF_8)),
+                Matchers.equalTo(TestResources.read(name.replace("-before.py", "-after.py")))
+            );
+        }
+    }
+
+    @Test
+    void shouldRemoveUnitProductionsFromCompactTree() {
+        final String code = "a = b + c\n";
+        final PythonVisitor full = new PythonFormatter().visit(CharStreams.fromString(code), new StringBuilder());
+        final PythonVisitor compact = new PythonFormatter(Tracer.NONE, true).visit(CharStreams.fromString(code), new StringBuilder());
+        MatcherAssert.assertThat(full.ruleVisitCount(PythonParser.RULE_disjunction), Matchers.equalTo(1));
+        MatcherAssert.assertThat(compact.ruleVisitCount(PythonParser.RULE_disjunction), Matchers.equalTo(0));
+        MatcherAssert.assertThat(compact.ruleVisitCount(PythonParser.RULE_star_expressions), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldKeepShortDictionaryOnOneLine() {
+        final PythonFormatter formatter = new PythonFormatter(Tracer.NONE, false, 88);
+        MatcherAssert.assertThat(
+            formatter.format("person =  { \"name\"  :   \"Alice\" , \"age\" :  30 , }\n"),
+            Matchers.equalTo("person = {\"name\": \"Alice\", \"age\": 30}\n")
+        );
+    }
+
+    @Test
+    void shouldBreakDictionaryLongerThanLineWidth() {
+        final PythonFormatter formatter = new PythonFormatter(Tracer.NONE, false, 30);
+        MatcherAssert.assertThat(
+            formatter.format("person =  { \"name\"  :   \"Alice\" , \"age\" :  30 , }\n"),
+            Matchers.equalTo("person = {\n    \"name\": \"Alice\",\n    \"age\": 30,\n}\n")
+        );
+    }
+
+    @Test
+    void shouldWrapLongCallsAtTheLineWidth() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter(Tracer.NONE, false, 88);
+        final String formatted = formatter.format(TestResources.read("line-width/call-before.py"));
+        MatcherAssert.assertThat(formatted, Matchers.equalTo(TestResources.read("line-width/call-after.py")));
+        MatcherAssert.assertThat(formatter.format(formatted), Matchers.equalTo(formatted));
+    }
+
+    @Test
+    void shouldWrapLongLiteralsAtTheLineWidth() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter(Tracer.NONE, false, 88);
+        final String formatted = formatter.format(TestResources.read("line-width/literal-before.py"));
+        MatcherAssert.assertThat(formatted, Matchers.equalTo(TestResources.read("line-width/literal-after.py")));
+        MatcherAssert.assertThat(formatter.format(formatted), Matchers.equalTo(formatted));
+    }
+
+    @Test
+    void shouldNotWrapCallsWithoutLineWidth() {
+        final String code = "result = compute_the_total_amount(first_argument_value, second_argument_value, third_argument_value)\n";
+        MatcherAssert.assertThat(new PythonFormatter().format(code), Matchers.equalTo(code));
+    }
+
+    @Test
+    void shouldWriteIntoTheSink() throws IOException, URISyntaxException {
+        final StringBuilder sink = new StringBuilder("# header\n");
+        new PythonFormatter().format(CharStreams.fromString(TestResources.read("lambda-before.py")), sink);
+        MatcherAssert.assertThat(
+            sink.toString(),
+            Matchers.equalTo("# header\n" + TestResources.read("lambda-after.py"))
+        );
+    }
+
+    @Test
+    void shouldRecoverAfterParseError() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter();
+        Assertions.assertThrows(ParseException.class, () -> formatter.format("def (:\n"));
+        MatcherAssert.assertThat(
+            formatter.format(TestResources.read("while-before.py")),
+            Matchers.equalTo(TestResources.read("while-after.py"))
+        );
+    }
+
+    @Test
+    void shouldCountLlFallbacks() throws IOException, URISyntaxException {
+        final PythonFormatter formatter = new PythonFormatter();
+        formatter.format(TestResources.read("if-before.py"));
+        Assertions.assertThrows(ParseException.class, () -> formatter.format("while True\n    pass\n"));
+        MatcherAssert.assertThat(formatter.statistics().sll(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(formatter.statistics().fallbacks(), Matchers.equalTo(1L));
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class PythonLexerBaseTest {
+
+    @Test
+    void shouldNotCloseTheFormatSpecAfterComprehension() {
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString(""));
+        // Twice, so the second round uses the remembered results.
+        for (int round = 0; round < 2; round++) {
+            MatcherAssert.assertThat(
+                this.tokens(lexer, "f'{x:{a for a in b}}'"),
+                Matchers.equalTo("f' { x : { a for a in b } } '")
+            );
+            MatcherAssert.assertThat(
+                this.tokens(lexer, "f'{x:{a}}'"),
+                Matchers.equalTo("f' { x : { a } [] } '")
+            );
+            MatcherAssert.assertThat(
+                this.tokens(lexer, "f'{x:{for_}}'"),
+                Matchers.equalTo("f' { x : { for_ } [] } '")
+            );
+        }
+    }
+
+    @Test
+    void shouldIncludeTheNestedBraceExpressions() {
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString(""));
+        MatcherAssert.assertThat(
+            this.tokens(lexer, "f'{x:{a for a in {b}}}'"),
+            Matchers.equalTo("f' { x : { a for a in { b } [] } } '")
+        );
+        MatcherAssert.assertThat(
+            this.tokens(lexer, "f'{x:{a + {b}}}'"),
+            Matchers.equalTo("f' { x : { a + { b } [] } [] } '")
+        );
+    }
+
+    /**
+     * Lex the code with the lexer, which keeps what it remembers across inputs.
+     *
+     * @param lexer As is.
+     * @param code The code without the trailing newline.
+     * @return The texts of the tokens on the default channel before the NEWLINE, and [] for an empty text.
+     */
+    String tokens(final PythonLexer lexer, final String code) {
+        lexer.setInputStream(CharStreams.fromString(code + "\n"));
+        final StringBuilder result = new StringBuilder();
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            if (token.getChannel() == Token.DEFAULT_CHANNEL && token.getType() != PythonLexer.NEWLINE) {
+                if (token.getText().isEmpty()) {
+                    result.append("[]");
+                } else {
+                    result.append(token.getText());
+                }
+                result.append(' ');
+            }
+        }
+        return result.toString().trim();
+    }
+
+}
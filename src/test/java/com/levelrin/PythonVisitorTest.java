@@ -36,8 +36,10 @@ final class PythonVisitorTest {
             parser.removeErrorListeners();
             parser.addErrorListener(errorListener);
             final ParseTree tree = parser.file_input();
-            final PythonVisitor visitor = new PythonVisitor(tokens);
-            final String result = visitor.visit(tree);
+            final StringBuilder output = new StringBuilder();
+            final PythonVisitor visitor = new PythonVisitor(tokens, output);
+            visitor.visit(tree);
+            final String result = output.toString();
             final Path afterPath = Paths.get(ClassLoader.getSystemResource(after).toURI());
             final String expectedText = Files.readString(afterPath, StandardCharsets.UTF_8);
             MatcherAssert.assertThat(
@@ -57,6 +59,51 @@ final class PythonVisitorTest {
         }
     }
 
+    @Test
+    void shouldCountRuleVisits() {
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString("a = b(c(d))\n"));
+        final CommonTokenStream tokens = new CommonTokenStream(lexer);
+        final ParseTree tree = new PythonParser(tokens).file_input();
+        final PythonVisitor visitor = new PythonVisitor(tokens, new StringBuilder());
+        visitor.visit(tree);
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_file_input), Matchers.equalTo(1));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_arguments), Matchers.equalTo(2));
+        final int[] snapshot = visitor.ruleVisitCounts();
+        snapshot[PythonParser.RULE_file_input] = 0;
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_file_input), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldCountSkippedUnitProductions() {
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString("a = b + c\n"));
+        final CommonTokenStream tokens = new CommonTokenStream(lexer);
+        final ParseTree tree = new PythonParser(tokens).file_input();
+        final StringBuilder output = new StringBuilder();
+        final PythonVisitor visitor = new PythonVisitor(tokens, output);
+        visitor.visit(tree);
+        MatcherAssert.assertThat(output.toString(), Matchers.equalTo("a = b + c\n"));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_expression), Matchers.equalTo(1));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_sum), Matchers.equalTo(2));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_term), Matchers.equalTo(2));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_primary), Matchers.equalTo(2));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_atom), Matchers.equalTo(2));
+        MatcherAssert.assertThat(visitor.ruleVisitCount(PythonParser.RULE_name), Matchers.equalTo(3));
+    }
+
+    @Test
+    void shouldWriteBlankLineBeforeTrailingCommentsOfMethod() {
+        final String code = "class A:\n    def f(self):\n        return 1\n    # g\n    def g(self):\n        return 2\n";
+        final PythonLexer lexer = new PythonLexer(CharStreams.fromString(code));
+        final CommonTokenStream tokens = new CommonTokenStream(lexer);
+        final ParseTree tree = new PythonParser(tokens).file_input();
+        final StringBuilder output = new StringBuilder();
+        new PythonVisitor(tokens, output).visit(tree);
+        MatcherAssert.assertThat(
+            output.toString(),
+            Matchers.equalTo("class A:\n\n    def f(self):\n        return 1\n\n    # g\n    def g(self):\n        return 2\n\n")
+        );
+    }
+
     @Test
     void shouldFormatPrivateVariable() {
         this.compare("private-variable-before.py", "private-variable-after.py");
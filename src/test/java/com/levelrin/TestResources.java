@@ -0,0 +1,52 @@
+package com.levelrin;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The Python files in the test resources.
+ * The benchmarks use them as inputs, too.
+ */
+final class TestResources {
+
+    /**
+     * Utility class.
+     */
+    private TestResources() {
+    }
+
+    /**
+     * Read a file from the test resources.
+     *
+     * @param name File name.
+     * @return File content.
+     * @throws IOException If we fail to read the file.
+     * @throws URISyntaxException If the file name is invalid.
+     */
+    static String read(final String name) throws IOException, URISyntaxException {
+        return Files.readString(Paths.get(ClassLoader.getSystemResource(name).toURI()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * All files in the test resources whose names end with the suffix.
+     *
+     * @param suffix Ex: `.py` or `-before.py`.
+     * @return The files sorted by the name.
+     * @throws IOException If we fail to list the files.
+     * @throws URISyntaxException If the directory name is invalid.
+     */
+    static List<Path> files(final String suffix) throws IOException, URISyntaxException {
+        final Path directory = Paths.get(ClassLoader.getSystemResource("main-before.py").toURI()).getParent();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.levelrin;
+
+import com.levelrin.antlr.generated.PythonLexer;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+final class TokenIndexTest {
+
+    @Test
+    void shouldMatchTheHiddenTokensToLeft() throws IOException, URISyntaxException {
+        for (final Path file : TestResources.files(".py")) {
+            final CommonTokenStream stream = new CommonTokenStream(new PythonLexer(CharStreams.fromPath(file)));
+            final TokenIndex index = new TokenIndex(stream);
+            for (int tokenIndex = 0; tokenIndex < stream.size(); tokenIndex++) {
+                final List<Token> expected = stream.getHiddenTokensToLeft(tokenIndex, TokenIndex.COMMENT_CHANNEL);
+                final List<Token> actual = new ArrayList<>();
+                for (int position = index.commentsFrom(tokenIndex); position < index.commentsTo(tokenIndex); position++) {
+                    actual.add(index.comment(position));
+                }
+                if (expected == null) {
+                    MatcherAssert.assertThat(file.toString(), actual, Matchers.empty());
+                } else {
+                    MatcherAssert.assertThat(file.toString(), actual, Matchers.equalTo(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldCountIndentsAndDedentsAfterToken() {
+        final CommonTokenStream stream = new CommonTokenStream(
+            new PythonLexer(CharStreams.fromString("if a:\n    if b:\n        c\nd\n"))
+        );
+        final TokenIndex index = new TokenIndex(stream);
+        int indents = 0;
+        int dedents = 0;
+        for (final Token token : stream.getTokens()) {
+            if (token.getType() == PythonLexer.NEWLINE) {
+                indents += index.indentsAfter(token.getTokenIndex());
+                dedents = Math.max(dedents, index.dedentsAfter(token.getTokenIndex()));
+            }
+        }
+        MatcherAssert.assertThat(indents, Matchers.equalTo(2));
+        MatcherAssert.assertThat(dedents, Matchers.equalTo(2));
+    }
+
+}
@@ -0,0 +1,9 @@
+# A short call stays on one line
+print( "Hello" ,  "World" )
+# A long call is broken into one argument per line
+result = compute_the_total_amount(first_argument_value, second_argument_value, third_argument_value)
+# The nested call stays on one line if it fits
+print("The total amount is:", compute_the_total_amount(first_argument_value, second_argument_value))
+# A subscript is broken like a call
+value = matrix[first_index_expression_that_is_long, second_index_expression_that_is_long, third]
+empty = make()
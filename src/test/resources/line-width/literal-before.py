@@ -0,0 +1,14 @@
+# Short literals stay on one line
+numbers = [ 1 , 2 , 3 , ]
+letters = { "a" , "b" }
+pair = ( 1 , 2 )
+single = ( 42 , )
+# Long literals are broken into one element per line
+fruits = ["apple", "banana", "cherry", "durian", "elderberry", "fig", "grape", "honeydew melon"]
+colors = {"red", "orange", "yellow", "green", "blue", "indigo", "violet", "ultraviolet", "infrared"}
+point = (first_coordinate_value, second_coordinate_value, third_coordinate_value, fourth)
+# The trailing comma stays only if the literal is broken
+words = ["alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india",]
+# The nested literal is broken only if it doesn't fit
+grid = [[1, 2, 3], [4, 5, 6], [7, 8, 9], ["a long string to make it wider", "another one here"]]
+nothing = []